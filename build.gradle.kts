@@ -2,6 +2,7 @@ import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
 
 plugins {
     kotlin("jvm") version "1.9.0"
+    id("me.champeau.jmh") version "0.7.1"
 }
 
 repositories {
@@ -17,6 +18,7 @@ dependencies {
     implementation("org.bytedeco:mkl-platform:2022.2-1.5.8")
     implementation("org.bytedeco:mkl-platform-redist:2022.2-1.5.8")
     implementation("com.saveourtool.kompiledb:kompiledb-gson:1.0.1")
+    implementation("com.google.code.gson:gson:2.10.1")
     implementation("org.checkerframework:checker-qual:3.33.0")
 
     /*
@@ -25,6 +27,21 @@ dependencies {
      */
     implementation("io.shiftleft:overflowdb-traversal_2.13:1.171")
     implementation("io.shiftleft:overflowdb-formats_2.13:1.171")
+
+    jmh("org.openjdk.jol:jol-core:0.17")
+}
+
+jmh {
+    jmhVersion.set("1.36")
+
+    /*
+     * The allocation rate is reported along with the time, and the results
+     * are also written as JSON, so that runs can be compared between commits
+     * (e.g.: with https://jmh.morethan.io).
+     */
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
 }
 
 internal val compileKotlin: KotlinCompile by tasks
@@ -0,0 +1,65 @@
+package com.example;
+
+import com.example.clang.Index;
+import com.example.clang.TokenIndex;
+import com.example.clang.TranslationUnit;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
+
+/**
+ * Reports the retained heap size per node of a tree of {@link AstNode}
+ * objects and of a {@link CompactAst} built from the same translation unit,
+ * as measured by <em>JOL</em>.
+ *
+ * <p>
+ * Usage: {@code AstFootprint [FILE]}; if no file is given, a synthetic one
+ * is generated (see {@link GeneratedSources#deeplyNested(int, int)}).
+ * </p>
+ *
+ * @see AstRepresentationBenchmark
+ */
+public final class AstFootprint {
+    private AstFootprint() {
+        assert false;
+    }
+
+    public static void main(final @NonNull String args @NonNull[]) throws IOException {
+        final int depth = 3;
+        final Path file = args.length == 0
+                ? GeneratedSources.deeplyNested(2_000, depth)
+                : Path.of(args[0]);
+
+        try (final Index index = new Index();
+             final TranslationUnit translationUnit = TranslationUnit.parse(
+                     index,
+                     file,
+                     List.of(GeneratedSources.bracketDepthArgument(depth)),
+                     CXTranslationUnit_None
+             );
+             final FlatAstVisitor visitor = new FlatAstVisitor()) {
+            final TokenIndex tokenIndex = new TokenIndex(translationUnit.getCxTranslationUnit(), file);
+
+            final AstNode astNode = new AstNode(file.getFileName().toString());
+            visitor.visit(translationUnit.getCursor(), astNode, tokenIndex);
+
+            final CompactAst.Builder builder = new CompactAst.Builder(file.getFileName().toString());
+            visitor.visit(translationUnit.getCursor(), builder, tokenIndex);
+            final CompactAst compactAst = builder.build();
+
+            final int nodeCount = compactAst.size();
+            final long astNodeBytes = GraphLayout.parseInstance(astNode).totalSize();
+            final long compactAstBytes = GraphLayout.parseInstance(compactAst).totalSize();
+
+            System.out.printf("Nodes: %d%n", nodeCount);
+            System.out.printf("AstNode:    %,12d bytes, %6.1f bytes/node%n", astNodeBytes, (double) astNodeBytes / nodeCount);
+            System.out.printf("CompactAst: %,12d bytes, %6.1f bytes/node%n", compactAstBytes, (double) compactAstBytes / nodeCount);
+            System.out.printf("Ratio: %.1fx%n", (double) astNodeBytes / compactAstBytes);
+        }
+    }
+}
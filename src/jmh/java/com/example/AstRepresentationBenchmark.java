@@ -0,0 +1,125 @@
+package com.example;
+
+import com.example.clang.Index;
+import com.example.clang.TokenIndex;
+import com.example.clang.TranslationUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
+
+/**
+ * Compares building and walking a tree of {@link AstNode} objects with a
+ * {@link CompactAst}.
+ *
+ * <p>
+ * See {@link AstFootprint} for the memory footprint of both.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AstRepresentationBenchmark {
+    @Param("500")
+    public int functionCount;
+
+    @Param("3")
+    public int depth;
+
+    private Index index;
+
+    private TranslationUnit translationUnit;
+
+    private TokenIndex tokenIndex;
+
+    private FlatAstVisitor visitor;
+
+    private AstNode astNode;
+
+    private CompactAst compactAst;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path file = GeneratedSources.deeplyNested(functionCount, depth);
+        index = new Index();
+        translationUnit = TranslationUnit.parse(
+                index,
+                file,
+                List.of(GeneratedSources.bracketDepthArgument(depth)),
+                CXTranslationUnit_None
+        );
+        tokenIndex = new TokenIndex(translationUnit.getCxTranslationUnit(), file);
+        visitor = new FlatAstVisitor();
+        astNode = buildAstNode();
+        compactAst = buildCompactAst();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        visitor.close();
+        translationUnit.close();
+        index.close();
+    }
+
+    @Benchmark
+    public AstNode buildAstNode() {
+        final AstNode rootNode = new AstNode("root");
+        visitor.visit(translationUnit.getCursor(), rootNode, tokenIndex);
+        return rootNode;
+    }
+
+    @Benchmark
+    public CompactAst buildCompactAst() {
+        final CompactAst.Builder builder = new CompactAst.Builder("root");
+        visitor.visit(translationUnit.getCursor(), builder, tokenIndex);
+        return builder.build();
+    }
+
+    @Benchmark
+    public long walkAstNode() {
+        long textLength = 0L;
+        final Deque<AstNode> nodes = new ArrayDeque<>();
+        nodes.push(astNode);
+        while (!nodes.isEmpty()) {
+            final AstNode node = nodes.pop();
+            textLength += node.getText().length() + node.getDepth();
+            node.getChildren().forEach(nodes::push);
+        }
+        return textLength;
+    }
+
+    @Benchmark
+    public long walkCompactAst() {
+        long textLength = 0L;
+        final int depths[] = new int[compactAst.size()];
+        for (int node = 0; node < compactAst.size(); node++) {
+            final int parent = compactAst.getParent(node);
+            if (parent != CompactAst.NONE) {
+                depths[node] = depths[parent] + 1;
+            }
+            textLength += compactAst.getText(node).length() + depths[node];
+        }
+        return textLength;
+    }
+}
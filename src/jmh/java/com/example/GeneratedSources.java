@@ -0,0 +1,81 @@
+package com.example;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Synthetic C sources used as a benchmark corpus, along with the real ones
+ * bundled as resources.
+ */
+public final class GeneratedSources {
+    private GeneratedSources() {
+        assert false;
+    }
+
+    /**
+     * Generates {@code functionCount} functions, each containing
+     * {@code depth} nested compound statements with a declaration at each
+     * nesting level.
+     *
+     * <p>
+     * The resulting file should be parsed with {@code -fbracket-depth} set to
+     * at least {@code depth + 1}, see {@link #bracketDepthArgument(int)}.
+     * </p>
+     *
+     * @return the generated file (deleted on JVM exit).
+     * @see #bracketDepthArgument(int)
+     */
+    public static @NonNull Path deeplyNested(
+            final int functionCount,
+            final int depth
+    ) throws IOException {
+        final StringBuilder source = new StringBuilder();
+        for (int function = 0; function < functionCount; function++) {
+            source.append("int f").append(function).append("(int x) {\n");
+            for (int level = 0; level < depth; level++) {
+                source.append("{ int v").append(level).append(" = x + ").append(level).append(";\n");
+            }
+            for (int level = 0; level < depth; level++) {
+                source.append("}\n");
+            }
+            source.append("return x;\n}\n");
+        }
+
+        final Path file = Files.createTempFile("deeply-nested-", ".c");
+        file.toFile().deleteOnExit();
+        return Files.writeString(file, source);
+    }
+
+    public static @NonNull String bracketDepthArgument(final int depth) {
+        return "-fbracket-depth=" + (depth + 16);
+    }
+
+    /**
+     * Extracts a source file bundled as a resource (e.g.:
+     * {@code sample1.cc}), so that it can be parsed from within the
+     * benchmark JAR.
+     *
+     * @param name the file name, relative to the {@code com.example}
+     *             package.
+     * @return the extracted file (deleted on JVM exit), with the same
+     *   extension, so that the language is still inferred from it.
+     */
+    public static @NonNull Path resource(final @NonNull String name) throws IOException {
+        final Path file = Files.createTempFile("resource-", '-' + name);
+        file.toFile().deleteOnExit();
+        try (final InputStream in = GeneratedSources.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new FileNotFoundException(name);
+            }
+            Files.copy(in, file, REPLACE_EXISTING);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example;
+
+import com.example.clang.CursorFilter;
+import com.example.clang.CursorVisitor;
+import com.example.clang.Index;
+import com.example.clang.SourceText;
+import com.example.clang.TokenIndex;
+import com.example.clang.TranslationUnit;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.AstVisitorUtils.addTokens;
+import static com.example.AstVisitorUtils.getType;
+import static com.example.clang.ChildVisitResult.RECURSE;
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
+
+/**
+ * Measures the per-node metadata (the cursor type and the token text and
+ * kind) computed while building an AST.
+ *
+ * <p>
+ * Best run with {@code -prof gc}, since the point is the allocation rate
+ * rather than the time.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeMetadataBenchmark {
+    @Param("500")
+    public int functionCount;
+
+    @Param("3")
+    public int depth;
+
+    private Index index;
+
+    private TranslationUnit translationUnit;
+
+    private TokenIndex tokenIndex;
+
+    private final List<CXCursor> cursors = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path file = GeneratedSources.deeplyNested(functionCount, depth);
+        index = new Index();
+        translationUnit = TranslationUnit.parse(
+                index,
+                file,
+                List.of(GeneratedSources.bracketDepthArgument(depth)),
+                CXTranslationUnit_None
+        );
+        tokenIndex = new TokenIndex(translationUnit.getCxTranslationUnit(), file);
+
+        final CursorVisitor<Integer> collector = CursorVisitor.from((self, cursor, parent, unused) -> {
+            if (CursorFilter.MAIN_FILE.accept(cursor)) {
+                cursors.add(new CXCursor().put(cursor));
+            }
+            return RECURSE;
+        });
+        collector.visitChildren(translationUnit.getCursor(), 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cursors.forEach(CXCursor::close);
+        cursors.clear();
+        translationUnit.close();
+        index.close();
+    }
+
+    /**
+     * The type of each cursor, as used for the text of cursor nodes.
+     */
+    @Benchmark
+    public void types(final Blackhole blackhole) {
+        for (final CXCursor cursor : cursors) {
+            blackhole.consume(getType(cursor));
+        }
+    }
+
+    /**
+     * The text and the kind of each token of the file.
+     */
+    @Benchmark
+    public void tokens(final Blackhole blackhole) {
+        addTokens(new BlackholeBuilder(blackhole), 0, translationUnit.getCursor(), tokenIndex);
+    }
+
+    /**
+     * Discards the nodes (but not before the JIT can't prove they're unused).
+     */
+    private static final class BlackholeBuilder implements AstBuilder {
+        private final @NonNull Blackhole blackhole;
+
+        private BlackholeBuilder(final @NonNull Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public int getRoot() {
+            return 0;
+        }
+
+        @Override
+        public int addNode(final int parent, final @NonNull String text) {
+            blackhole.consume(text);
+            return 0;
+        }
+
+        @Override
+        public void addToken(
+                final int parent,
+                final @NonNull String text,
+                final @NonNull TokenKind kind,
+                final @NonNull SourceText source,
+                final int beginOffsetBytes,
+                final int endOffsetBytes
+        ) {
+            blackhole.consume(text);
+            blackhole.consume(kind);
+        }
+
+        @Override
+        public boolean isLeaf(final int node) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example;
+
+import com.example.clang.CursorFilter;
+import com.example.clang.CursorVisitor;
+import com.example.clang.Index;
+import com.example.clang.SourceRange;
+import com.example.clang.Tokens;
+import com.example.clang.TranslationUnit;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.clang.ChildVisitResult.RECURSE;
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
+
+/**
+ * Measures each stage of {@code AstVisitorMain} separately, on the same
+ * corpus: a synthetic file (see {@link GeneratedSources#deeplyNested(int, int)})
+ * and the real sources bundled as resources.
+ *
+ * <p>
+ * The other stages have benchmarks of their own: the client data round-trip
+ * of {@link CursorVisitor} ({@code CursorVisitorBenchmark}), the loading of
+ * an AST into a graph ({@code GraphLoadBenchmark}) and the GraphML and DOT
+ * exports ({@code GraphExportBenchmark}).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    /**
+     * {@code generated} for the synthetic file, or the name of a resource.
+     */
+    @Param({"generated", "array-subscript.c", "sample1.cc", "sample2.cc"})
+    public String source;
+
+    @Param("500")
+    public int functionCount;
+
+    @Param("3")
+    public int depth;
+
+    private Path file;
+
+    private List<String> arguments;
+
+    private Index index;
+
+    private TranslationUnit translationUnit;
+
+    private final List<CXCursor> cursors = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (source.equals("generated")) {
+            file = GeneratedSources.deeplyNested(functionCount, depth);
+            arguments = List.of(GeneratedSources.bracketDepthArgument(depth));
+        } else {
+            file = GeneratedSources.resource(source);
+            arguments = List.of();
+        }
+        index = new Index();
+        translationUnit = parse();
+
+        final CursorVisitor<Integer> collector = CursorVisitor.from((self, cursor, parent, unused) -> {
+            if (CursorFilter.MAIN_FILE.accept(cursor)) {
+                cursors.add(new CXCursor().put(cursor));
+            }
+            return RECURSE;
+        });
+        collector.visitChildren(translationUnit.getCursor(), 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cursors.forEach(CXCursor::close);
+        cursors.clear();
+        translationUnit.close();
+        index.close();
+    }
+
+    /**
+     * {@code clang_parseTranslationUnit2()}, and the disposal of the
+     * translation unit.
+     */
+    @Benchmark
+    public long parse(final Blackhole blackhole) {
+        try (final TranslationUnit newTranslationUnit = parse()) {
+            blackhole.consume(newTranslationUnit.getCursor());
+            return newTranslationUnit.getInclusions().size();
+        }
+    }
+
+    /**
+     * The recursive {@link AstVisitor}, each leaf cursor being tokenized
+     * separately, as {@code AstVisitorMain} does by default.
+     */
+    @Benchmark
+    public AstNode visit() {
+        final AstNode rootNode = new AstNode("root");
+        new AstVisitor(rootNode).visitChildren(translationUnit.getCursor(), rootNode);
+        return rootNode;
+    }
+
+    /**
+     * Tokenizing the whole file and iterating over the tokens.
+     */
+    @Benchmark
+    public int tokenize(final Blackhole blackhole) throws IOException {
+        try (final Tokens tokens = new Tokens(translationUnit.getCxTranslationUnit(), file)) {
+            tokens.forEach(blackhole::consume);
+            return tokens.getTokenCount();
+        }
+    }
+
+    /**
+     * The text of the extent of each cursor of the main file.
+     */
+    @Benchmark
+    public void sourceRangeText(final Blackhole blackhole) {
+        for (final CXCursor cursor : cursors) {
+            try (final SourceRange range = new SourceRange(cursor)) {
+                blackhole.consume(range.getText());
+            }
+        }
+    }
+
+    private TranslationUnit parse() {
+        return TranslationUnit.parse(index, file, arguments, CXTranslationUnit_None);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.clang;
+
+import com.example.GeneratedSources;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.llvm.clang.CXClientData;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXCursorVisitor;
+import org.bytedeco.llvm.clang.CXIndex;
+import org.bytedeco.llvm.clang.CXTranslationUnit;
+import org.bytedeco.llvm.clang.CXUnsavedFile;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.AstVisitorUtils.checkError;
+import static com.example.clang.ChildVisitResult.CONTINUE;
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
+import static org.bytedeco.llvm.global.clang.clang_createIndex;
+import static org.bytedeco.llvm.global.clang.clang_disposeIndex;
+import static org.bytedeco.llvm.global.clang.clang_disposeTranslationUnit;
+import static org.bytedeco.llvm.global.clang.clang_getTranslationUnitCursor;
+import static org.bytedeco.llvm.global.clang.clang_parseTranslationUnit2;
+import static org.bytedeco.llvm.global.clang.clang_visitChildren;
+
+/**
+ * Compares a native callback allocated per {@code clang_visitChildren()} call
+ * with the shared callback used by {@link CursorVisitor} in the
+ * {@link ClientDataMode#HANDLE HANDLE} mode.
+ *
+ * <p>
+ * Both visitors walk the whole tree by explicitly visiting the children of
+ * each cursor, just like {@code AstVisitor} does.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CursorVisitorBenchmark {
+    /**
+     * JavaCPP limits the number of live instances of a callback class, so the
+     * callback-per-call visitor crashes once more than 10 calls to
+     * {@code clang_visitChildren()} are nested (which happens at
+     * {@code depth = 4} already). Hence the low values.
+     */
+    @Param({"1", "3"})
+    public int depth;
+
+    @Param("100")
+    public int functionCount;
+
+    private CXIndex index;
+
+    private CXTranslationUnit translationUnit;
+
+    private CXCursor rootCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path file = GeneratedSources.deeplyNested(functionCount, depth);
+        final String[] commandLineArgs = {GeneratedSources.bracketDepthArgument(depth)};
+
+        index = clang_createIndex(1, 0);
+        translationUnit = new CXTranslationUnit();
+        checkError(
+                clang_parseTranslationUnit2(
+                        index,
+                        new BytePointer(file.toString()),
+                        new PointerPointer<>(commandLineArgs),
+                        commandLineArgs.length,
+                        new CXUnsavedFile(),
+                        0,
+                        CXTranslationUnit_None,
+                        translationUnit
+                )
+        );
+        rootCursor = clang_getTranslationUnitCursor(translationUnit);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clang_disposeTranslationUnit(translationUnit);
+        clang_disposeIndex(index);
+    }
+
+    @Benchmark
+    public long callbackPerCall() {
+        final long[] cursorCount = new long[1];
+        visitWithNewCallback(rootCursor, cursorCount);
+        return cursorCount[0];
+    }
+
+    @Benchmark
+    public long sharedCallback() {
+        final Counter counter = new Counter();
+        CursorVisitor.<Counter>from((visitor, cursor, parent, clientData) -> {
+            clientData.value++;
+            visitor.visitChildren(cursor, clientData);
+            return CONTINUE;
+        }).visitChildren(rootCursor, counter);
+        return counter.value;
+    }
+
+    /**
+     * Allocates a new native callback per call, which is what
+     * {@link CursorVisitor} used to do.
+     */
+    private static void visitWithNewCallback(
+            final @NonNull CXCursor parent,
+            final long @NonNull[] cursorCount
+    ) {
+        try (final CXCursorVisitor visitor = new CXCursorVisitor() {
+            @Override
+            public int call(
+                    final @NonNull CXCursor cursor,
+                    final @NonNull CXCursor parent,
+                    final CXClientData clientData
+            ) {
+                cursorCount[0]++;
+                visitWithNewCallback(cursor, cursorCount);
+                return CONTINUE.ordinal();
+            }
+        }) {
+            clang_visitChildren(parent, visitor, null);
+        }
+    }
+
+    private static final class Counter implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private long value;
+    }
+}
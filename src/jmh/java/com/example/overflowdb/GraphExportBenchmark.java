@@ -0,0 +1,112 @@
+package com.example.overflowdb;
+
+import com.example.FlatAstVisitor;
+import com.example.GeneratedSources;
+import com.example.clang.Index;
+import com.example.clang.TokenIndex;
+import com.example.clang.TranslationUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import overflowdb.Config;
+import overflowdb.Graph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
+
+/**
+ * Measures the GraphML and DOT exports of the graph of a synthetic file
+ * (see {@link GeneratedSources#deeplyNested(int, int)}), with all the
+ * properties an {@link AstGraphBuilder} stores.
+ *
+ * <p>
+ * The text is written to {@link Writer#nullWriter()}, so that the formatting
+ * rather than the disk is measured.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GraphExportBenchmark {
+    @Param("2000")
+    public int functionCount;
+
+    @Param("3")
+    public int depth;
+
+    private Graph graph;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path file = GeneratedSources.deeplyNested(functionCount, depth);
+        graph = Graph.open(
+                Config.withDefaults(),
+                List.of(AstNodeRef.FACTORY),
+                List.of(AstChildEdge.FACTORY, AstNextSiblingEdge.FACTORY, AstReferenceEdge.FACTORY)
+        );
+        try (final Index index = new Index();
+             final TranslationUnit translationUnit = TranslationUnit.parse(
+                     index,
+                     file,
+                     List.of(GeneratedSources.bracketDepthArgument(depth)),
+                     CXTranslationUnit_None
+             );
+             final FlatAstVisitor visitor = new FlatAstVisitor()) {
+            final AstGraphBuilder builder = new AstGraphBuilder(graph, file.getFileName().toString());
+            visitor.visit(
+                    translationUnit.getCursor(),
+                    builder,
+                    new TokenIndex(translationUnit.getCxTranslationUnit(), file)
+            );
+            builder.flush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graph.close();
+    }
+
+    @Benchmark
+    public long graphML() throws IOException {
+        try (final GraphMLSink graphML = new GraphMLSink(Writer.nullWriter())) {
+            return AstGraphExporter.export(graph, List.of(graphML));
+        }
+    }
+
+    @Benchmark
+    public long dot() throws IOException {
+        try (final DotSink dot = new DotSink(Writer.nullWriter())) {
+            return AstGraphExporter.export(graph, List.of(dot));
+        }
+    }
+
+    /**
+     * Both files with a single traversal, as {@code AstVisitorMain} does.
+     */
+    @Benchmark
+    public long graphMLAndDot() throws IOException {
+        try (final GraphMLSink graphML = new GraphMLSink(Writer.nullWriter());
+             final DotSink dot = new DotSink(Writer.nullWriter())) {
+            return AstGraphExporter.export(graph, List.of(graphML, dot));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.overflowdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import overflowdb.Config;
+import overflowdb.Graph;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link AstGraphIndex} lookups over an index of {@code nodeCount}
+ * synthetic nodes, each function declaration having a USR of its own.
+ *
+ * <p>
+ * The index is filled directly, without creating the nodes in the graph.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GraphIndexBenchmark {
+    private static final String KINDS[] = {"FunctionDecl", "CompoundStmt", "DeclStmt", "VarDecl", "KEYWORD", "IDENTIFIER", "LITERAL"};
+
+    @Param("5000000")
+    public int nodeCount;
+
+    private AstGraphIndex index;
+
+    private String usr;
+
+    @Setup
+    public void setUp() {
+        final Graph graph = Graph.open(
+                Config.withDefaults(),
+                List.of(AstNodeRef.FACTORY),
+                List.of(AstChildEdge.FACTORY, AstNextSiblingEdge.FACTORY)
+        );
+        index = new AstGraphIndex(graph);
+        for (int id = 0; id < nodeCount; id++) {
+            final String kind = KINDS[id % KINDS.length];
+            final String usr = id % KINDS.length == 0 ? "c:@F@f" + id : null;
+            index.add(id, kind, "x" + id % 1000, usr);
+        }
+        usr = "c:@F@f" + (nodeCount / 2 / KINDS.length * KINDS.length);
+    }
+
+    @Benchmark
+    public long findUsr() {
+        return index.nodeIds(AstNodeRef.USR, usr).nextLong();
+    }
+
+    @Benchmark
+    public long findFirstOfKind() {
+        return index.nodeIds(AstNodeRef.KIND, "VarDecl").nextLong();
+    }
+
+    @Benchmark
+    public int countLabel() {
+        return index.count(AstNodeRef.LABEL, "x500");
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.overflowdb;
+
+import com.example.AstNode;
+import com.example.CompactAst;
+import com.example.TokenKind;
+import com.example.clang.SourceRange;
+import com.example.clang.SourceText;
+import com.example.clang.SourceTextCache;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import overflowdb.Config;
+import overflowdb.Graph;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.TokenKind.IDENTIFIER;
+import static com.example.TokenKind.KEYWORD;
+import static com.example.TokenKind.LITERAL;
+import static com.example.TokenKind.PUNCTUATION;
+
+/**
+ * Compares loading a synthetic AST of about {@code nodeCount} nodes into a
+ * fresh {@link Graph} node by node (via
+ * {@link AstNodeRef#addChild(String, com.example.AstNodeKind, Color)}, as
+ * {@code AstVisitorMain} used to) with the bulk {@link AstGraphLoader}.
+ *
+ * <p>
+ * The {@code nodes} counter is reported as a rate (nodes per second).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GraphLoadBenchmark {
+    /**
+     * The tokens of each synthetic declaration, {@code int x = 1;}.
+     */
+    private static final String TOKEN_TEXTS[] = {"int", "x", "=", "1", ";"};
+
+    private static final TokenKind TOKEN_KINDS[] = {KEYWORD, IDENTIFIER, PUNCTUATION, LITERAL, PUNCTUATION};
+
+    private static final int TOKEN_OFFSETS[] = {0, 4, 6, 8, 9, 10};
+
+    private static final int DECLARATIONS_PER_FUNCTION = 8;
+
+    /**
+     * A function declaration, its body, and the declarations, each with a
+     * variable declaration and its tokens.
+     */
+    private static final int NODES_PER_FUNCTION = 2 + DECLARATIONS_PER_FUNCTION * (2 + TOKEN_TEXTS.length);
+
+    @Param("1000000")
+    public int nodeCount;
+
+    private AstNode astNode;
+
+    private CompactAst compactAst;
+
+    private Graph graph;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path file = Files.createTempFile("declaration-", ".c");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, "int x = 1;\n");
+        final SourceText source = SourceTextCache.getDefault().get(file);
+
+        final int functionCount = (nodeCount + NODES_PER_FUNCTION - 1) / NODES_PER_FUNCTION;
+        astNode = new AstNode("root");
+        final CompactAst.Builder builder = new CompactAst.Builder("root");
+        for (int function = 0; function < functionCount; function++) {
+            final AstNode body = astNode.addChild("FunctionDecl", (SourceRange) null, null)
+                                        .addChild("CompoundStmt", (SourceRange) null, null);
+            final int compactBody = builder.addNode(builder.addNode(builder.getRoot(), "FunctionDecl"), "CompoundStmt");
+            for (int declaration = 0; declaration < DECLARATIONS_PER_FUNCTION; declaration++) {
+                final AstNode variable = body.addChild("DeclStmt", (SourceRange) null, null)
+                                             .addChild("VarDecl", (SourceRange) null, null);
+                final int compactVariable = builder.addNode(builder.addNode(compactBody, "DeclStmt"), "VarDecl");
+                for (int token = 0; token < TOKEN_TEXTS.length; token++) {
+                    variable.addChild(TOKEN_TEXTS[token], (SourceRange) null, TOKEN_KINDS[token]);
+                    builder.addToken(
+                            compactVariable,
+                            TOKEN_TEXTS[token],
+                            TOKEN_KINDS[token],
+                            source,
+                            TOKEN_OFFSETS[token],
+                            TOKEN_OFFSETS[token + 1]
+                    );
+                }
+            }
+        }
+        compactAst = builder.build();
+    }
+
+    @Setup(Level.Invocation)
+    public void openGraph() {
+        graph = Graph.open(
+                Config.withDefaults(),
+                List.of(AstNodeRef.FACTORY),
+                List.of(AstChildEdge.FACTORY, AstNextSiblingEdge.FACTORY)
+        );
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeGraph() {
+        graph.close();
+    }
+
+    @Benchmark
+    public AstNodeRef addChild(final @NonNull NodeCounter counter) {
+        final AstNodeRef graphRoot = (AstNodeRef) graph.addNode(
+                AstNodeRef.LABEL_V,
+                AstNodeRef.LABEL,
+                astNode.getText(),
+                AstNodeRef.COLOR,
+                Color.RED
+        );
+
+        /*
+         * The same traversal as AstGraphLoader.load(AstNode).
+         */
+        final Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(graphRoot, astNode));
+        while (!frames.isEmpty()) {
+            final Frame frame = frames.element();
+            if (!frame.astChildren.hasNext()) {
+                frames.pop();
+                continue;
+            }
+
+            final AstNode astChild = frame.astChildren.next();
+            final AstNodeRef graphChild = frame.graphParent.addChild(
+                    astChild.getText(),
+                    astChild.getKind(),
+                    astChild.getKind() instanceof TokenKind ? Color.CYAN : Color.GREEN
+            );
+            if (frame.previousSibling != null) {
+                frame.previousSibling.addNextSibling(graphChild);
+            }
+            frame.previousSibling = graphChild;
+            frames.push(new Frame(graphChild, astChild));
+        }
+
+        counter.nodes += graph.nodeCount();
+        return graphRoot;
+    }
+
+    @Benchmark
+    public AstNodeRef loadAstNode(final @NonNull NodeCounter counter) {
+        final AstGraphLoader loader = new AstGraphLoader(graph);
+        final AstNodeRef graphRoot = loader.load(astNode);
+        counter.nodes += loader.getNodeCount();
+        return graphRoot;
+    }
+
+    @Benchmark
+    public AstNodeRef loadCompactAst(final @NonNull NodeCounter counter) {
+        final AstGraphLoader loader = new AstGraphLoader(graph);
+        final AstNodeRef graphRoot = loader.load(compactAst);
+        counter.nodes += loader.getNodeCount();
+        return graphRoot;
+    }
+
+    /**
+     * Reported by <em>JMH</em> as a rate, i.e. nodes per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class NodeCounter {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0L;
+        }
+    }
+
+    private static final class Frame {
+        private final @NonNull AstNodeRef graphParent;
+
+        private final @NonNull Iterator<@NonNull AstNode> astChildren;
+
+        private @Nullable AstNodeRef previousSibling;
+
+        private Frame(
+                final @NonNull AstNodeRef graphParent,
+                final @NonNull AstNode astParent
+        ) {
+            this.graphParent = graphParent;
+            this.astChildren = astParent.getChildren().iterator();
+        }
+    }
+}
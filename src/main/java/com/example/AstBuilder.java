@@ -0,0 +1,86 @@
+package com.example;
+
+import com.example.clang.SourceText;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Receives the nodes of an AST as it's being visited (each parent before any
+ * of its children, and siblings in source order), and stores them in some
+ * representation, e.g.: a tree of {@link AstNode} objects
+ * (see {@link AstNodeBuilder}), or a {@link CompactAst}.
+ *
+ * <p>
+ * Nodes are referred to by {@code int} handles, which are only meaningful to
+ * the builder which has issued them, so that a builder with a primitive
+ * representation doesn't have to allocate an object per node.
+ * A builder may invalidate the handle of a node once its subtree is over,
+ * i.e. once a node has been added to one of its ancestors.
+ * </p>
+ *
+ * @see FlatAstVisitor#visit(org.bytedeco.llvm.clang.CXCursor, AstBuilder, com.example.clang.TokenIndex)
+ */
+public interface AstBuilder {
+    /**
+     * The handle {@link #addNode(int, String, CXCursor)} may return instead
+     * of adding a node, so that the cursor is skipped along with its whole
+     * subtree (e.g.: because it's already stored elsewhere).
+     */
+    int SKIP = -1;
+
+    /**
+     * @return the handle of the root node.
+     */
+    int getRoot();
+
+    /**
+     * Adds a node which corresponds to a cursor.
+     *
+     * @param parent the handle of the parent node.
+     * @param text the cursor type (see {@link AstVisitorUtils#getType(org.bytedeco.llvm.clang.CXCursor)}).
+     * @return the handle of the new node.
+     */
+    int addNode(final int parent, final @NonNull String text);
+
+    /**
+     * Adds a node which corresponds to a cursor, letting the builder query
+     * whatever else it stores about the cursor (e.g.: its kind or extent).
+     * By default, the cursor is ignored.
+     *
+     * @param parent the handle of the parent node.
+     * @param text the cursor type (see {@link AstVisitorUtils#getType(CXCursor)}).
+     * @param cursor the cursor, valid only within this call.
+     * @return the handle of the new node, or {@link #SKIP}.
+     * @see #addNode(int, String)
+     */
+    default int addNode(
+            final int parent,
+            final @NonNull String text,
+            final @NonNull CXCursor cursor
+    ) {
+        return addNode(parent, text);
+    }
+
+    /**
+     * Adds a node which corresponds to a token (which is always a leaf).
+     *
+     * @param parent the handle of the parent node.
+     * @param text the token spelling.
+     * @param source the file the token belongs to.
+     * @param beginOffsetBytes the offset of the token in the file.
+     * @param endOffsetBytes the offset of the end of the token in the file.
+     */
+    void addToken(
+            final int parent,
+            final @NonNull String text,
+            final @NonNull TokenKind kind,
+            final @NonNull SourceText source,
+            final int beginOffsetBytes,
+            final int endOffsetBytes
+    );
+
+    /**
+     * @return whether the node has no children (yet).
+     */
+    boolean isLeaf(final int node);
+}
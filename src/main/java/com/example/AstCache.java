@@ -0,0 +1,296 @@
+package com.example;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.PrecompiledHeaderCache.isValid;
+import static com.example.PrecompiledHeaderCache.newSha256;
+import static com.example.PrecompiledHeaderCache.sha256;
+import static com.example.PrecompiledHeaderCache.writeManifest;
+import static com.example.clang.Utils.require;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.size;
+import static org.bytedeco.llvm.global.clang.clang_getClangVersion;
+
+/**
+ * Stores the AST of each translation unit as an {@link AstSnapshot}, so that
+ * a translation unit which hasn't changed since the last run is neither
+ * parsed nor visited again.
+ *
+ * <p>
+ * An entry is keyed by the SHA-256 hash of the main source file, along with
+ * its path, the compiler arguments and the <em>libclang</em> version
+ * (see {@link #key(Path, List)}). Since the included headers are only known
+ * once the translation unit has been parsed, each entry is accompanied by a
+ * manifest, in the format of {@link PrecompiledHeaderCache}, which lists the
+ * modification time, the size and the SHA-256 hash of every file included
+ * (transitively, see {@link com.example.clang.TranslationUnit#getInclusions()}).
+ * An entry is only a hit if none of them has changed, nor any been removed.
+ * </p>
+ *
+ * <p>
+ * The total size of the entries is capped: once it's exceeded, the least
+ * recently used entries are evicted. The last use of an entry is the
+ * modification time of its snapshot, which is updated on each hit, so that
+ * the order survives across runs (and processes sharing the directory).
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class AstCache {
+    /**
+     * 256 MiB.
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+    private static final String MANIFEST_HEADER = "ast-manifest 1";
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final @NonNull Path directory;
+
+    private final long maxBytes;
+
+    private final @NonNull AtomicLong hits = new AtomicLong();
+
+    private final @NonNull AtomicLong misses = new AtomicLong();
+
+    private final @NonNull AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param directory the cache directory, created if necessary.
+     * @throws IOException if the cache directory can't be created.
+     */
+    public AstCache(final @NonNull Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param directory the cache directory, created if necessary.
+     * @param maxBytes the maximum total size of the entries.
+     * @throws IOException if the cache directory can't be created.
+     */
+    public AstCache(final @NonNull Path directory, final long maxBytes) throws IOException {
+        require(maxBytes >= 0L, () -> "Negative maximum size: " + maxBytes);
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Computes the key of an entry, which should be computed before parsing
+     * the translation unit, so that any later change to the source file is
+     * only picked up by the next run.
+     *
+     * @param arguments the compiler arguments, not including the compiler
+     *                  executable and the source file itself.
+     * @throws IOException if the source file can't be read.
+     */
+    public @NonNull String key(
+            final @NonNull Path file,
+            final @NonNull List<@NonNull String> arguments
+    ) throws IOException {
+        final MessageDigest digest = newSha256();
+        digest.update(MANIFEST_HEADER.getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(clang_getClangVersion().getString().getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(file.toAbsolutePath().toString().getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(sha256(file).getBytes(UTF_8));
+        for (final String argument : arguments) {
+            digest.update((byte) 0);
+            digest.update(argument.getBytes(UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param key see {@link #key(Path, List)}.
+     * @return the AST stored with the {@code key}, or {@code null} if there's
+     *   none, or if any of the included files has changed since.
+     */
+    public @Nullable CompactAst get(final @NonNull String key) {
+        final Path snapshot = directory.resolve(key + SNAPSHOT_SUFFIX);
+        final Path manifest = directory.resolve(key + MANIFEST_SUFFIX);
+        try {
+            if (isRegularFile(snapshot) && isValid(manifest, MANIFEST_HEADER)) {
+                final CompactAst ast = AstSnapshot.open(snapshot).toCompactAst();
+                Files.setLastModifiedTime(snapshot, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.incrementAndGet();
+                return ast;
+            }
+        } catch (final IOException | RuntimeException e) {
+            /*
+             * E.g.: evicted concurrently, or truncated by a crash.
+             */
+            System.err.printf("Ignoring the cached AST %s: %s%n", snapshot, e);
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the {@code ast}, replacing the entry with the same {@code key}
+     * (if any), and then evicts the least recently used entries while the
+     * cache is too large.
+     *
+     * @param key see {@link #key(Path, List)}.
+     * @param inclusions all the files included by the translation unit.
+     * @throws IOException if the entry can't be written.
+     */
+    public void put(
+            final @NonNull String key,
+            final @NonNull Iterable<@NonNull Path> inclusions,
+            final @NonNull CompactAst ast
+    ) throws IOException {
+        /*
+         * The manifest goes last, so that a partial entry is never valid.
+         */
+        final Path manifest = directory.resolve(key + MANIFEST_SUFFIX);
+        Files.deleteIfExists(manifest);
+        AstSnapshot.write(ast, directory.resolve(key + SNAPSHOT_SUFFIX));
+        writeManifest(manifest, MANIFEST_HEADER, inclusions);
+
+        evict();
+    }
+
+    @Contract(pure = true)
+    public @NonNull Path getDirectory() {
+        return directory;
+    }
+
+    @Contract(pure = true)
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Contract(pure = true)
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Contract(pure = true)
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries evicted by this instance.
+     */
+    @Contract(pure = true)
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the hits over all the lookups, or {@code 0.0} if there have
+     *   been none.
+     */
+    @Contract(pure = true)
+    public double getHitRatio() {
+        final long hits = getHits();
+        final long lookups = hits + getMisses();
+        return lookups == 0L ? 0.0 : (double) hits / lookups;
+    }
+
+    private synchronized void evict() throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        long totalBytes = 0L;
+        try (final DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory, '*' + SNAPSHOT_SUFFIX)) {
+            for (final Path snapshot : snapshots) {
+                final String fileName = snapshot.getFileName().toString();
+                final Path manifest = directory.resolve(
+                        fileName.substring(0, fileName.length() - SNAPSHOT_SUFFIX.length()) + MANIFEST_SUFFIX
+                );
+                try {
+                    final Entry entry = new Entry(
+                            snapshot,
+                            manifest,
+                            getLastModifiedTime(snapshot).toMillis(),
+                            size(snapshot) + (isRegularFile(manifest) ? size(manifest) : 0L)
+                    );
+                    entries.add(entry);
+                    totalBytes += entry.bytes;
+                } catch (final NoSuchFileException ignored) {
+                    /*
+                     * Evicted by another process.
+                     */
+                }
+            }
+        }
+
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(entry -> entry.lastUsedMillis));
+        for (final Entry entry : entries) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+
+            Files.deleteIfExists(entry.manifest);
+            Files.deleteIfExists(entry.snapshot);
+            totalBytes -= entry.bytes;
+            evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return format(
+                "%d hit(s), %d miss(es) (%.1f%% hits), %d eviction(s)",
+                getHits(),
+                getMisses(),
+                100.0 * getHitRatio(),
+                getEvictions()
+        );
+    }
+
+    /**
+     * A snapshot along with its manifest, as found by {@link #evict()}.
+     */
+    private static final class Entry {
+        private final @NonNull Path snapshot;
+
+        private final @NonNull Path manifest;
+
+        private final long lastUsedMillis;
+
+        private final long bytes;
+
+        private Entry(
+                final @NonNull Path snapshot,
+                final @NonNull Path manifest,
+                final long lastUsedMillis,
+                final long bytes
+        ) {
+            this.snapshot = snapshot;
+            this.manifest = manifest;
+            this.lastUsedMillis = lastUsedMillis;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package com.example;
 
+import com.example.clang.FileTable;
+import com.example.clang.SourceLocation;
 import com.example.clang.SourceRange;
+import com.example.clang.SourceText;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -16,7 +23,9 @@ import static java.util.Objects.hash;
 
 public final class AstNode implements Serializable {
     @Serial
-    private static final long serialVersionUID = -8947112108914209515L;
+    private static final long serialVersionUID = 4316020942657913853L;
+
+    private static final int NO_FILE = -1;
 
     /**
      * @serial include
@@ -28,10 +37,48 @@ public final class AstNode implements Serializable {
      */
     private final int depth;
 
+    /**
+     * The {@linkplain FileTable#getId(Path) id} of the file the source range
+     * begins in, or {@link #NO_FILE} if the node has no source range.
+     * Serialized as a path, see {@link #writeObject(ObjectOutputStream)}.
+     */
+    private transient int fileId;
+
+    /**
+     * The id of the file the source range ends in (which only differs from
+     * {@link #fileId} if the range spans files).
+     */
+    private transient int endFileId;
+
+    /**
+     * @serial include
+     */
+    private final int beginLine;
+
     /**
      * @serial include
      */
-    private final @Nullable String range;
+    private final int beginColumn;
+
+    /**
+     * @serial include
+     */
+    private final int beginOffsetBytes;
+
+    /**
+     * @serial include
+     */
+    private final int endLine;
+
+    /**
+     * @serial include
+     */
+    private final int endColumn;
+
+    /**
+     * @serial include
+     */
+    private final int endOffsetBytes;
 
     /**
      * @serial include
@@ -44,18 +91,32 @@ public final class AstNode implements Serializable {
     private final @NonNull List<@NonNull AstNode> children = new ArrayList<>();
 
     public AstNode(final @NonNull String text) {
-        this(text, 0, null, null);
+        this(text, 0, null, NO_FILE, NO_FILE, 0, 0, 0, 0, 0, 0);
     }
 
     private AstNode(
             final @NonNull String text,
             final int depth,
-            final @Nullable SourceRange range,
-            final @Nullable AstNodeKind kind) {
+            final @Nullable AstNodeKind kind,
+            final int fileId,
+            final int endFileId,
+            final int beginLine,
+            final int beginColumn,
+            final int beginOffsetBytes,
+            final int endLine,
+            final int endColumn,
+            final int endOffsetBytes) {
         this.text = text;
         this.depth = depth;
-        this.range = range == null ? null : range.toString();
         this.kind = kind;
+        this.fileId = fileId;
+        this.endFileId = endFileId;
+        this.beginLine = beginLine;
+        this.beginColumn = beginColumn;
+        this.beginOffsetBytes = beginOffsetBytes;
+        this.endLine = endLine;
+        this.endColumn = endColumn;
+        this.endOffsetBytes = endOffsetBytes;
     }
 
     public @NonNull String getText() {
@@ -66,8 +127,79 @@ public final class AstNode implements Serializable {
         return depth;
     }
 
+    /**
+     * @return the source range, in the format of {@link SourceRange#toString()},
+     *   or {@code null} if the node has no source range.
+     *   Formatted on each call.
+     */
     public @Nullable String getRange() {
-        return range;
+        if (fileId == NO_FILE) {
+            return null;
+        }
+
+        final FileTable files = FileTable.getDefault();
+        return SourceRange.toString(
+                files.getPath(fileId),
+                beginLine,
+                beginColumn,
+                files.getPath(endFileId),
+                endLine,
+                endColumn
+        );
+    }
+
+    /**
+     * @return the file the source range begins in, or {@code null} if the
+     *   node has no source range.
+     */
+    public @Nullable Path getFile() {
+        return fileId == NO_FILE ? null : FileTable.getDefault().getPath(fileId);
+    }
+
+    /**
+     * @return the line (1-based) the source range begins at, or {@code 0}
+     *   if the node has no source range.
+     */
+    public int getBeginLine() {
+        return beginLine;
+    }
+
+    /**
+     * @return the column (1-based) the source range begins at, or {@code 0}
+     *   if the node has no source range.
+     */
+    public int getBeginColumn() {
+        return beginColumn;
+    }
+
+    /**
+     * @return the file offset the source range begins at, in bytes.
+     */
+    public int getBeginOffsetBytes() {
+        return beginOffsetBytes;
+    }
+
+    /**
+     * @return the line (1-based) the source range ends at, or {@code 0}
+     *   if the node has no source range.
+     */
+    public int getEndLine() {
+        return endLine;
+    }
+
+    /**
+     * @return the column (1-based) the source range ends at, or {@code 0}
+     *   if the node has no source range.
+     */
+    public int getEndColumn() {
+        return endColumn;
+    }
+
+    /**
+     * @return the file offset the source range ends at, in bytes.
+     */
+    public int getEndOffsetBytes() {
+        return endOffsetBytes;
     }
 
     public @Nullable AstNodeKind getKind() {
@@ -82,17 +214,69 @@ public final class AstNode implements Serializable {
         return children.isEmpty();
     }
 
+    /**
+     * @param childRange the source range, whose coordinates are copied
+     *                   (the range itself is not retained).
+     */
     public @NonNull AstNode addChild(
             final @NonNull String childText,
             final @Nullable SourceRange childRange,
             final @Nullable AstNodeKind childKind
     ) {
-        final AstNode child = new AstNode(
+        if (childRange == null) {
+            return addChild(new AstNode(childText, depth + 1, childKind, NO_FILE, NO_FILE, 0, 0, 0, 0, 0, 0));
+        }
+
+        try (final SourceLocation begin = childRange.getBegin();
+             final SourceLocation end = childRange.getEnd()) {
+            final FileTable files = FileTable.getDefault();
+            return addChild(new AstNode(
+                    childText,
+                    depth + 1,
+                    childKind,
+                    files.getId(begin.getFile()),
+                    files.getId(end.getFile()),
+                    begin.getLine(),
+                    begin.getColumn(),
+                    begin.getOffsetBytes(),
+                    end.getLine(),
+                    end.getColumn(),
+                    end.getOffsetBytes()
+            ));
+        }
+    }
+
+    /**
+     * Adds a child with the {@code [beginOffsetBytes, endOffsetBytes)}
+     * source range in the {@code source}, the lines and columns being
+     * looked up in its line table rather than queried from <em>libclang</em>.
+     *
+     * @see #addChild(String, SourceRange, AstNodeKind)
+     */
+    public @NonNull AstNode addChild(
+            final @NonNull String childText,
+            final @NonNull SourceText source,
+            final int beginOffsetBytes,
+            final int endOffsetBytes,
+            final @Nullable AstNodeKind childKind
+    ) {
+        final int fileId = FileTable.getDefault().getId(source.getFile());
+        return addChild(new AstNode(
                 childText,
                 depth + 1,
-                childRange,
-                childKind
-        );
+                childKind,
+                fileId,
+                fileId,
+                source.getLine(beginOffsetBytes),
+                source.getColumn(beginOffsetBytes),
+                beginOffsetBytes,
+                source.getLine(endOffsetBytes),
+                source.getColumn(endOffsetBytes),
+                endOffsetBytes
+        ));
+    }
+
+    private @NonNull AstNode addChild(final @NonNull AstNode child) {
         children.add(child);
         return child;
     }
@@ -103,18 +287,47 @@ public final class AstNode implements Serializable {
                || obj instanceof final AstNode that
                   && depth == that.depth
                   && text.equals(that.text)
-                  && Objects.equals(range, that.range)
+                  && fileId == that.fileId
+                  && endFileId == that.endFileId
+                  && beginLine == that.beginLine
+                  && beginColumn == that.beginColumn
+                  && beginOffsetBytes == that.beginOffsetBytes
+                  && endLine == that.endLine
+                  && endColumn == that.endColumn
+                  && endOffsetBytes == that.endOffsetBytes
                   && Objects.equals(kind, that.kind)
                   && children.equals(that.children);
     }
 
     @Override
     public int hashCode() {
-        return hash(text, depth, range, kind, children);
+        return hash(text, depth, fileId, beginOffsetBytes, endOffsetBytes, kind, children);
     }
 
     @Override
     public String toString() {
         return format("{depth: %d, text: \"%s\"}", depth, text);
     }
+
+    /**
+     * @serialData the default fields, followed by the begin and the end
+     *   files of the source range, as strings (or {@code null}s).
+     */
+    @Serial
+    private void writeObject(final @NonNull ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        final FileTable files = FileTable.getDefault();
+        out.writeObject(fileId == NO_FILE ? null : files.getPath(fileId).toString());
+        out.writeObject(endFileId == NO_FILE ? null : files.getPath(endFileId).toString());
+    }
+
+    @Serial
+    private void readObject(final @NonNull ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final FileTable files = FileTable.getDefault();
+        final String file = (String) in.readObject();
+        final String endFile = (String) in.readObject();
+        fileId = file == null ? NO_FILE : files.getId(Path.of(file));
+        endFileId = endFile == null ? NO_FILE : files.getId(Path.of(endFile));
+    }
 }
@@ -0,0 +1,62 @@
+package com.example;
+
+import com.example.clang.SourceText;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a tree of {@link AstNode} objects.
+ *
+ * <p>
+ * Handles are indices into the list of all the nodes added so far.
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class AstNodeBuilder implements AstBuilder {
+    private final @NonNull List<@NonNull AstNode> nodes = new ArrayList<>();
+
+    /**
+     * @param rootNode the node to add new children to (which may already
+     *                 have some children).
+     */
+    public AstNodeBuilder(final @NonNull AstNode rootNode) {
+        nodes.add(rootNode);
+    }
+
+    @Override
+    public int getRoot() {
+        return 0;
+    }
+
+    /**
+     * @return the node with the given {@code handle}.
+     */
+    public @NonNull AstNode getNode(final int handle) {
+        return nodes.get(handle);
+    }
+
+    @Override
+    public int addNode(final int parent, final @NonNull String text) {
+        nodes.add(nodes.get(parent).addChild(text, null, null));
+        return nodes.size() - 1;
+    }
+
+    @Override
+    public void addToken(
+            final int parent,
+            final @NonNull String text,
+            final @NonNull TokenKind kind,
+            final @NonNull SourceText source,
+            final int beginOffsetBytes,
+            final int endOffsetBytes
+    ) {
+        nodes.get(parent).addChild(text, source, beginOffsetBytes, endOffsetBytes, kind);
+    }
+
+    @Override
+    public boolean isLeaf(final int node) {
+        return nodes.get(node).isLeaf();
+    }
+}
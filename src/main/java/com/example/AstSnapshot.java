@@ -0,0 +1,694 @@
+package com.example;
+
+import com.example.clang.SourceText;
+import com.example.clang.SourceTextCache;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.example.CompactAst.NONE;
+import static com.example.clang.Utils.require;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A {@link CompactAst} persisted in a binary file, and read back without
+ * deserializing any objects: the file is memory-mapped, and each accessor
+ * reads the fixed-width record of the node directly, so opening even a
+ * multi-million-node snapshot only takes as long as mapping the file.
+ *
+ * <p>
+ * All numbers are little-endian {@code int}s. The file starts with a
+ * {@value #HEADER_SIZE}-byte header (the magic number, the format version,
+ * the number of entries in each table and the offset of each table), which
+ * is followed by:
+ * </p>
+ *
+ * <ul>
+ *     <li>the node table, a record per node, in the order of the
+ *     {@link CompactAst}: the parent, the first child, the next sibling,
+ *     the text (an index into the string table), the kind (an index into the
+ *     kind table: of a {@link TokenKind} for tokens, and of a
+ *     {@link CursorKind} for the nodes added along with their cursors), and
+ *     the range (an index into the range table, or {@link CompactAst#NONE}
+ *     if the node doesn't have a source range);</li>
+ *     <li>the range table: the source (an index into the source table), and
+ *     the begin and end offsets (of either a token or a cursor extent);</li>
+ *     <li>the USR table: the node (in ascending order), and its USR (an
+ *     index into the string table), for the declarations only;</li>
+ *     <li>the kind table: the type of the kind (none, a {@link TokenKind} or
+ *     a {@link CursorKind}), and its value;</li>
+ *     <li>the source table: the path of each source file (an index into the
+ *     string table);</li>
+ *     <li>the string table: the offset of each string (plus the end of the
+ *     last one), followed by all the strings, encoded as <em>UTF-8</em>.</li>
+ * </ul>
+ *
+ * <p>
+ * The source files themselves are not stored, only their paths: the
+ * contents are read (see {@link SourceTextCache}) when converting back to a
+ * {@link CompactAst}.
+ * </p>
+ *
+ * <p>
+ * Instances are immutable and thread-safe.
+ * </p>
+ *
+ * @see #write(CompactAst, Path)
+ * @see #open(Path)
+ */
+public final class AstSnapshot {
+    private static final int MAGIC = 0x53545341;
+
+    private static final int VERSION = 3;
+
+    static final int HEADER_SIZE = 64;
+
+    /*
+     * The header fields, by offset.
+     */
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int NODE_COUNT_OFFSET = 8;
+
+    private static final int RANGE_COUNT_OFFSET = 12;
+
+    private static final int KIND_COUNT_OFFSET = 16;
+
+    private static final int SOURCE_COUNT_OFFSET = 20;
+
+    private static final int STRING_COUNT_OFFSET = 24;
+
+    private static final int NODE_TABLE_OFFSET = 28;
+
+    private static final int RANGE_TABLE_OFFSET = 32;
+
+    private static final int KIND_TABLE_OFFSET = 36;
+
+    private static final int SOURCE_TABLE_OFFSET = 40;
+
+    private static final int STRING_TABLE_OFFSET = 44;
+
+    private static final int STRING_DATA_OFFSET = 48;
+
+    private static final int FILE_SIZE_OFFSET = 52;
+
+    private static final int USR_COUNT_OFFSET = 56;
+
+    private static final int USR_TABLE_OFFSET = 60;
+
+    /*
+     * The record sizes, and the field offsets within the records.
+     */
+
+    private static final int NODE_SIZE = 24;
+
+    private static final int PARENT = 0;
+
+    private static final int FIRST_CHILD = 4;
+
+    private static final int NEXT_SIBLING = 8;
+
+    private static final int TEXT = 12;
+
+    private static final int KIND = 16;
+
+    private static final int RANGE = 20;
+
+    private static final int RANGE_SIZE = 12;
+
+    private static final int SOURCE = 0;
+
+    private static final int BEGIN_OFFSET = 4;
+
+    private static final int END_OFFSET = 8;
+
+    private static final int USR_SIZE = 8;
+
+    private static final int USR_NODE = 0;
+
+    private static final int USR = 4;
+
+    private static final int KIND_SIZE = 8;
+
+    private static final int KIND_TYPE = 0;
+
+    private static final int KIND_VALUE = 4;
+
+    /*
+     * The kind types.
+     */
+
+    private static final int NO_KIND = 0;
+
+    private static final int TOKEN_KIND = 1;
+
+    private static final int CURSOR_KIND = 2;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final @NonNull Path file;
+
+    /**
+     * The whole file, little-endian, accessed by absolute offsets only.
+     */
+    private final @NonNull ByteBuffer buffer;
+
+    private final int nodeCount;
+
+    private final int rangeCount;
+
+    private final int usrCount;
+
+    private final int kindCount;
+
+    private final int sourceCount;
+
+    private final int stringCount;
+
+    private final int nodeTable;
+
+    private final int rangeTable;
+
+    private final int usrTable;
+
+    private final int kindTable;
+
+    private final int sourceTable;
+
+    private final int stringTable;
+
+    private final int stringData;
+
+    private AstSnapshot(final @NonNull Path file, final @NonNull ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not an AST snapshot: " + file);
+        }
+        final int version = buffer.getInt(VERSION_OFFSET);
+        if (version != VERSION) {
+            throw new IOException("Unsupported AST snapshot version " + version + ": " + file);
+        }
+        if (buffer.getInt(FILE_SIZE_OFFSET) != buffer.limit()) {
+            throw new IOException("Truncated AST snapshot: " + file);
+        }
+
+        nodeCount = buffer.getInt(NODE_COUNT_OFFSET);
+        rangeCount = buffer.getInt(RANGE_COUNT_OFFSET);
+        usrCount = buffer.getInt(USR_COUNT_OFFSET);
+        kindCount = buffer.getInt(KIND_COUNT_OFFSET);
+        sourceCount = buffer.getInt(SOURCE_COUNT_OFFSET);
+        stringCount = buffer.getInt(STRING_COUNT_OFFSET);
+        nodeTable = buffer.getInt(NODE_TABLE_OFFSET);
+        rangeTable = buffer.getInt(RANGE_TABLE_OFFSET);
+        usrTable = buffer.getInt(USR_TABLE_OFFSET);
+        kindTable = buffer.getInt(KIND_TABLE_OFFSET);
+        sourceTable = buffer.getInt(SOURCE_TABLE_OFFSET);
+        stringTable = buffer.getInt(STRING_TABLE_OFFSET);
+        stringData = buffer.getInt(STRING_DATA_OFFSET);
+
+        checkTable(nodeTable, nodeCount, NODE_SIZE);
+        checkTable(rangeTable, rangeCount, RANGE_SIZE);
+        checkTable(usrTable, usrCount, USR_SIZE);
+        checkTable(kindTable, kindCount, KIND_SIZE);
+        checkTable(sourceTable, sourceCount, Integer.BYTES);
+        checkTable(stringTable, stringCount + 1, Integer.BYTES);
+        checkTable(stringData, buffer.getInt(stringTable + stringCount * Integer.BYTES), 1);
+        if (nodeCount == 0) {
+            throw new IOException("Empty AST snapshot: " + file);
+        }
+    }
+
+    /**
+     * Maps the snapshot into memory, reading nothing but the header.
+     *
+     * @throws IOException if the file is not a (complete) snapshot of a
+     *   supported version.
+     */
+    public static @NonNull AstSnapshot open(final @NonNull Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Not an AST snapshot: " + file);
+            }
+            return new AstSnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0L, size).order(LITTLE_ENDIAN));
+        }
+    }
+
+    /**
+     * Writes the {@code ast} to {@code file}, replacing it atomically.
+     *
+     * @throws IllegalArgumentException if the AST has a kind which is
+     *   neither a {@link TokenKind} nor a {@link CursorKind}.
+     * @throws IOException if writing fails, or the snapshot would exceed
+     *   2 GiB.
+     */
+    public static void write(final @NonNull CompactAst ast, final @NonNull Path file) throws IOException {
+        final int nodeCount = ast.size();
+        int rangeCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (ast.getSourceId(node) != NONE) {
+                rangeCount++;
+            }
+        }
+        final int usrNodes[] = ast.getUsrNodes();
+
+        final AstNodeKind kinds[] = ast.getKindTable();
+        final String strings[] = ast.getStringTable();
+        final SourceText sources[] = ast.getSourceTable();
+
+        /*
+         * The paths of the sources, and then the USRs, are appended to the
+         * strings of the AST.
+         */
+        final int usrStrings = strings.length + sources.length;
+        final int stringCount = usrStrings + usrNodes.length;
+        final byte encodedStrings[][] = new byte[stringCount][];
+        long stringDataSize = 0L;
+        for (int string = 0; string < stringCount; string++) {
+            final String decoded;
+            if (string < strings.length) {
+                decoded = strings[string];
+            } else if (string < usrStrings) {
+                decoded = sources[string - strings.length].getFile().toString();
+            } else {
+                decoded = ast.getUsr(usrNodes[string - usrStrings]);
+                assert decoded != null;
+            }
+            encodedStrings[string] = decoded.getBytes(UTF_8);
+            stringDataSize += encodedStrings[string].length;
+        }
+
+        final long nodeTable = HEADER_SIZE;
+        final long rangeTable = nodeTable + (long) nodeCount * NODE_SIZE;
+        final long usrTable = rangeTable + (long) rangeCount * RANGE_SIZE;
+        final long kindTable = usrTable + (long) usrNodes.length * USR_SIZE;
+        final long sourceTable = kindTable + (long) kinds.length * KIND_SIZE;
+        final long stringTable = sourceTable + (long) sources.length * Integer.BYTES;
+        final long stringData = stringTable + (stringCount + 1L) * Integer.BYTES;
+        final long fileSize = stringData + stringDataSize;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("The AST is too large for a snapshot: " + fileSize + " byte(s)");
+        }
+
+        final Path absoluteFile = file.toAbsolutePath();
+        final Path temporaryFile = Files.createTempFile(
+                absoluteFile.getParent(),
+                absoluteFile.getFileName().toString(),
+                ".tmp"
+        );
+        try {
+            try (final RecordWriter out = new RecordWriter(FileChannel.open(temporaryFile, WRITE))) {
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putInt(nodeCount);
+                out.putInt(rangeCount);
+                out.putInt(kinds.length);
+                out.putInt(sources.length);
+                out.putInt(stringCount);
+                out.putInt((int) nodeTable);
+                out.putInt((int) rangeTable);
+                out.putInt((int) kindTable);
+                out.putInt((int) sourceTable);
+                out.putInt((int) stringTable);
+                out.putInt((int) stringData);
+                out.putInt((int) fileSize);
+                out.putInt(usrNodes.length);
+                out.putInt((int) usrTable);
+                while (out.position() < HEADER_SIZE) {
+                    out.putInt(0);
+                }
+
+                int range = 0;
+                for (int node = 0; node < nodeCount; node++) {
+                    out.putInt(ast.getParent(node));
+                    out.putInt(ast.getFirstChild(node));
+                    out.putInt(ast.getNextSibling(node));
+                    out.putInt(ast.getTextId(node));
+                    out.putInt(ast.getKindId(node));
+                    out.putInt(ast.getSourceId(node) == NONE ? NONE : range++);
+                }
+
+                for (int node = 0; node < nodeCount; node++) {
+                    final int source = ast.getSourceId(node);
+                    if (source != NONE) {
+                        out.putInt(source);
+                        out.putInt(ast.getBeginOffset(node));
+                        out.putInt(ast.getEndOffset(node));
+                    }
+                }
+
+                for (int usr = 0; usr < usrNodes.length; usr++) {
+                    out.putInt(usrNodes[usr]);
+                    out.putInt(usrStrings + usr);
+                }
+
+                for (final AstNodeKind kind : kinds) {
+                    if (kind == null) {
+                        out.putInt(NO_KIND);
+                        out.putInt(0);
+                    } else if (kind instanceof final TokenKind tokenKind) {
+                        out.putInt(TOKEN_KIND);
+                        out.putInt(tokenKind.getValue());
+                    } else if (kind instanceof final CursorKind cursorKind) {
+                        out.putInt(CURSOR_KIND);
+                        out.putInt(cursorKind.getValue());
+                    } else {
+                        throw new IllegalArgumentException("Unsupported node kind: " + kind);
+                    }
+                }
+
+                for (int source = 0; source < sources.length; source++) {
+                    out.putInt(strings.length + source);
+                }
+
+                int stringOffset = 0;
+                for (final byte string[] : encodedStrings) {
+                    out.putInt(stringOffset);
+                    stringOffset += string.length;
+                }
+                out.putInt(stringOffset);
+
+                for (final byte string[] : encodedStrings) {
+                    out.put(string);
+                }
+
+                assert out.position() == fileSize;
+            }
+            Files.move(temporaryFile, absoluteFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    @Contract(pure = true)
+    public @NonNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of nodes, including the root one.
+     */
+    @Contract(pure = true)
+    public int size() {
+        return nodeCount;
+    }
+
+    public int getParent(final int node) {
+        return nodeField(node, PARENT);
+    }
+
+    public int getFirstChild(final int node) {
+        return nodeField(node, FIRST_CHILD);
+    }
+
+    public int getNextSibling(final int node) {
+        return nodeField(node, NEXT_SIBLING);
+    }
+
+    public boolean isLeaf(final int node) {
+        return getFirstChild(node) == NONE;
+    }
+
+    /**
+     * @return the depth of the node, the root node being at the depth of 0;
+     *   computed in {@code O(depth)}.
+     */
+    public int getDepth(final int node) {
+        int depth = 0;
+        for (int ancestor = getParent(node); ancestor != NONE; ancestor = getParent(ancestor)) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the text, decoded on each call.
+     */
+    public @NonNull String getText(final int node) {
+        return getString(nodeField(node, TEXT));
+    }
+
+    /**
+     * @return the kind of the token, or {@code null} if the node is not a
+     *   token (see {@link #getCursorKind(int)}).
+     */
+    public @Nullable AstNodeKind getKind(final int node) {
+        final AstNodeKind kind = getKindAt(nodeField(node, KIND));
+        return kind instanceof CursorKind ? null : kind;
+    }
+
+    /**
+     * @return the path of the file the node (the token, or the extent of the
+     *   cursor) belongs to, or {@code null} if the node doesn't have a source
+     *   range.
+     */
+    public @Nullable Path getSourceFile(final int node) {
+        final int range = nodeField(node, RANGE);
+        return range == NONE ? null : getSourceFileAt(rangeField(range, SOURCE));
+    }
+
+    /**
+     * @return the kind of the cursor the node corresponds to, or
+     *   {@code null} if the node has been added without its cursor.
+     */
+    public @Nullable CursorKind getCursorKind(final int node) {
+        return getKindAt(nodeField(node, KIND)) instanceof final CursorKind cursorKind ? cursorKind : null;
+    }
+
+    /**
+     * @return the begin offset of the node in its file (see
+     *   {@link CompactAst#getBeginOffset(int)}), or {@link CompactAst#NONE}
+     *   if unknown.
+     */
+    public int getBeginOffset(final int node) {
+        final int range = nodeField(node, RANGE);
+        return range == NONE ? NONE : rangeField(range, BEGIN_OFFSET);
+    }
+
+    /**
+     * @return the end offset of the node in its file (see
+     *   {@link CompactAst#getEndOffset(int)}), or {@link CompactAst#NONE} if
+     *   unknown.
+     */
+    public int getEndOffset(final int node) {
+        final int range = nodeField(node, RANGE);
+        return range == NONE ? NONE : rangeField(range, END_OFFSET);
+    }
+
+    /**
+     * @return the USR of the declaration the node corresponds to, decoded on
+     *   each call (and looked up in {@code O(log n)}), or {@code null} if
+     *   there's none.
+     */
+    public @Nullable String getUsr(final int node) {
+        require(node >= 0 && node < nodeCount, () -> "No such node: " + node);
+        int low = 0;
+        int high = usrCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int middleNode = usrField(middle, USR_NODE);
+            if (middleNode < node) {
+                low = middle + 1;
+            } else if (middleNode > node) {
+                high = middle - 1;
+            } else {
+                return getString(usrField(middle, USR));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the whole snapshot back into a {@link CompactAst}, reading the
+     * source files (via {@link SourceTextCache#getDefault()}).
+     *
+     * @throws IOException if a source file can't be read.
+     */
+    public @NonNull CompactAst toCompactAst() throws IOException {
+        /*
+         * Each distinct string, kind and source is only decoded once.
+         */
+        final String strings[] = new String[stringCount];
+        final SourceText sources[] = new SourceText[sourceCount];
+        for (int source = 0; source < sourceCount; source++) {
+            sources[source] = SourceTextCache.getDefault().get(getSourceFileAt(source));
+        }
+        final AstNodeKind kinds[] = new AstNodeKind[kindCount];
+        for (int kind = 0; kind < kindCount; kind++) {
+            kinds[kind] = getKindAt(kind);
+        }
+
+        final CompactAst.Builder builder = new CompactAst.Builder(getString(strings, nodeField(0, TEXT)));
+        /*
+         * The USR table is sorted by node, so it's walked along with the nodes.
+         */
+        int usr = 0;
+        for (int node = 1; node < nodeCount; node++) {
+            final int parent = getParent(node);
+            final String text = getString(strings, nodeField(node, TEXT));
+            final AstNodeKind kind = kinds[nodeField(node, KIND)];
+            final int range = nodeField(node, RANGE);
+            if (kind instanceof final CursorKind cursorKind) {
+                final String nodeUsr;
+                if (usr < usrCount && usrField(usr, USR_NODE) == node) {
+                    nodeUsr = getString(strings, usrField(usr, USR));
+                    usr++;
+                } else {
+                    nodeUsr = null;
+                }
+                builder.addNode(
+                        parent,
+                        text,
+                        cursorKind,
+                        range == NONE ? null : sources[rangeField(range, SOURCE)],
+                        range == NONE ? NONE : rangeField(range, BEGIN_OFFSET),
+                        range == NONE ? NONE : rangeField(range, END_OFFSET),
+                        nodeUsr
+                );
+            } else if (range == NONE) {
+                builder.addNode(parent, text);
+            } else {
+                if (!(kind instanceof final TokenKind tokenKind)) {
+                    throw new IOException("Token node " + node + " has a kind of " + kind + ": " + file);
+                }
+                builder.addToken(
+                        parent,
+                        text,
+                        tokenKind,
+                        sources[rangeField(range, SOURCE)],
+                        rangeField(range, BEGIN_OFFSET),
+                        rangeField(range, END_OFFSET)
+                );
+            }
+        }
+        if (usr != usrCount) {
+            throw new IOException("Corrupt AST snapshot (USR table): " + file);
+        }
+        return builder.build();
+    }
+
+    private int nodeField(final int node, final int field) {
+        require(node >= 0 && node < nodeCount, () -> "No such node: " + node);
+        return buffer.getInt(nodeTable + node * NODE_SIZE + field);
+    }
+
+    private int rangeField(final int range, final int field) {
+        return buffer.getInt(rangeTable + range * RANGE_SIZE + field);
+    }
+
+    private int usrField(final int usr, final int field) {
+        return buffer.getInt(usrTable + usr * USR_SIZE + field);
+    }
+
+    private @Nullable AstNodeKind getKindAt(final int kind) {
+        final int offset = kindTable + kind * KIND_SIZE;
+        final int value = buffer.getInt(offset + KIND_VALUE);
+        return switch (buffer.getInt(offset + KIND_TYPE)) {
+            case TOKEN_KIND -> TokenKind.of(value);
+            case CURSOR_KIND -> CursorKind.of(value);
+            default -> null;
+        };
+    }
+
+    private @NonNull Path getSourceFileAt(final int source) {
+        return Path.of(getString(buffer.getInt(sourceTable + source * Integer.BYTES)));
+    }
+
+    private @NonNull String getString(final int string) {
+        final int begin = buffer.getInt(stringTable + string * Integer.BYTES);
+        final int end = buffer.getInt(stringTable + (string + 1) * Integer.BYTES);
+        final byte bytes[] = new byte[end - begin];
+        buffer.get(stringData + begin, bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private @NonNull String getString(final @Nullable String strings @NonNull[], final int string) {
+        final String decoded = strings[string];
+        if (decoded != null) {
+            return decoded;
+        }
+
+        final String newDecoded = getString(string);
+        strings[string] = newDecoded;
+        return newDecoded;
+    }
+
+    private void checkTable(final int offset, final int count, final int recordSize) throws IOException {
+        if (offset < HEADER_SIZE || count < 0 || offset + (long) count * recordSize > buffer.limit()) {
+            throw new IOException("Corrupt AST snapshot: " + file);
+        }
+    }
+
+    /**
+     * Writes little-endian records through a buffer.
+     */
+    private static final class RecordWriter implements AutoCloseable {
+        private final @NonNull FileChannel channel;
+
+        private final @NonNull ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(LITTLE_ENDIAN);
+
+        private long position;
+
+        private RecordWriter(final @NonNull FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private long position() {
+            return position;
+        }
+
+        private void putInt(final int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                drain();
+            }
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        private void put(final byte bytes @NonNull[]) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                final int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+            position += bytes.length;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -1,22 +1,20 @@
 package com.example;
 
 import com.example.clang.ChildVisitResult;
+import com.example.clang.ClientDataMode;
+import com.example.clang.CursorFilter;
 import com.example.clang.CursorVisitor;
-import com.example.clang.SourceLocation;
-import com.example.clang.Tokens;
+import com.example.clang.Metrics;
+import com.example.clang.NativeArena;
+import com.example.clang.TokenIndex;
 import org.bytedeco.llvm.clang.CXCursor;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.function.Supplier;
 
-import static com.example.AstVisitorUtils.addToken;
+import static com.example.AstVisitorUtils.addTokens;
 import static com.example.AstVisitorUtils.getType;
-import static com.example.AstVisitorUtils.showCursorKind;
-import static com.example.AstVisitorUtils.showIncludedFile;
-import static com.example.AstVisitorUtils.showLinkage;
-import static com.example.AstVisitorUtils.showParent;
-import static com.example.AstVisitorUtils.showSpelling;
-import static com.example.AstVisitorUtils.showUsr;
 import static com.example.clang.ChildVisitResult.BREAK;
 import static com.example.clang.ChildVisitResult.CONTINUE;
 import static com.example.clang.Utils.check;
@@ -31,8 +29,48 @@ public final class AstVisitor implements CursorVisitor<AstNode>, ParentNodeAware
      */
     private @NonNull AstNode parentNode;
 
+    private final @NonNull CursorFilter filter;
+
+    private final @Nullable TokenIndex tokenIndex;
+
+    private final @NonNull DiagnosticSink diagnostics;
+
     public AstVisitor(final @NonNull AstNode parentNode) {
+        this(parentNode, CursorFilter.MAIN_FILE, null);
+    }
+
+    /**
+     * @param filter the filter which prunes the subtrees not to be visited
+     *               before any per-cursor work is done.
+     * @param tokenIndex the tokens of the whole main file, or {@code null}
+     *                   if each leaf cursor should be tokenized separately.
+     */
+    public AstVisitor(
+            final @NonNull AstNode parentNode,
+            final @NonNull CursorFilter filter,
+            final @Nullable TokenIndex tokenIndex
+    ) {
+        this(parentNode, filter, tokenIndex, DiagnosticSink.NONE);
+    }
+
+    /**
+     * @param filter the filter which prunes the subtrees not to be visited
+     *               before any per-cursor work is done.
+     * @param tokenIndex the tokens of the whole main file, or {@code null}
+     *                   if each leaf cursor should be tokenized separately.
+     * @param diagnostics the sink for the visited cursors, or
+     *                    {@link DiagnosticSink#NONE}.
+     */
+    public AstVisitor(
+            final @NonNull AstNode parentNode,
+            final @NonNull CursorFilter filter,
+            final @Nullable TokenIndex tokenIndex,
+            final @NonNull DiagnosticSink diagnostics
+    ) {
         this.parentNode = parentNode;
+        this.filter = filter;
+        this.tokenIndex = tokenIndex;
+        this.diagnostics = diagnostics;
     }
 
     /**
@@ -42,60 +80,72 @@ public final class AstVisitor implements CursorVisitor<AstNode>, ParentNodeAware
      * @see #parentNode
      */
     @Override
+    @SuppressWarnings("try")
     public @NonNull ChildVisitResult call(
             final @NonNull CXCursor cursor,
             final @NonNull CXCursor parentCursor,
             final @NonNull AstNode parentAstNode
     ) {
-        try (final SourceLocation location = new SourceLocation(cursor)) {
-            if (!location.isFromMainFile()) {
-                /*
-                 * System include files.
-                 */
-                return CONTINUE;
-            }
+        /*
+         * The arenas nest along with the calls, so the native memory held
+         * at any time is that of the cursors on the current path.
+         */
+        try (final NativeArena ignored = new NativeArena()) {
+            return visitCursor(cursor, parentCursor, parentAstNode);
+        }
+    }
 
+    private @NonNull ChildVisitResult visitCursor(
+            final @NonNull CXCursor cursor,
+            final @NonNull CXCursor parentCursor,
+            final @NonNull AstNode parentAstNode
+    ) {
+        Metrics.getDefault().increment(Metrics.Counter.CURSORS_VISITED);
+        if (!filter.accept(cursor)) {
             /*
-             * Make sure that serialized data is passed correctly across a
-             * native stack frame.
+             * System include files.
              */
-            check(
-                    parentNode.getText().equals(parentAstNode.getText()),
-                    () -> format("%s != %s", parentNode.getText(), parentAstNode.getText())
-            );
-            check(
-                    parentNode.getDepth() == parentAstNode.getDepth(),
-                    () -> format("%d != %d", parentNode.getDepth(), parentAstNode.getDepth())
-            );
-
-            System.out.printf("%s: depth = %d%n", location, parentNode.getDepth() + 1);
-
-            showCursorKind(cursor);
-            final String cursorType = getType(cursor);
-            System.out.println("Type: " + cursorType);
-            showSpelling(cursor);
-            showUsr(cursor);
-            showLinkage(cursor);
-            showParent(cursor, parentCursor);
-            showIncludedFile(cursor);
-            System.out.println();
+            Metrics.getDefault().increment(Metrics.Counter.CURSORS_SKIPPED);
+            return CONTINUE;
+        }
 
-            /*
-             * Returning `RECURSE` here will have exactly the same effect as
-             * calling `visitChildren`
-             * (except for client data not being updated).
-             */
-            final AstNode childNode = parentNode.addChild(cursorType, null, null);
-            final Boolean interrupted = withNewParent(childNode, () -> visitChildren(cursor, childNode));
+        /*
+         * Make sure that client data is passed correctly across a
+         * native stack frame (the handle-based client data is the very
+         * same object, see `ClientDataMode.HANDLE`).
+         */
+        check(
+                getClientDataMode() != ClientDataMode.HANDLE || parentNode == parentAstNode,
+                () -> format("%s is not identical to %s", parentNode, parentAstNode)
+        );
+        check(
+                parentNode.getText().equals(parentAstNode.getText()),
+                () -> format("%s != %s", parentNode.getText(), parentAstNode.getText())
+        );
+        check(
+                parentNode.getDepth() == parentAstNode.getDepth(),
+                () -> format("%d != %d", parentNode.getDepth(), parentAstNode.getDepth())
+        );
 
-            if (childNode.isLeaf()) {
-                try (final Tokens tokens = new Tokens(cursor)) {
-                    tokens.forEach(pair -> addToken(childNode, pair.getFirst(), pair.getSecond()));
-                }
-            }
+        final String cursorType = getType(cursor);
+        if (diagnostics != DiagnosticSink.NONE) {
+            diagnostics.accept(new CursorRecord(cursor, parentCursor, parentNode.getDepth() + 1, cursorType));
+        }
+
+        /*
+         * Returning `RECURSE` here will have exactly the same effect as
+         * calling `visitChildren`
+         * (except for client data not being updated).
+         * See `FlatAstVisitor` for a visitor which does exactly that.
+         */
+        final AstNode childNode = parentNode.addChild(cursorType, null, null);
+        final Boolean interrupted = withNewParent(childNode, () -> visitChildren(cursor, childNode));
 
-            return interrupted ? BREAK : CONTINUE;
+        if (childNode.isLeaf()) {
+            addTokens(childNode, cursor, tokenIndex);
         }
+
+        return interrupted ? BREAK : CONTINUE;
     }
 
     @Override
@@ -1,22 +1,26 @@
 package com.example;
 
+import com.example.clang.CursorFilter;
+import com.example.clang.Index;
+import com.example.clang.Metrics;
+import com.example.clang.NativeArena;
+import com.example.clang.TokenIndex;
+import com.example.clang.TranslationUnit;
 import com.example.overflowdb.AstChildEdge;
+import com.example.overflowdb.AstGraphBuilder;
+import com.example.overflowdb.AstGraphExporter;
+import com.example.overflowdb.AstGraphIndex;
+import com.example.overflowdb.AstGraphLoader;
 import com.example.overflowdb.AstNextSiblingEdge;
 import com.example.overflowdb.AstNodeRef;
-import org.bytedeco.javacpp.BytePointer;
-import org.bytedeco.javacpp.PointerPointer;
+import com.example.overflowdb.DotSink;
+import com.example.overflowdb.GraphMLSink;
 import org.bytedeco.llvm.clang.CXCursor;
-import org.bytedeco.llvm.clang.CXIndex;
-import org.bytedeco.llvm.clang.CXTranslationUnit;
-import org.bytedeco.llvm.clang.CXUnsavedFile;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import overflowdb.Config;
 import overflowdb.Graph;
-import overflowdb.formats.dot.DotExporter;
-import overflowdb.formats.graphml.GraphMLExporter;
 
-import java.awt.Color;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -24,14 +28,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
-import static com.example.AstVisitorUtils.checkError;
 import static java.nio.file.Files.deleteIfExists;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
-import static org.bytedeco.llvm.global.clang.clang_createIndex;
-import static org.bytedeco.llvm.global.clang.clang_disposeIndex;
-import static org.bytedeco.llvm.global.clang.clang_disposeTranslationUnit;
-import static org.bytedeco.llvm.global.clang.clang_getTranslationUnitCursor;
-import static org.bytedeco.llvm.global.clang.clang_parseTranslationUnit2;
 
 /**
  * @see <a href="https://github.com/sabottenda/libclang-sample/blob/master/AST/ASTVisitor.cc">ASTVisitor.cc</a>
@@ -41,122 +40,168 @@ public final class AstVisitorMain {
 		assert false;
 	}
 
+	@SuppressWarnings("try")
 	public static void main(final @NonNull String args @NonNull[]) throws URISyntaxException, IOException {
-		if (args.length != 1) {
-			System.err.printf("Usage: %s [FILE]%n", AstVisitorMain.class.getName());
+		boolean flat = false;
+		boolean tokenIndexEnabled = false;
+		boolean quiet = false;
+		boolean gzip = false;
+		@Nullable Path cacheDirectory = null;
+		@Nullable Path metricsFile = null;
+		@Nullable String fileArg = null;
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if (arg.equals("--flat")) {
+				flat = true;
+			} else if (arg.equals("--token-index")) {
+				tokenIndexEnabled = true;
+			} else if (arg.equals("--quiet")) {
+				quiet = true;
+			} else if (arg.equals("--gzip")) {
+				gzip = true;
+			} else if (arg.equals("--cache") && i + 1 < args.length) {
+				cacheDirectory = Path.of(args[++i]);
+			} else if (arg.equals("--metrics") && i + 1 < args.length) {
+				metricsFile = Path.of(args[++i]);
+			} else if (fileArg == null) {
+				fileArg = arg;
+			} else {
+				fileArg = null;
+				break;
+			}
+		}
+
+		if (fileArg == null) {
+			System.err.printf("Usage: %s [--flat] [--token-index] [--quiet] [--gzip] [--cache DIR] [--metrics FILE] [FILE]%n", AstVisitorMain.class.getName());
+			System.err.println();
+			System.err.println("\t--flat\tvisit the whole AST with a single call to clang_visitChildren()");
+			System.err.println("\t--token-index\ttokenize the whole file once rather than each leaf cursor separately");
+			System.err.println("\t--quiet\tdon't print the visited cursors");
+			System.err.println("\t--gzip\tcompress the GraphML and DOT files");
+			System.err.println("\t--cache DIR\treuse the AST stored in DIR if neither the file nor its includes have changed (implies --flat)");
+			System.err.println("\t--metrics FILE\twrite the per-stage timers and counters to FILE, as JSON if it ends with .json, or else in the Prometheus text format");
 			return;
 		}
 
-		final URL resourceOrNull = AstVisitorMain.class.getResource(args[0]);
+		final URL resourceOrNull = AstVisitorMain.class.getResource(fileArg);
 		if (resourceOrNull == null) {
 			System.out.println("File doesn't exist");
 			return;
 		}
 		final Path file = Paths.get(resourceOrNull.toURI());
 
-		final String[] commandLineArgs = { };
-
-		final CXIndex index = clang_createIndex(1, 0);
-
-		final int numUnsavedFiles = 0;
-		final CXUnsavedFile unsavedFiles = new CXUnsavedFile();
-		final BytePointer sourceFilename = new BytePointer(file.toString());
-		final PointerPointer<?> commandLineArgsPtr = new PointerPointer<>(commandLineArgs);
-		final CXTranslationUnit translationUnit = new CXTranslationUnit();
-		checkError(
-				clang_parseTranslationUnit2(
-						index,
-						sourceFilename,
-						commandLineArgsPtr,
-						commandLineArgs.length,
-						unsavedFiles,
-						numUnsavedFiles,
-						CXTranslationUnit_None,
-						translationUnit
-				)
-		);
-
-		final CXCursor rootCursor = clang_getTranslationUnitCursor(translationUnit);
 		final String fileName = file.getFileName().toString();
-		final AstNode rootAstNode = new AstNode(fileName);
-		new AstVisitor(rootAstNode).visitChildren(rootCursor, rootAstNode);
 
-		clang_disposeTranslationUnit(translationUnit);
-		clang_disposeIndex(index);
+		if (metricsFile != null) {
+			Metrics.getDefault().setEnabled(true);
+		}
 
 		final Path graphStorage = Path.of(fileName + ".h2");
 		deleteIfExists(graphStorage);
 		final Config config = Config.withDefaults()
 									.withSerializationStatsEnabled()
 									.withStorageLocation(graphStorage);
+		final AstGraphIndex graphIndex;
 		try (final Graph graph = Graph.open(
 				config,
 				List.of(AstNodeRef.FACTORY),
 				List.of(AstChildEdge.FACTORY, AstNextSiblingEdge.FACTORY)
 		)) {
-			addRoot(graph, rootAstNode);
-
-			GraphMLExporter.runExport(graph, Path.of(fileName + ".graphml").toAbsolutePath());
-			DotExporter.runExport(graph, Path.of(fileName + ".dot").toAbsolutePath());
+			graphIndex = new AstGraphIndex(graph);
+			final AstGraphLoader loader = new AstGraphLoader(graph, graphIndex);
+			if (cacheDirectory != null) {
+				final AstCache cache = new AstCache(cacheDirectory);
+				final String key = cache.key(file, List.of());
+				@Nullable CompactAst ast = cache.get(key);
+				if (ast == null) {
+					ast = parse(file, fileName, tokenIndexEnabled, quiet, cache, key);
+				}
+				loader.load(ast);
+				System.err.printf("AST cache: %s%n", cache);
+			} else {
+				try (final Index index = new Index();
+					 final TranslationUnit translationUnit = TranslationUnit.parse(index, file, List.of(), CXTranslationUnit_None);
+					 final @Nullable TextDiagnosticSink textDiagnostics = quiet ? null : TextDiagnosticSink.toStandardOutput()) {
+					final CXCursor rootCursor = translationUnit.getCursor();
+					final TokenIndex tokenIndex = tokenIndexEnabled
+							? new TokenIndex(translationUnit.getCxTranslationUnit(), file)
+							: null;
+					final DiagnosticSink diagnostics = textDiagnostics == null ? DiagnosticSink.NONE : textDiagnostics;
+					if (flat) {
+						/*
+						 * Stream the AST straight into the graph.
+						 */
+						final AstGraphBuilder builder = new AstGraphBuilder(loader, fileName, AstGraphBuilder.DEFAULT_BATCH_SIZE);
+						try (final FlatAstVisitor visitor = new FlatAstVisitor(CursorFilter.MAIN_FILE, diagnostics)) {
+							visitor.visit(rootCursor, builder, tokenIndex);
+						}
+						builder.flush();
+					} else {
+						final AstNode rootAstNode = new AstNode(fileName);
+						final long start = Metrics.getDefault().start();
+						try (final NativeArena ignored = new NativeArena()) {
+							new AstVisitor(rootAstNode, CursorFilter.MAIN_FILE, tokenIndex, diagnostics).visitChildren(rootCursor, rootAstNode);
+						}
+						Metrics.getDefault().stop(Metrics.Stage.VISIT, start);
+						loader.load(rootAstNode);
+					}
+				}
+			}
+
+			System.err.printf(
+					"Loaded %d nodes and %d edges in %d ms (%.0f nodes/s)%n",
+					loader.getNodeCount(),
+					loader.getEdgeCount(),
+					NANOSECONDS.toMillis(loader.getElapsedNanos()),
+					loader.getNodesPerSecond()
+			);
+
+			/*
+			 * Write both files with a single traversal of the graph.
+			 */
+			final String suffix = gzip ? ".gz" : "";
+			try (final GraphMLSink graphML = new GraphMLSink(AstGraphExporter.newWriter(Path.of(fileName + ".graphml" + suffix), gzip));
+				 final DotSink dot = new DotSink(AstGraphExporter.newWriter(Path.of(fileName + ".dot" + suffix), gzip))) {
+				AstGraphExporter.export(graph, List.of(graphML, dot));
+			}
 		}
-	}
 
-	private static void addRoot(
-			final @NonNull Graph graph,
-			final @NonNull AstNode rootAstNode
-	) {
-		final AstNodeRef graphRoot = (AstNodeRef) graph.addNode(
-				AstNodeRef.LABEL_V,
-				AstNodeRef.LABEL,
-				rootAstNode.getText(),
-				AstNodeRef.COLOR,
-				Color.RED
-		);
+		/*
+		 * Only once the graph is closed, so that the storage is complete.
+		 */
+		graphIndex.write(Path.of(fileName + ".index"), graphStorage);
 
-		AstNodeRef previousSibling = null;
-		for (final AstNode astChild : rootAstNode.getChildren()) {
-			previousSibling = addChildRecursively(graphRoot, astChild, previousSibling);
+		if (metricsFile != null) {
+			Metrics.getDefault().write(metricsFile);
 		}
 	}
 
-	private static @NonNull AstNodeRef addChildRecursively(
-			final @NonNull AstNodeRef graphParent,
-			final @NonNull AstNode astChild,
-			final @Nullable AstNodeRef previousSibling
-	) {
-		final AstNodeRef graphChild = addChild(graphParent, astChild, previousSibling);
-
-		AstNodeRef graphSubChild = null;
-		for (final AstNode astSubChild : astChild.getChildren()) {
-			graphSubChild = addChildRecursively(graphChild, astSubChild, graphSubChild);
+	/**
+	 * Parses and visits the {@code file} into a {@link CompactAst}, and adds
+	 * it to the {@code cache}.
+	 */
+	private static @NonNull CompactAst parse(
+			final @NonNull Path file,
+			final @NonNull String fileName,
+			final boolean tokenIndexEnabled,
+			final boolean quiet,
+			final @NonNull AstCache cache,
+			final @NonNull String key
+	) throws IOException {
+		try (final Index index = new Index();
+			 final TranslationUnit translationUnit = TranslationUnit.parse(index, file, List.of(), CXTranslationUnit_None);
+			 final @Nullable TextDiagnosticSink textDiagnostics = quiet ? null : TextDiagnosticSink.toStandardOutput()) {
+			final TokenIndex tokenIndex = tokenIndexEnabled
+					? new TokenIndex(translationUnit.getCxTranslationUnit(), file)
+					: null;
+			final DiagnosticSink diagnostics = textDiagnostics == null ? DiagnosticSink.NONE : textDiagnostics;
+			final CompactAst.Builder builder = new CompactAst.Builder(fileName);
+			try (final FlatAstVisitor visitor = new FlatAstVisitor(CursorFilter.MAIN_FILE, diagnostics)) {
+				visitor.visit(translationUnit.getCursor(), builder, tokenIndex);
+			}
+			final CompactAst ast = builder.build();
+			cache.put(key, translationUnit.getInclusions(), ast);
+			return ast;
 		}
-
-		return graphChild;
-	}
-
-	private static @NonNull AstNodeRef addChild(
-			final @NonNull AstNodeRef graphParent,
-			final @NonNull AstNode astChild,
-			final @Nullable AstNodeRef previousSibling
-	) {
-		final Color color;
-		final AstNodeKind kind = astChild.getKind();
-		if (kind instanceof TokenKind) {
-			color = Color.CYAN;
-		} else {
-			color = Color.GREEN;
-		}
-
-		final AstNodeRef graphChild = graphParent.addChild(
-				astChild.getText(),
-				kind,
-				color
-		);
-
-		if (previousSibling != null) {
-			previousSibling.addNextSibling(graphChild);
-		}
-
-		return graphChild;
 	}
 }
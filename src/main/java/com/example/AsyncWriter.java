@@ -0,0 +1,250 @@
+package com.example;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static com.example.clang.Utils.require;
+
+/**
+ * A {@link Writer} which buffers the text and writes it to the underlying
+ * writer on a background thread, so that the writing threads never block on
+ * the I/O (only on a full queue).
+ *
+ * <p>
+ * The text is handed over to the background thread in chunks of at least
+ * {@code bufferSize} characters (or when flushed), in the order written.
+ * An error on the background thread (whether an I/O error or an unchecked
+ * one thrown by the underlying writer) is re-thrown, wrapped into an
+ * {@link IOException}, by the next {@link #write(char[], int, int)},
+ * {@link #flush()} or {@link #close()}.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class AsyncWriter extends Writer {
+    /**
+     * Tells the background thread to stop.
+     */
+    private static final Object END = new Object();
+
+    private final @NonNull Writer out;
+
+    private final int bufferSize;
+
+    /**
+     * Either text chunks, or {@link CountDownLatch}es to count down once
+     * everything before them has been flushed, or {@link #END}.
+     */
+    private final @NonNull BlockingQueue<@NonNull Object> queue;
+
+    private final @NonNull Thread thread;
+
+    /**
+     * Guarded by {@link #lock}.
+     */
+    private final @NonNull StringBuilder buffer;
+
+    /**
+     * Guarded by {@link #lock}.
+     */
+    private boolean closed;
+
+    private volatile @Nullable Throwable failure;
+
+    /**
+     * @param out the writer to write to, which is closed along with this one.
+     */
+    public AsyncWriter(final @NonNull Writer out) {
+        this(out, 8192, 64);
+    }
+
+    /**
+     * @param out the writer to write to, which is closed along with this one.
+     * @param bufferSize the minimum size of a chunk, in characters.
+     * @param queueCapacity the maximum number of chunks waiting to be
+     *                      written, after which the writing threads block.
+     */
+    public AsyncWriter(
+            final @NonNull Writer out,
+            final int bufferSize,
+            final int queueCapacity
+    ) {
+        require(bufferSize > 0, () -> "bufferSize should be positive: " + bufferSize);
+        require(queueCapacity > 0, () -> "queueCapacity should be positive: " + queueCapacity);
+
+        this.out = out;
+        this.bufferSize = bufferSize;
+        buffer = new StringBuilder(bufferSize);
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        thread = new Thread(this::drain, AsyncWriter.class.getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void write(final char cbuf @NonNull[], final int off, final int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            buffer.append(cbuf, off, len);
+            if (buffer.length() >= bufferSize) {
+                handOff();
+            }
+        }
+    }
+
+    @Override
+    public void write(final @NonNull String str, final int off, final int len) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (off == 0 && len == str.length() && len >= bufferSize) {
+                /*
+                 * Already a chunk of its own: hand it over without copying.
+                 */
+                handOff();
+                put(str);
+                return;
+            }
+
+            buffer.append(str, off, off + len);
+            if (buffer.length() >= bufferSize) {
+                handOff();
+            }
+        }
+    }
+
+    /**
+     * Blocks until everything written so far has been written to (and
+     * flushed by) the underlying writer.
+     */
+    @Override
+    public void flush() throws IOException {
+        final CountDownLatch flushed = new CountDownLatch(1);
+        synchronized (lock) {
+            ensureOpen();
+            handOff();
+            put(flushed);
+        }
+        await(flushed);
+        checkFailure();
+    }
+
+    /**
+     * Writes everything written so far, stops the background thread, and
+     * closes the underlying writer.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            handOff();
+            put(END);
+        }
+
+        try {
+            thread.join();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing");
+        }
+
+        try {
+            out.close();
+        } finally {
+            checkFailure();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        assert Thread.holdsLock(lock);
+
+        if (closed) {
+            throw new IOException("Closed");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        final Throwable failure = this.failure;
+        if (failure != null) {
+            throw new IOException("Failed to write", failure);
+        }
+    }
+
+    private void handOff() throws IOException {
+        assert Thread.holdsLock(lock);
+
+        if (buffer.length() != 0) {
+            put(buffer.toString());
+            buffer.setLength(0);
+        }
+    }
+
+    private void put(final @NonNull Object element) throws IOException {
+        try {
+            queue.put(element);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing");
+        }
+    }
+
+    private static void await(final @NonNull CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing");
+        }
+    }
+
+    /**
+     * The body of the background thread.
+     * Once writing fails (in any way), the rest of the text is discarded, but
+     * the thread keeps draining the queue and counting down the latches, so
+     * that the writing threads don't block forever.
+     */
+    private void drain() {
+        while (true) {
+            final Object element;
+            try {
+                element = queue.take();
+            } catch (final InterruptedException ie) {
+                return;
+            }
+
+            if (element == END) {
+                return;
+            }
+
+            try {
+                if (element instanceof final String chunk) {
+                    if (failure == null) {
+                        out.write(chunk);
+                    }
+                } else if (element instanceof final CountDownLatch flushed) {
+                    try {
+                        if (failure == null) {
+                            out.flush();
+                        }
+                    } finally {
+                        flushed.countDown();
+                    }
+                }
+            } catch (final Throwable t) {
+                failure = t;
+            }
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package com.example;
+
+import com.example.clang.SourceText;
+import com.example.clang.SourceTextCache;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXFile;
+import org.bytedeco.llvm.clang.CXSourceLocation;
+import org.bytedeco.llvm.clang.CXSourceRange;
+import org.bytedeco.llvm.clang.CXString;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.clang.Utils.check;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.bytedeco.llvm.global.clang.CXCursor_MacroDefinition;
+import static org.bytedeco.llvm.global.clang.clang_getCursorExtent;
+import static org.bytedeco.llvm.global.clang.clang_getCursorKind;
+import static org.bytedeco.llvm.global.clang.clang_getCursorUSR;
+import static org.bytedeco.llvm.global.clang.clang_getFileName;
+import static org.bytedeco.llvm.global.clang.clang_getRangeEnd;
+import static org.bytedeco.llvm.global.clang.clang_getRangeStart;
+import static org.bytedeco.llvm.global.clang.clang_getSpellingLocation;
+import static org.bytedeco.llvm.global.clang.clang_isDeclaration;
+
+/**
+ * An immutable AST stored column-wise, in parallel primitive arrays indexed
+ * by node, rather than as a graph of {@link AstNode} objects: parent,
+ * first-child and next-sibling indices, the kind and the text (as indices
+ * into the tables of distinct values), and the byte offsets of tokens.
+ * Nodes added along with their cursors (see
+ * {@link Builder#addNode(int, String, CXCursor)}) also keep the cursor kind,
+ * the extent (as a spelling location), and the USR of declarations, the
+ * same way {@link com.example.overflowdb.AstGraphBuilder} does: the cursor
+ * kind and the extent in the same columns as the kind and the range of a
+ * token, and the USRs (which only declarations have) in a sparse table of
+ * their own.
+ *
+ * <p>
+ * Nodes are numbered in the order they have been added (i.e. in pre-order,
+ * if built by a {@link FlatAstVisitor}), the root node being {@code 0}, so
+ * that a full-tree walk is a linear scan of the arrays, and each parent comes
+ * before its children. {@link #NONE} stands for a missing parent, child or
+ * sibling.
+ * </p>
+ *
+ * <p>
+ * On top of the primitive API, there's a read-only {@link AstNode}-like view
+ * (see {@link #getRoot()}). Views are created on demand and aren't retained.
+ * </p>
+ *
+ * <p>
+ * Instances are created with a {@link Builder}, usually from a
+ * {@link FlatAstVisitor}, and are thread-safe.
+ * </p>
+ *
+ * @see AstNode
+ */
+public final class CompactAst {
+    /**
+     * The index of a missing node.
+     */
+    public static final int NONE = -1;
+
+    private final int parents[];
+
+    private final int firstChildren[];
+
+    private final int nextSiblings[];
+
+    /**
+     * Indices into {@link #kindTable}: of a {@link TokenKind} for tokens, and
+     * of a {@link CursorKind} for the nodes added along with their cursors.
+     */
+    private final int kinds[];
+
+    /**
+     * Indices into {@link #stringTable}.
+     */
+    private final int texts[];
+
+    /**
+     * Indices into {@link #sourceTable}, or {@link #NONE}.
+     */
+    private final int sources[];
+
+    private final int beginOffsets[];
+
+    private final int endOffsets[];
+
+    /**
+     * The nodes which have a USR, in ascending order.
+     */
+    private final int usrNodes[];
+
+    /**
+     * The offsets of the USRs into {@link #usrBytes}, parallel to
+     * {@link #usrNodes} (plus the end of the last one).
+     */
+    private final int usrOffsets[];
+
+    /**
+     * All the USRs, encoded as <em>UTF-8</em>: a declaration rarely shares
+     * its USR with another one, so they're not worth interning.
+     */
+    private final byte usrBytes[];
+
+    /**
+     * The distinct node (and cursor) kinds, the first one being
+     * {@code null}.
+     */
+    private final @Nullable AstNodeKind kindTable @NonNull[];
+
+    private final @NonNull String stringTable @NonNull[];
+
+    private final @NonNull SourceText sourceTable @NonNull[];
+
+    private CompactAst(final @NonNull Builder builder) {
+        final int size = builder.size;
+        parents = Arrays.copyOf(builder.parents, size);
+        firstChildren = Arrays.copyOf(builder.firstChildren, size);
+        nextSiblings = Arrays.copyOf(builder.nextSiblings, size);
+        kinds = Arrays.copyOf(builder.kinds, size);
+        texts = Arrays.copyOf(builder.texts, size);
+        sources = Arrays.copyOf(builder.sources, size);
+        beginOffsets = Arrays.copyOf(builder.beginOffsets, size);
+        endOffsets = Arrays.copyOf(builder.endOffsets, size);
+        usrNodes = Arrays.copyOf(builder.usrNodes, builder.usrCount);
+        usrOffsets = Arrays.copyOf(builder.usrOffsets, builder.usrCount + 1);
+        usrBytes = Arrays.copyOf(builder.usrBytes, builder.usrOffsets[builder.usrCount]);
+        kindTable = builder.kindTable.toArray(new AstNodeKind[0]);
+        stringTable = builder.stringTable.toArray(new String[0]);
+        sourceTable = builder.sourceTable.toArray(new SourceText[0]);
+    }
+
+    /**
+     * @return the number of nodes, including the root one.
+     */
+    @Contract(pure = true)
+    public int size() {
+        return parents.length;
+    }
+
+    @Contract(pure = true)
+    public int getParent(final int node) {
+        return parents[node];
+    }
+
+    @Contract(pure = true)
+    public int getFirstChild(final int node) {
+        return firstChildren[node];
+    }
+
+    @Contract(pure = true)
+    public int getNextSibling(final int node) {
+        return nextSiblings[node];
+    }
+
+    @Contract(pure = true)
+    public boolean isLeaf(final int node) {
+        return firstChildren[node] == NONE;
+    }
+
+    /**
+     * @return the depth of the node, the root node being at the depth of 0;
+     *   computed in {@code O(depth)}.
+     */
+    public int getDepth(final int node) {
+        int depth = 0;
+        for (int ancestor = parents[node]; ancestor != NONE; ancestor = parents[ancestor]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    public @NonNull String getText(final int node) {
+        return stringTable[texts[node]];
+    }
+
+    /**
+     * @return the kind of the token, or {@code null} if the node is not a
+     *   token (see {@link #getCursorKind(int)}).
+     */
+    public @Nullable AstNodeKind getKind(final int node) {
+        final AstNodeKind kind = kindTable[kinds[node]];
+        return kind instanceof CursorKind ? null : kind;
+    }
+
+    /**
+     * @return the file the node (the token, or the extent of the cursor)
+     *   belongs to, or {@code null} if the node doesn't have a source range.
+     */
+    public @Nullable SourceText getSource(final int node) {
+        final int source = sources[node];
+        return source == NONE ? null : sourceTable[source];
+    }
+
+    /**
+     * @return the kind of the cursor the node corresponds to, or
+     *   {@code null} if the node has been added without its cursor.
+     */
+    public @Nullable CursorKind getCursorKind(final int node) {
+        return kindTable[kinds[node]] instanceof final CursorKind cursorKind ? cursorKind : null;
+    }
+
+    /**
+     * @return the begin offset of the node in its file (for a cursor, that
+     *   of its extent in the file it's spelled in), or {@link #NONE} if
+     *   unknown.
+     */
+    @Contract(pure = true)
+    public int getBeginOffset(final int node) {
+        return beginOffsets[node];
+    }
+
+    /**
+     * @return the end offset of the node in its file (for a cursor, that of
+     *   its extent in the file it's spelled in), or {@link #NONE} if unknown.
+     */
+    @Contract(pure = true)
+    public int getEndOffset(final int node) {
+        return endOffsets[node];
+    }
+
+    /**
+     * @return the 1-based line of the beginning of the node, computed from
+     *   the offset, or {@link #NONE} if the node doesn't have a source range.
+     */
+    public int getLine(final int node) {
+        final SourceText source = getSource(node);
+        return source == null ? NONE : source.getLine(beginOffsets[node]);
+    }
+
+    /**
+     * @return the 1-based column of the beginning of the node, computed from
+     *   the offset, or {@link #NONE} if the node doesn't have a source range.
+     */
+    public int getColumn(final int node) {
+        final SourceText source = getSource(node);
+        return source == null ? NONE : source.getColumn(beginOffsets[node]);
+    }
+
+    /**
+     * @return the USR of the declaration the node corresponds to, decoded on
+     *   each call (and looked up in {@code O(log n)}), or {@code null} if
+     *   it's not a declaration (or has no USR).
+     */
+    public @Nullable String getUsr(final int node) {
+        final int index = Arrays.binarySearch(usrNodes, node);
+        return index < 0
+               ? null
+               : new String(usrBytes, usrOffsets[index], usrOffsets[index + 1] - usrOffsets[index], UTF_8);
+    }
+
+    /**
+     * @return the source range formatted as {@link AstNode#getRange()} is,
+     *   computed on each call, or {@code null} if the node is not a token
+     *   (an {@link AstNode} doesn't keep the extents of the cursors).
+     */
+    public @Nullable String getRange(final int node) {
+        final SourceText source = getCursorKind(node) == null ? getSource(node) : null;
+        return source == null ? null : source.formatRange(beginOffsets[node], endOffsets[node]);
+    }
+
+    /*
+     * The raw tables, not copied, for AstSnapshot.
+     */
+
+    int getTextId(final int node) {
+        return texts[node];
+    }
+
+    int getKindId(final int node) {
+        return kinds[node];
+    }
+
+    int getSourceId(final int node) {
+        return sources[node];
+    }
+
+    /**
+     * @return the nodes which have a USR, in ascending order.
+     */
+    int @NonNull[] getUsrNodes() {
+        return usrNodes;
+    }
+
+    @Nullable AstNodeKind @NonNull[] getKindTable() {
+        return kindTable;
+    }
+
+    @NonNull String @NonNull[] getStringTable() {
+        return stringTable;
+    }
+
+    @NonNull SourceText @NonNull[] getSourceTable() {
+        return sourceTable;
+    }
+
+    /**
+     * @return the view of the root node.
+     */
+    public @NonNull Node getRoot() {
+        return new Node(0);
+    }
+
+    /**
+     * Converts this AST into a tree of {@link AstNode} objects.
+     */
+    public @NonNull AstNode toAstNode() {
+        final AstNode astNodes[] = new AstNode[size()];
+        astNodes[0] = new AstNode(getText(0));
+        for (int node = 1; node < size(); node++) {
+            final AstNode parent = astNodes[parents[node]];
+            final SourceText source = getCursorKind(node) == null ? getSource(node) : null;
+            astNodes[node] = source == null
+                             ? parent.addChild(getText(node), null, getKind(node))
+                             : parent.addChild(getText(node), source, beginOffsets[node], endOffsets[node], getKind(node));
+        }
+        return astNodes[0];
+    }
+
+    /**
+     * A read-only view of a single node, with the same accessors as
+     * {@link AstNode}.
+     */
+    public final class Node {
+        private final int index;
+
+        private Node(final int index) {
+            this.index = index;
+        }
+
+        /**
+         * @return the index of this node in the enclosing {@link CompactAst}.
+         */
+        @Contract(pure = true)
+        public int getIndex() {
+            return index;
+        }
+
+        public @NonNull String getText() {
+            return CompactAst.this.getText(index);
+        }
+
+        public int getDepth() {
+            return CompactAst.this.getDepth(index);
+        }
+
+        public @Nullable String getRange() {
+            return CompactAst.this.getRange(index);
+        }
+
+        public @Nullable AstNodeKind getKind() {
+            return CompactAst.this.getKind(index);
+        }
+
+        public @Nullable Node getParent() {
+            final int parent = parents[index];
+            return parent == NONE ? null : new Node(parent);
+        }
+
+        public @NonNull List<@NonNull Node> getChildren() {
+            final List<Node> children = new ArrayList<>();
+            for (int child = firstChildren[index]; child != NONE; child = nextSiblings[child]) {
+                children.add(new Node(child));
+            }
+            return children;
+        }
+
+        public boolean isLeaf() {
+            return CompactAst.this.isLeaf(index);
+        }
+
+        @Override
+        public boolean equals(final @Nullable Object obj) {
+            return this == obj
+                   || obj instanceof final Node that
+                      && index == that.index
+                      && getAst() == that.getAst();
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return format("{depth: %d, text: \"%s\"}", getDepth(), getText());
+        }
+
+        private @NonNull CompactAst getAst() {
+            return CompactAst.this;
+        }
+    }
+
+    /**
+     * Builds a {@link CompactAst}, interning the node text and kinds.
+     * Handles are node indices.
+     *
+     * <p>
+     * Instances are not thread-safe, and may only be used once.
+     * </p>
+     */
+    public static final class Builder implements AstBuilder {
+        /**
+         * The USR <em>libclang</em> returns for the cursors it can't name.
+         */
+        private static final String EMPTY_USR = "c:";
+
+        private int size;
+
+        private int parents[] = new int[1024];
+
+        private int firstChildren[] = new int[1024];
+
+        private int lastChildren[] = new int[1024];
+
+        private int nextSiblings[] = new int[1024];
+
+        private int kinds[] = new int[1024];
+
+        private int texts[] = new int[1024];
+
+        private int sources[] = new int[1024];
+
+        private int beginOffsets[] = new int[1024];
+
+        private int endOffsets[] = new int[1024];
+
+        private int usrNodes[] = new int[64];
+
+        private int usrOffsets[] = new int[65];
+
+        private byte usrBytes[] = new byte[4096];
+
+        private int usrCount;
+
+        private final int offsetBuffer[] = new int[1];
+
+        /**
+         * The sources of the files of the cursor extents, by the address of
+         * the {@code CXFile}, or {@link #NONE} if a file can't be read.
+         */
+        private final @NonNull Map<@NonNull Long, @NonNull Integer> fileSourceIds = new HashMap<>();
+
+        private final @NonNull List<@Nullable AstNodeKind> kindTable = new ArrayList<>();
+
+        private final @NonNull Map<@NonNull AstNodeKind, @NonNull Integer> kindIds = new HashMap<>();
+
+        private final @NonNull List<@NonNull String> stringTable = new ArrayList<>();
+
+        private final @NonNull Map<@NonNull String, @NonNull Integer> stringIds = new HashMap<>();
+
+        private final @NonNull List<@NonNull SourceText> sourceTable = new ArrayList<>();
+
+        private final @NonNull Map<@NonNull SourceText, @NonNull Integer> sourceIds = new HashMap<>();
+
+        private boolean built;
+
+        /**
+         * @param rootText the text of the root node (e.g.: the file name).
+         */
+        public Builder(final @NonNull String rootText) {
+            kindTable.add(null);
+            add(NONE, rootText, null, NONE, NONE, NONE);
+        }
+
+        @Override
+        public int getRoot() {
+            return 0;
+        }
+
+        @Override
+        public int addNode(final int parent, final @NonNull String text) {
+            return add(parent, text, null, NONE, NONE, NONE);
+        }
+
+        /**
+         * Adds a node along with its {@link CursorKind}, the beginning and
+         * the end of its extent (as a spelling location), and its USR if
+         * it's a declaration.
+         */
+        @Override
+        public int addNode(
+                final int parent,
+                final @NonNull String text,
+                final @NonNull CXCursor cursor
+        ) {
+            final int cursorKind = clang_getCursorKind(cursor);
+
+            int source = NONE;
+            int beginOffset = NONE;
+            int endOffset = NONE;
+            final CXSourceRange extent = clang_getCursorExtent(cursor);
+            try (final CXSourceLocation begin = clang_getRangeStart(extent);
+                 final CXSourceLocation end = clang_getRangeEnd(extent);
+                 final CXFile file = new CXFile()) {
+                clang_getSpellingLocation(begin, file, null, null, offsetBuffer);
+                if (!file.isNull()) {
+                    source = sourceId(file);
+                    beginOffset = offsetBuffer[0];
+                    clang_getSpellingLocation(end, (CXFile) null, null, null, offsetBuffer);
+                    endOffset = offsetBuffer[0];
+                }
+            } finally {
+                extent.close();
+            }
+
+            @Nullable String usr = null;
+            if (clang_isDeclaration(cursorKind) != 0 || cursorKind == CXCursor_MacroDefinition) {
+                try (final CXString cxUsr = clang_getCursorUSR(cursor)) {
+                    usr = cxUsr.getString();
+                }
+                if (usr.isEmpty() || usr.equals(EMPTY_USR)) {
+                    usr = null;
+                }
+            }
+
+            return add(parent, text, CursorKind.of(cursorKind), source, beginOffset, endOffset, usr);
+        }
+
+        /**
+         * Adds a node along with whatever has been stored about its cursor
+         * (e.g.: read back from an {@link AstSnapshot}).
+         *
+         * @param source the file of the extent, if known.
+         * @param beginOffset the begin offset of the extent, or {@link #NONE}.
+         * @param endOffset the end offset of the extent, or {@link #NONE}.
+         * @param usr the USR, if any.
+         */
+        int addNode(
+                final int parent,
+                final @NonNull String text,
+                final @NonNull CursorKind cursorKind,
+                final @Nullable SourceText source,
+                final int beginOffset,
+                final int endOffset,
+                final @Nullable String usr
+        ) {
+            return add(
+                    parent,
+                    text,
+                    cursorKind,
+                    source == null ? NONE : sourceId(source),
+                    source == null ? NONE : beginOffset,
+                    source == null ? NONE : endOffset,
+                    usr
+            );
+        }
+
+        @Override
+        public void addToken(
+                final int parent,
+                final @NonNull String text,
+                final @NonNull TokenKind kind,
+                final @NonNull SourceText source,
+                final int beginOffsetBytes,
+                final int endOffsetBytes
+        ) {
+            add(parent, text, kind, sourceId(source), beginOffsetBytes, endOffsetBytes);
+        }
+
+        @Override
+        public boolean isLeaf(final int node) {
+            return firstChildren[node] == NONE;
+        }
+
+        /**
+         * @throws IllegalStateException if the AST has already been built.
+         */
+        public @NonNull CompactAst build() {
+            check(!built, () -> "Already built");
+            built = true;
+            return new CompactAst(this);
+        }
+
+        private int add(
+                final int parent,
+                final @NonNull String text,
+                final @Nullable AstNodeKind kind,
+                final int source,
+                final int beginOffset,
+                final int endOffset,
+                final @Nullable String usr
+        ) {
+            final int node = add(parent, text, kind, source, beginOffset, endOffset);
+            if (usr != null) {
+                final byte encodedUsr[] = usr.getBytes(UTF_8);
+                if (usrCount == usrNodes.length) {
+                    usrNodes = Arrays.copyOf(usrNodes, 2 * usrCount);
+                    usrOffsets = Arrays.copyOf(usrOffsets, 2 * usrCount + 1);
+                }
+                final int usrOffset = usrOffsets[usrCount];
+                if (usrOffset + encodedUsr.length > usrBytes.length) {
+                    usrBytes = Arrays.copyOf(usrBytes, Math.max(2 * usrBytes.length, usrOffset + encodedUsr.length));
+                }
+                System.arraycopy(encodedUsr, 0, usrBytes, usrOffset, encodedUsr.length);
+                usrNodes[usrCount] = node;
+                usrOffsets[++usrCount] = usrOffset + encodedUsr.length;
+            }
+            return node;
+        }
+
+        private int add(
+                final int parent,
+                final @NonNull String text,
+                final @Nullable AstNodeKind kind,
+                final int source,
+                final int beginOffset,
+                final int endOffset
+        ) {
+            check(!built, () -> "Already built");
+
+            if (size == parents.length) {
+                grow();
+            }
+
+            final int node = size++;
+            parents[node] = parent;
+            firstChildren[node] = NONE;
+            lastChildren[node] = NONE;
+            nextSiblings[node] = NONE;
+            kinds[node] = kind == null ? 0 : kindId(kind);
+            texts[node] = stringId(text);
+            sources[node] = source;
+            beginOffsets[node] = beginOffset;
+            endOffsets[node] = endOffset;
+
+            if (parent != NONE) {
+                final int previousSibling = lastChildren[parent];
+                if (previousSibling == NONE) {
+                    firstChildren[parent] = node;
+                } else {
+                    nextSiblings[previousSibling] = node;
+                }
+                lastChildren[parent] = node;
+            }
+
+            return node;
+        }
+
+        private int kindId(final @NonNull AstNodeKind kind) {
+            return kindIds.computeIfAbsent(kind, it -> {
+                kindTable.add(it);
+                return kindTable.size() - 1;
+            });
+        }
+
+        private int sourceId(final @NonNull SourceText source) {
+            return sourceIds.computeIfAbsent(source, it -> {
+                sourceTable.add(it);
+                return sourceTable.size() - 1;
+            });
+        }
+
+        /**
+         * @return the source of the {@code file} of a cursor extent, or
+         *   {@link #NONE} if the file can't be read.
+         */
+        private int sourceId(final @NonNull CXFile file) {
+            final Integer cachedSourceId = fileSourceIds.get(file.address());
+            if (cachedSourceId != null) {
+                return cachedSourceId;
+            }
+
+            int sourceId;
+            try (final CXString fileName = clang_getFileName(file)) {
+                sourceId = sourceId(SourceTextCache.getDefault().get(Path.of(fileName.getString())));
+            } catch (final IOException | InvalidPathException ignored) {
+                sourceId = NONE;
+            }
+            fileSourceIds.put(file.address(), sourceId);
+            return sourceId;
+        }
+
+        private int stringId(final @NonNull String text) {
+            return stringIds.computeIfAbsent(text, it -> {
+                stringTable.add(it);
+                return stringTable.size() - 1;
+            });
+        }
+
+        private void grow() {
+            final int capacity = 2 * parents.length;
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            sources = Arrays.copyOf(sources, capacity);
+            beginOffsets = Arrays.copyOf(beginOffsets, capacity);
+            endOffsets = Arrays.copyOf(endOffsets, capacity);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads a
+ * <a href="https://clang.llvm.org/docs/JSONCompilationDatabase.html">JSON Compilation Database</a>
+ * ({@code compile_commands.json}).
+ *
+ * @see CompileCommand
+ */
+public final class CompilationDatabase {
+    /**
+     * The characters a backslash escapes within double quotes.
+     */
+    private static final String ESCAPABLE_IN_DOUBLE_QUOTES = "$`\"\\";
+
+    private CompilationDatabase() {
+        assert false;
+    }
+
+    /**
+     * @throws IOException if the file can't be read, or is not a valid
+     *   compilation database.
+     */
+    public static @NonNull List<@NonNull CompileCommand> read(final @NonNull Path compileCommandsJson) throws IOException {
+        final JsonElement root;
+        try (final Reader reader = Files.newBufferedReader(compileCommandsJson, UTF_8)) {
+            root = JsonParser.parseReader(reader);
+        } catch (final JsonParseException jpe) {
+            throw new IOException("Malformed compilation database: " + compileCommandsJson, jpe);
+        }
+
+        if (!root.isJsonArray()) {
+            throw new IOException("Compilation database should be a JSON array: " + compileCommandsJson);
+        }
+
+        final JsonArray entries = root.getAsJsonArray();
+        final List<CompileCommand> commands = new ArrayList<>(entries.size());
+        for (final JsonElement entry : entries) {
+            if (!entry.isJsonObject()) {
+                throw new IOException("Compilation database entry should be a JSON object: " + entry);
+            }
+            commands.add(toCompileCommand(entry.getAsJsonObject()));
+        }
+
+        return commands;
+    }
+
+    private static @NonNull CompileCommand toCompileCommand(final @NonNull JsonObject entry) throws IOException {
+        final String directory = getString(entry, "directory");
+        final String file = getString(entry, "file");
+        if (directory == null || file == null) {
+            throw new IOException("Both \"directory\" and \"file\" are required: " + entry);
+        }
+
+        final List<String> arguments;
+        final JsonElement argumentsOrNull = entry.get("arguments");
+        if (argumentsOrNull != null && argumentsOrNull.isJsonArray()) {
+            arguments = new ArrayList<>();
+            for (final JsonElement argument : argumentsOrNull.getAsJsonArray()) {
+                arguments.add(argument.getAsString());
+            }
+        } else {
+            final String command = getString(entry, "command");
+            if (command == null) {
+                throw new IOException("Either \"arguments\" or \"command\" is required: " + entry);
+            }
+            arguments = splitCommandLine(command);
+        }
+
+        return new CompileCommand(Path.of(directory), Path.of(file), arguments);
+    }
+
+    private static @Nullable String getString(
+            final @NonNull JsonObject entry,
+            final @NonNull String key
+    ) {
+        final JsonElement value = entry.get(key);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    /**
+     * Splits a shell command line into arguments, honouring single and
+     * double quotes, as well as backslash escapes, as a POSIX shell does:
+     * within double quotes, a backslash only escapes {@code $}, {@code `},
+     * {@code "} and {@code \}, and is otherwise kept
+     * (e.g.: in {@code "-IC:\src"}).
+     */
+    static @NonNull List<@NonNull String> splitCommandLine(final @NonNull String command) {
+        final List<String> arguments = new ArrayList<>();
+        final StringBuilder argument = new StringBuilder();
+        boolean inArgument = false;
+        char quote = 0;
+
+        for (int index = 0; index < command.length(); index++) {
+            final char c = command.charAt(index);
+
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    argument.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else if (c == '\\'
+                           && index + 1 < command.length()
+                           && ESCAPABLE_IN_DOUBLE_QUOTES.indexOf(command.charAt(index + 1)) != -1) {
+                    argument.append(command.charAt(++index));
+                } else {
+                    argument.append(c);
+                }
+            } else if (c == '\\' && index + 1 < command.length()) {
+                argument.append(command.charAt(++index));
+                inArgument = true;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inArgument = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArgument) {
+                    arguments.add(argument.toString());
+                    argument.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                argument.append(c);
+                inArgument = true;
+            }
+        }
+
+        if (inArgument) {
+            arguments.add(argument.toString());
+        }
+
+        return arguments;
+    }
+}
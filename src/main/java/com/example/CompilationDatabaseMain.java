@@ -0,0 +1,156 @@
+package com.example;
+
+import com.example.clang.CursorFilter;
+import com.example.clang.Metrics;
+import com.example.overflowdb.AstChildEdge;
+import com.example.overflowdb.AstGraphBuilder;
+import com.example.overflowdb.AstGraphIndex;
+import com.example.overflowdb.AstGraphLoader;
+import com.example.overflowdb.AstNextSiblingEdge;
+import com.example.overflowdb.AstNodeRef;
+import com.example.overflowdb.AstReferenceEdge;
+import com.example.overflowdb.ProjectGraph;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import overflowdb.Config;
+import overflowdb.Graph;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.Files.deleteIfExists;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_None;
+
+/**
+ * Parses all translation units listed in a {@code compile_commands.json}
+ * in parallel, and reports the aggregate throughput.
+ *
+ * <p>
+ * Optionally, all the translation units are loaded into a single graph, with
+ * the declarations shared between them (e.g.: those in the project headers)
+ * stored once (see {@link ProjectGraph}).
+ * </p>
+ *
+ * @see CompilationDatabase
+ * @see ParallelParser
+ */
+public final class CompilationDatabaseMain {
+    private CompilationDatabaseMain() {
+        assert false;
+    }
+
+    public static void main(final @NonNull String args @NonNull[]) throws IOException, InterruptedException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        @Nullable String pchCacheArg = null;
+        @Nullable String graphArg = null;
+        @Nullable String metricsArg = null;
+        @Nullable String compileCommandsArg = null;
+        boolean usage = false;
+        for (int index = 0; index < args.length && !usage; index++) {
+            final String arg = args[index];
+            if (arg.equals("--jobs") && index + 1 < args.length) {
+                jobs = Integer.parseInt(args[++index]);
+            } else if (arg.equals("--pch-cache") && index + 1 < args.length) {
+                pchCacheArg = args[++index];
+            } else if (arg.equals("--graph") && index + 1 < args.length) {
+                graphArg = args[++index];
+            } else if (arg.equals("--metrics") && index + 1 < args.length) {
+                metricsArg = args[++index];
+            } else if (compileCommandsArg == null && !arg.startsWith("-")) {
+                compileCommandsArg = arg;
+            } else {
+                usage = true;
+            }
+        }
+
+        if (usage || compileCommandsArg == null || jobs <= 0) {
+            System.err.printf("Usage: %s [--jobs N] [--pch-cache DIR] [--graph FILE] [--metrics FILE] [COMPILE_COMMANDS_JSON]%n", CompilationDatabaseMain.class.getName());
+            System.err.println();
+            System.err.println("\t--jobs N\tthe number of worker threads (defaults to the number of CPUs)");
+            System.err.println("\t--pch-cache DIR\tbuild and reuse precompiled headers for shared header prefixes in DIR");
+            System.err.println("\t--graph FILE\tload all translation units into a single graph stored in FILE, with shared declarations deduplicated by USR");
+            System.err.println("\t--metrics FILE\twrite the per-stage timers and counters to FILE, as JSON if it ends with .json, or else in the Prometheus text format");
+            return;
+        }
+
+        if (metricsArg != null) {
+            Metrics.getDefault().setEnabled(true);
+        }
+
+        final List<CompileCommand> commands = CompilationDatabase.read(Path.of(compileCommandsArg));
+        System.out.printf("Parsing %d translation unit(s) using %d thread(s)...%n", commands.size(), jobs);
+
+        final ParseStatistics statistics;
+        final ParallelParser.ArgumentsAdjuster argumentsAdjuster = pchCacheArg == null
+                                                                   ? (index, command) -> command.getArguments()
+                                                                   : new PrecompiledHeaderCache(Path.of(pchCacheArg));
+        try (final ParallelParser parser = new ParallelParser(jobs, CXTranslationUnit_None, argumentsAdjuster)) {
+            if (graphArg == null) {
+                statistics = parser.parseAll(commands, (command, translationUnit) -> {
+                    // empty
+                });
+            } else {
+                statistics = parseIntoGraph(parser, commands, Path.of(graphArg));
+            }
+        }
+
+        System.out.println(statistics);
+
+        if (metricsArg != null) {
+            Metrics.getDefault().write(Path.of(metricsArg));
+        }
+    }
+
+    private static @NonNull ParseStatistics parseIntoGraph(
+            final @NonNull ParallelParser parser,
+            final @NonNull List<@NonNull CompileCommand> commands,
+            final @NonNull Path graphStorage
+    ) throws IOException, InterruptedException {
+        deleteIfExists(graphStorage);
+        final Config config = Config.withDefaults().withStorageLocation(graphStorage);
+        final ParseStatistics statistics;
+        final AstGraphIndex graphIndex;
+        try (final Graph graph = Graph.open(
+                config,
+                List.of(AstNodeRef.FACTORY),
+                List.of(AstChildEdge.FACTORY, AstNextSiblingEdge.FACTORY, AstReferenceEdge.FACTORY)
+        )) {
+            final ProjectGraph project = new ProjectGraph(graph);
+            statistics = parser.parseAll(commands, (command, translationUnit) -> {
+                /*
+                 * Parse in parallel, but add to the graph one translation
+                 * unit at a time.
+                 */
+                synchronized (project) {
+                    final AstGraphBuilder builder = project.newBuilder(command.getFile().toString());
+                    try (final FlatAstVisitor visitor = new FlatAstVisitor(CursorFilter.NON_SYSTEM)) {
+                        visitor.visit(translationUnit.getCursor(), builder, null);
+                    }
+                    builder.flush();
+                }
+            });
+            project.resolveReferences();
+
+            final AstGraphLoader loader = project.getLoader();
+            System.out.printf(
+                    "Loaded %d nodes and %d edges in %d ms, skipping %d duplicate declaration(s); %d reference(s) resolved, %d unresolved%n",
+                    loader.getNodeCount(),
+                    loader.getEdgeCount() + project.getReferenceEdgeCount(),
+                    NANOSECONDS.toMillis(loader.getElapsedNanos()),
+                    project.getSkippedDeclarationCount(),
+                    project.getReferenceEdgeCount(),
+                    project.getUnresolvedReferenceCount()
+            );
+
+            graphIndex = project.getIndex();
+        }
+
+        /*
+         * Only once the graph is closed, so that the storage is complete.
+         */
+        graphIndex.write(Path.of(graphStorage + ".index"), graphStorage);
+        return statistics;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static java.lang.String.format;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * A single entry of a
+ * <a href="https://clang.llvm.org/docs/JSONCompilationDatabase.html">JSON Compilation Database</a>,
+ * with the compiler arguments adjusted for {@code clang_parseTranslationUnit2()}.
+ *
+ * @see CompilationDatabase
+ */
+public final class CompileCommand {
+    /**
+     * Dependency file generation options which take a separate argument.
+     */
+    private static final Set<String> DEPENDENCY_OPTIONS_WITH_ARGUMENT = Set.of("-MF", "-MT", "-MQ");
+
+    /**
+     * Dependency file generation options which take no argument.
+     */
+    private static final Set<String> DEPENDENCY_OPTIONS = Set.of("-M", "-MM", "-MD", "-MMD", "-MG", "-MP");
+
+    /**
+     * Options which start with {@code -o}, but aren't the joined form of
+     * {@code -o <file>}.
+     */
+    private static final List<String> OPTION_PREFIXES_STARTING_WITH_O = List.of("-objcmt-", "-object");
+
+    private final @NonNull Path directory;
+
+    private final @NonNull Path file;
+
+    private final @NonNull List<@NonNull String> arguments;
+
+    /**
+     * @param directory the working directory of the compilation.
+     * @param file the main translation unit source, relative to
+     *             {@code directory} unless absolute.
+     * @param compilerArguments the full compiler command line, starting with
+     *                          the compiler executable.
+     */
+    public CompileCommand(
+            final @NonNull Path directory,
+            final @NonNull Path file,
+            final @NonNull List<@NonNull String> compilerArguments
+    ) {
+        this.directory = directory;
+        this.file = directory.resolve(file).normalize();
+        this.arguments = unmodifiableList(toLibclangArguments(this.directory, this.file, compilerArguments));
+    }
+
+    public @NonNull Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the absolute path of the main translation unit source.
+     */
+    public @NonNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the compiler arguments suitable for
+     *   {@code clang_parseTranslationUnit2()}: without the compiler
+     *   executable, the source file, and any output options, but with the
+     *   working directory set to {@link #getDirectory()}.
+     */
+    public @NonNull List<@NonNull String> getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return format("{directory: \"%s\", file: \"%s\", arguments: %s}", directory, file, arguments);
+    }
+
+    private static @NonNull List<@NonNull String> toLibclangArguments(
+            final @NonNull Path directory,
+            final @NonNull Path file,
+            final @NonNull List<@NonNull String> compilerArguments
+    ) {
+        final List<String> arguments = new ArrayList<>(compilerArguments.size());
+
+        /*
+         * Relative include paths are resolved against the working directory
+         * of the compilation, not that of this process.
+         */
+        arguments.add("-working-directory=" + directory);
+
+        /*
+         * Skip the compiler executable.
+         */
+        for (int index = 1; index < compilerArguments.size(); index++) {
+            final String argument = compilerArguments.get(index);
+
+            if (argument.equals("-o") || DEPENDENCY_OPTIONS_WITH_ARGUMENT.contains(argument)) {
+                index++;
+                continue;
+            }
+
+            if (argument.equals("-c")
+                || isJoinedOutputOption(argument)
+                || DEPENDENCY_OPTIONS.contains(argument)
+                || isSourceFile(directory, file, argument)) {
+                continue;
+            }
+
+            arguments.add(argument);
+        }
+
+        return arguments;
+    }
+
+    /**
+     * @return {@code true} if the {@code argument} is {@code -o<file>}.
+     */
+    private static boolean isJoinedOutputOption(final @NonNull String argument) {
+        return argument.startsWith("-o")
+               && argument.length() > 2
+               && OPTION_PREFIXES_STARTING_WITH_O.stream().noneMatch(argument::startsWith);
+    }
+
+    private static boolean isSourceFile(
+            final @NonNull Path directory,
+            final @NonNull Path file,
+            final @NonNull String argument
+    ) {
+        return !argument.startsWith("-") && directory.resolve(argument).normalize().equals(file);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example;
+
+import org.bytedeco.llvm.clang.CXString;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import java.io.Serial;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.lang.String.format;
+import static org.bytedeco.llvm.global.clang.clang_getCursorKindSpelling;
+import static org.bytedeco.llvm.global.clang.clang_isAttribute;
+import static org.bytedeco.llvm.global.clang.clang_isDeclaration;
+import static org.bytedeco.llvm.global.clang.clang_isExpression;
+import static org.bytedeco.llvm.global.clang.clang_isInvalid;
+import static org.bytedeco.llvm.global.clang.clang_isPreprocessing;
+import static org.bytedeco.llvm.global.clang.clang_isReference;
+import static org.bytedeco.llvm.global.clang.clang_isStatement;
+import static org.bytedeco.llvm.global.clang.clang_isTranslationUnit;
+import static org.bytedeco.llvm.global.clang.clang_isUnexposed;
+
+/**
+ * The kind of cursor, along with its spelling and category, queried from
+ * <em>libclang</em> once per {@code CXCursorKind} rather than once per
+ * cursor.
+ *
+ * <p>
+ * Instances are canonical (there's a single one per {@code CXCursorKind},
+ * see {@link #of(int)}), immutable and thread-safe.
+ * </p>
+ *
+ * @see TokenKind
+ */
+public final class CursorKind implements AstNodeKind {
+    @Serial
+    private static final long serialVersionUID = -3129735081740346511L;
+
+    /**
+     * Large enough for any {@code CXCursorKind} known to <em>libclang</em> 15.
+     */
+    private static final AtomicReferenceArray<@Nullable CursorKind> KINDS = new AtomicReferenceArray<>(1024);
+
+    /**
+     * @serial include
+     */
+    private final int value;
+
+    /**
+     * @serial include
+     */
+    private final @NonNull String spelling;
+
+    /**
+     * @serial include
+     */
+    private final @NonNull String category;
+
+    private CursorKind(final int value) {
+        this.value = value;
+        try (final CXString spelling = clang_getCursorKindSpelling(value)) {
+            this.spelling = spelling.getString();
+        }
+        category = category(value);
+    }
+
+    /**
+     * @param value the {@code CXCursorKind} value.
+     * @return the canonical instance for {@code value}.
+     */
+    public static @NonNull CursorKind of(final int value) {
+        if (value < 0 || value >= KINDS.length()) {
+            return new CursorKind(value);
+        }
+
+        final CursorKind kind = KINDS.get(value);
+        if (kind != null) {
+            return kind;
+        }
+
+        /*
+         * Racing threads may both query libclang, but only the first
+         * instance is ever handed out.
+         */
+        final CursorKind newKind = new CursorKind(value);
+        return KINDS.compareAndSet(value, null, newKind) ? newKind : KINDS.get(value);
+    }
+
+    /**
+     * @return the {@code CXCursorKind} value.
+     */
+    @Contract(pure = true)
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the spelling, e.g.: {@code FunctionDecl}.
+     */
+    @Contract(pure = true)
+    public @NonNull String getSpelling() {
+        return spelling;
+    }
+
+    /**
+     * @return the category, e.g.: {@code Declaration} or {@code Expression}.
+     */
+    @Contract(pure = true)
+    public @NonNull String getCategory() {
+        return category;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object obj) {
+        return this == obj
+               || obj instanceof final CursorKind that
+                  && value == that.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return format("%s(%s)", getClass().getSimpleName(), spelling);
+    }
+
+    @Serial
+    private @NonNull Object readResolve() {
+        return value >= 0 && value < KINDS.length() ? of(value) : this;
+    }
+
+    private static @NonNull String category(final int value) {
+        if (clang_isAttribute(value) == 1) {
+            return "Attribute";
+        } else if (clang_isDeclaration(value) == 1) {
+            return "Declaration";
+        } else if (clang_isExpression(value) == 1) {
+            return "Expression";
+        } else if (clang_isInvalid(value) == 1) {
+            return "Invalid";
+        } else if (clang_isPreprocessing(value) == 1) {
+            return "Preprocessing";
+        } else if (clang_isReference(value) == 1) {
+            return "Reference";
+        } else if (clang_isStatement(value) == 1) {
+            return "Statement";
+        } else if (clang_isTranslationUnit(value) == 1) {
+            return "TranslationUnit";
+        } else if (clang_isUnexposed(value) == 1) {
+            return "Unexposed";
+        }
+        return "Unknown";
+    }
+}
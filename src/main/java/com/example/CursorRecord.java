@@ -0,0 +1,179 @@
+package com.example;
+
+import com.example.clang.SourceLocation;
+import com.example.clang.SourceRange;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXFile;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import static org.bytedeco.llvm.global.clang.CXLinkage_External;
+import static org.bytedeco.llvm.global.clang.CXLinkage_Internal;
+import static org.bytedeco.llvm.global.clang.CXLinkage_Invalid;
+import static org.bytedeco.llvm.global.clang.CXLinkage_NoLinkage;
+import static org.bytedeco.llvm.global.clang.CXLinkage_UniqueExternal;
+import static org.bytedeco.llvm.global.clang.clang_getCursorKind;
+import static org.bytedeco.llvm.global.clang.clang_getCursorLexicalParent;
+import static org.bytedeco.llvm.global.clang.clang_getCursorLinkage;
+import static org.bytedeco.llvm.global.clang.clang_getCursorSemanticParent;
+import static org.bytedeco.llvm.global.clang.clang_getCursorSpelling;
+import static org.bytedeco.llvm.global.clang.clang_getCursorUSR;
+import static org.bytedeco.llvm.global.clang.clang_getFileName;
+import static org.bytedeco.llvm.global.clang.clang_getIncludedFile;
+
+/**
+ * A visited cursor, as handed to a {@link DiagnosticSink}.
+ *
+ * <p>
+ * Only the cursor type and the depth are known upfront; everything else
+ * (the location, the USR, the parent spellings, etc.) is queried from
+ * <em>libclang</em> on demand, so that a sink pays only for what it reads.
+ * </p>
+ *
+ * <p>
+ * A record is only valid within the {@link DiagnosticSink#accept(CursorRecord)}
+ * call it's passed to (the cursors are owned by the visitor), and should not
+ * be retained.
+ * </p>
+ */
+public final class CursorRecord {
+    private final @NonNull CXCursor cursor;
+
+    private final @NonNull CXCursor parent;
+
+    private final int depth;
+
+    private final @NonNull String type;
+
+    CursorRecord(
+            final @NonNull CXCursor cursor,
+            final @NonNull CXCursor parent,
+            final int depth,
+            final @NonNull String type
+    ) {
+        this.cursor = cursor;
+        this.parent = parent;
+        this.depth = depth;
+        this.type = type;
+    }
+
+    /**
+     * @return the cursor itself.
+     */
+    @Contract(pure = true)
+    public @NonNull CXCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the parent cursor, as passed to the visitor.
+     */
+    @Contract(pure = true)
+    public @NonNull CXCursor getParent() {
+        return parent;
+    }
+
+    /**
+     * @return the depth of the AST node which corresponds to the cursor.
+     */
+    @Contract(pure = true)
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the cursor type, see {@link AstVisitorUtils#getType(CXCursor)}.
+     */
+    @Contract(pure = true)
+    public @NonNull String getType() {
+        return type;
+    }
+
+    /**
+     * @return the location of the cursor, in the format of
+     *   {@link SourceLocation#toString()}.
+     */
+    public @NonNull String getLocation() {
+        try (final SourceLocation location = new SourceLocation(cursor)) {
+            return location.toString();
+        }
+    }
+
+    public @NonNull CursorKind getKind() {
+        return CursorKind.of(clang_getCursorKind(cursor));
+    }
+
+    /**
+     * @return the spelling of the cursor (e.g.: the name of the declared
+     *   entity), possibly empty.
+     */
+    public @NonNull String getSpelling() {
+        return clang_getCursorSpelling(cursor).getString();
+    }
+
+    /**
+     * @return the fragment of the source file which the cursor spans.
+     */
+    public @NonNull String getText() {
+        try (final SourceRange range = new SourceRange(cursor)) {
+            return range.getText();
+        }
+    }
+
+    /**
+     * @return the Unified Symbol Resolution of the entity the cursor refers
+     *   to, possibly empty.
+     */
+    public @NonNull String getUsr() {
+        return clang_getCursorUSR(cursor).getString();
+    }
+
+    /**
+     * @return the linkage, e.g.: {@code External}.
+     */
+    public @NonNull String getLinkage() {
+        return switch (clang_getCursorLinkage(cursor)) {
+            case CXLinkage_Invalid -> "Invalid";
+            case CXLinkage_NoLinkage -> "NoLinkage";
+            case CXLinkage_Internal -> "Internal";
+            case CXLinkage_UniqueExternal -> "UniqueExternal";
+            case CXLinkage_External -> "External";
+            default -> "Unknown";
+        };
+    }
+
+    /**
+     * @return the spelling of the {@linkplain #getParent() parent cursor},
+     *   possibly empty.
+     */
+    public @NonNull String getParentSpelling() {
+        return clang_getCursorSpelling(parent).getString();
+    }
+
+    /**
+     * @return the spelling of the semantic parent, possibly empty.
+     */
+    public @NonNull String getSemanticParentSpelling() {
+        return clang_getCursorSpelling(clang_getCursorSemanticParent(cursor)).getString();
+    }
+
+    /**
+     * @return the spelling of the lexical parent, possibly empty.
+     */
+    public @NonNull String getLexicalParentSpelling() {
+        return clang_getCursorSpelling(clang_getCursorLexicalParent(cursor)).getString();
+    }
+
+    /**
+     * @return the name of the file included by an inclusion directive,
+     *   or {@code null} if the cursor is not an inclusion directive.
+     */
+    public @Nullable String getIncludedFile() {
+        final @Nullable CXFile included = clang_getIncludedFile(cursor);
+        if (included == null) {
+            return null;
+        }
+        return clang_getFileName(included).getString();
+    }
+}
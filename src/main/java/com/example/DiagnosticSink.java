@@ -0,0 +1,35 @@
+package com.example;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Receives the diagnostic information about each cursor visited by
+ * {@link AstVisitor} or {@link FlatAstVisitor}.
+ *
+ * <p>
+ * Visitors check for {@link #NONE} before doing any diagnostic work, so a
+ * disabled sink costs nothing: not even a {@link CursorRecord} allocation.
+ * </p>
+ *
+ * <p>
+ * A sink shared by several visitors (e.g.: parsing on multiple threads)
+ * should be thread-safe.
+ * </p>
+ *
+ * @see TextDiagnosticSink
+ */
+@FunctionalInterface
+public interface DiagnosticSink {
+    /**
+     * The disabled sink, which is the default one.
+     */
+    DiagnosticSink NONE = record -> {
+    };
+
+    /**
+     * Invoked for each visited cursor, before its children are visited.
+     *
+     * @param record the cursor, valid only within this call.
+     */
+    void accept(final @NonNull CursorRecord record);
+}
@@ -0,0 +1,285 @@
+package com.example;
+
+import com.example.clang.ChildVisitResult;
+import com.example.clang.CursorFilter;
+import com.example.clang.CursorStack;
+import com.example.clang.CursorVisitor;
+import com.example.clang.Metrics;
+import com.example.clang.NativeArena;
+import com.example.clang.TokenIndex;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Arrays;
+
+import static com.example.AstVisitorUtils.addTokens;
+import static com.example.AstVisitorUtils.getType;
+import static com.example.clang.ChildVisitResult.CONTINUE;
+import static com.example.clang.ChildVisitResult.RECURSE;
+import static com.example.clang.Utils.check;
+
+/**
+ * Builds the same tree of {@link AstNode}s as {@link AstVisitor} (or any
+ * other AST representation, see {@link AstBuilder}), but with a single call
+ * to {@code clang_visitChildren()}.
+ *
+ * <p>
+ * Instead of visiting the children of each cursor explicitly (which results
+ * in a native down-call and up-call per nesting level, and may overflow the
+ * thread stack for deeply nested code), this visitor returns
+ * {@link ChildVisitResult#RECURSE} and tracks the parent/child structure on
+ * the JVM side, with an explicit stack of the cursors which are currently
+ * being visited. Each visited cursor is matched against its
+ * {@code parent} argument, and the stack is unwound until its top is the
+ * parent.
+ * </p>
+ *
+ * <p>
+ * Note that <em>Clang</em> itself parses recursively, so translation units
+ * with tens of thousands of nesting levels should be parsed on a thread with
+ * a large stack, with the {@code LIBCLANG_NOTHREADS} environment variable set
+ * (otherwise, <em>libclang</em> parses on its own thread with a fixed 8 MiB
+ * stack).
+ * </p>
+ *
+ * <p>
+ * The native memory allocated during a traversal (e.g.: the source ranges of
+ * the cursors) belongs to a {@link NativeArena}, and is freed as soon as the
+ * cursor (or, failing that, the traversal) is over.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe and may not be re-entered, but can be reused
+ * for multiple sequential traversals. Closing the visitor releases the native
+ * memory of its cursor stack.
+ * </p>
+ *
+ * @see AstVisitor
+ */
+public final class FlatAstVisitor implements CursorVisitor<Integer>, AutoCloseable {
+    /**
+     * The cursors being visited, the bottom one being the root cursor.
+     */
+    private final @NonNull CursorStack cursors = new CursorStack();
+
+    /**
+     * The handles of the AST nodes which correspond to {@link #cursors},
+     * element by element.
+     */
+    private int nodes[] = new int[64];
+
+    private final @NonNull CursorFilter filter;
+
+    private final @NonNull DiagnosticSink diagnostics;
+
+    /**
+     * The builder for the current traversal.
+     */
+    private @Nullable AstBuilder builder;
+
+    /**
+     * The depth of the root node for the current traversal.
+     */
+    private int rootDepth;
+
+    /**
+     * The tokens of the main file for the current traversal, if any.
+     */
+    private @Nullable TokenIndex tokenIndex;
+
+    public FlatAstVisitor() {
+        this(CursorFilter.MAIN_FILE);
+    }
+
+    /**
+     * @param filter the filter which prunes the subtrees not to be visited
+     *               before any per-cursor work is done.
+     */
+    public FlatAstVisitor(final @NonNull CursorFilter filter) {
+        this(filter, DiagnosticSink.NONE);
+    }
+
+    /**
+     * @param filter the filter which prunes the subtrees not to be visited
+     *               before any per-cursor work is done.
+     * @param diagnostics the sink for the visited cursors, or
+     *                    {@link DiagnosticSink#NONE}.
+     */
+    public FlatAstVisitor(
+            final @NonNull CursorFilter filter,
+            final @NonNull DiagnosticSink diagnostics
+    ) {
+        this.filter = filter;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Visits the whole subtree of {@code rootCursor}, adding the new AST nodes
+     * to {@code rootNode}.
+     *
+     * @return {@code true} if the traversal was terminated prematurely.
+     * @see #visit(CXCursor, AstNode, TokenIndex)
+     */
+    public boolean visit(
+            final @NonNull CXCursor rootCursor,
+            final @NonNull AstNode rootNode
+    ) {
+        return visit(rootCursor, rootNode, null);
+    }
+
+    /**
+     * Visits the whole subtree of {@code rootCursor}, adding the new AST nodes
+     * to {@code rootNode}.
+     *
+     * @param tokenIndex the tokens of the whole main file, or {@code null}
+     *                   if each leaf cursor should be tokenized separately.
+     * @return {@code true} if the traversal was terminated prematurely.
+     * @see #visit(CXCursor, AstNode)
+     */
+    public boolean visit(
+            final @NonNull CXCursor rootCursor,
+            final @NonNull AstNode rootNode,
+            final @Nullable TokenIndex tokenIndex
+    ) {
+        return visit(rootCursor, new AstNodeBuilder(rootNode), rootNode.getDepth(), tokenIndex);
+    }
+
+    /**
+     * Visits the whole subtree of {@code rootCursor}, adding the new AST nodes
+     * to the root node of the {@code builder}.
+     *
+     * @param tokenIndex the tokens of the whole main file, or {@code null}
+     *                   if each leaf cursor should be tokenized separately.
+     * @return {@code true} if the traversal was terminated prematurely.
+     * @see #visit(CXCursor, AstNode, TokenIndex)
+     */
+    public boolean visit(
+            final @NonNull CXCursor rootCursor,
+            final @NonNull AstBuilder builder,
+            final @Nullable TokenIndex tokenIndex
+    ) {
+        return visit(rootCursor, builder, 0, tokenIndex);
+    }
+
+    @SuppressWarnings("try")
+    private boolean visit(
+            final @NonNull CXCursor rootCursor,
+            final @NonNull AstBuilder builder,
+            final int rootDepth,
+            final @Nullable TokenIndex tokenIndex
+    ) {
+        check(cursors.isEmpty(), () -> "Already visiting");
+
+        this.builder = builder;
+        this.rootDepth = rootDepth;
+        this.tokenIndex = tokenIndex;
+        final int root = builder.getRoot();
+        cursors.push(rootCursor);
+        nodes[0] = root;
+        final long start = Metrics.getDefault().start();
+        try (final NativeArena ignored = new NativeArena()) {
+            final boolean interrupted = visitChildren(rootCursor, root);
+
+            /*
+             * Leave the right-most path of the tree.
+             */
+            while (cursors.size() > 1) {
+                leave();
+            }
+
+            return interrupted;
+        } finally {
+            while (!cursors.isEmpty()) {
+                cursors.pop();
+            }
+            this.builder = null;
+            this.tokenIndex = null;
+            Metrics.getDefault().stop(Metrics.Stage.VISIT, start);
+        }
+    }
+
+    /**
+     * Visits a single cursor, within an arena of its own (nested in the one
+     * of the traversal), so that the native memory held at any time is that
+     * of a single cursor rather than that of the whole translation unit.
+     */
+    @Override
+    @SuppressWarnings("try")
+    public @NonNull ChildVisitResult call(
+            final @NonNull CXCursor cursor,
+            final @NonNull CXCursor parentCursor,
+            final @NonNull Integer root
+    ) {
+        try (final NativeArena ignored = new NativeArena()) {
+            return visitCursor(cursor, parentCursor);
+        }
+    }
+
+    private @NonNull ChildVisitResult visitCursor(
+            final @NonNull CXCursor cursor,
+            final @NonNull CXCursor parentCursor
+    ) {
+        /*
+         * Unwind the stack until the parent of the current cursor is on top.
+         * The root cursor is never popped.
+         */
+        while (cursors.size() > 1 && !cursors.isOnTop(parentCursor)) {
+            leave();
+        }
+
+        Metrics.getDefault().increment(Metrics.Counter.CURSORS_VISITED);
+        if (!filter.accept(cursor)) {
+            /*
+             * System include files.
+             * Skip the whole subtree.
+             */
+            Metrics.getDefault().increment(Metrics.Counter.CURSORS_SKIPPED);
+            return CONTINUE;
+        }
+
+        final AstBuilder builder = this.builder;
+        assert builder != null;
+
+        final int depth = (int) cursors.size();
+        final int parentNode = nodes[depth - 1];
+
+        final String cursorType = getType(cursor);
+        if (diagnostics != DiagnosticSink.NONE) {
+            diagnostics.accept(new CursorRecord(cursor, parentCursor, rootDepth + depth, cursorType));
+        }
+
+        final int childNode = builder.addNode(parentNode, cursorType, cursor);
+        if (childNode == AstBuilder.SKIP) {
+            return CONTINUE;
+        }
+
+        cursors.push(cursor);
+        if (depth == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * depth);
+        }
+        nodes[depth] = childNode;
+
+        return RECURSE;
+    }
+
+    /**
+     * Pops the top cursor off the stack, adding tokens to its AST node if
+     * it turns out to be a leaf.
+     */
+    private void leave() {
+        final AstBuilder builder = this.builder;
+        assert builder != null;
+
+        final int node = nodes[(int) cursors.size() - 1];
+        if (builder.isLeaf(node)) {
+            addTokens(builder, node, cursors.peek(), tokenIndex);
+        }
+        cursors.pop();
+    }
+
+    @Override
+    public void close() {
+        cursors.close();
+    }
+}
@@ -0,0 +1,221 @@
+package com.example;
+
+import com.example.clang.Index;
+import com.example.clang.TranslationUnit;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.example.clang.Utils.require;
+import static java.nio.file.Files.size;
+import static java.util.concurrent.TimeUnit.DAYS;
+
+/**
+ * Parses translation units in parallel on a fixed pool of worker threads.
+ *
+ * <p>
+ * Each worker thread uses its own {@link Index}, as an index is not
+ * thread-safe. All indices are disposed of when this parser is closed.
+ * </p>
+ */
+public final class ParallelParser implements AutoCloseable {
+    private final @NonNull ExecutorService executor;
+
+    private final int options;
+
+    private final @NonNull ArgumentsAdjuster argumentsAdjuster;
+
+    /**
+     * All per-thread indices ever created, so that they can be disposed of.
+     */
+    private final @NonNull Queue<@NonNull Index> indices = new ConcurrentLinkedQueue<>();
+
+    private final @NonNull ThreadLocal<@NonNull Index> index = ThreadLocal.withInitial(() -> {
+        final Index newIndex = new Index();
+        indices.add(newIndex);
+        return newIndex;
+    });
+
+    /**
+     * @param threadCount the number of worker threads.
+     * @param options the bitwise <em>OR</em> of the
+     *                {@code CXTranslationUnit_*} flags, passed to each call
+     *                to {@code clang_parseTranslationUnit2()}.
+     */
+    public ParallelParser(final int threadCount, final int options) {
+        this(threadCount, options, (index, command) -> command.getArguments());
+    }
+
+    /**
+     * @param threadCount the number of worker threads.
+     * @param options the bitwise <em>OR</em> of the
+     *                {@code CXTranslationUnit_*} flags, passed to each call
+     *                to {@code clang_parseTranslationUnit2()}.
+     * @param argumentsAdjuster supplies the actual compiler arguments for
+     *                          each command, invoked concurrently from the
+     *                          worker threads.
+     */
+    public ParallelParser(
+            final int threadCount,
+            final int options,
+            final @NonNull ArgumentsAdjuster argumentsAdjuster
+    ) {
+        require(threadCount > 0, () -> "Thread count should be positive: " + threadCount);
+
+        this.executor = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory());
+        this.options = options;
+        this.argumentsAdjuster = argumentsAdjuster;
+    }
+
+    /**
+     * Parses each of the {@code commands}, passing the parsed translation
+     * unit to the {@code consumer}, and blocks until all the translation units
+     * have been processed.
+     *
+     * <p>
+     * Translation units which fail to parse (or which the {@code consumer}
+     * fails to process) are reported to {@link System#err} and counted as
+     * failed.
+     * </p>
+     *
+     * @param consumer invoked concurrently from the worker threads; the
+     *                 translation unit is disposed of once it returns.
+     * @return the aggregate throughput.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public @NonNull ParseStatistics parseAll(
+            final @NonNull List<@NonNull CompileCommand> commands,
+            final @NonNull TranslationUnitConsumer consumer
+    ) throws InterruptedException {
+        final LongAdder translationUnits = new LongAdder();
+        final LongAdder failedTranslationUnits = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        final List<Callable<Void>> tasks = new ArrayList<>(commands.size());
+        for (final CompileCommand command : commands) {
+            tasks.add(() -> {
+                final Index threadIndex = index.get();
+                try (final TranslationUnit translationUnit = TranslationUnit.parse(
+                        threadIndex,
+                        command.getFile(),
+                        argumentsAdjuster.adjust(threadIndex, command),
+                        options
+                )) {
+                    consumer.accept(command, translationUnit);
+                    bytes.add(size(command.getFile()));
+                    translationUnits.increment();
+                } catch (final IOException ioe) {
+                    failed(command, new UncheckedIOException(ioe), failedTranslationUnits);
+                } catch (final RuntimeException re) {
+                    failed(command, re, failedTranslationUnits);
+                }
+                return null;
+            });
+        }
+
+        final long start = System.nanoTime();
+        executor.invokeAll(tasks);
+        final long elapsedNanos = System.nanoTime() - start;
+
+        return new ParseStatistics(
+                translationUnits.sum(),
+                failedTranslationUnits.sum(),
+                bytes.sum(),
+                elapsedNanos
+        );
+    }
+
+    private static void failed(
+            final @NonNull CompileCommand command,
+            final @NonNull RuntimeException cause,
+            final @NonNull LongAdder failedTranslationUnits
+    ) {
+        failedTranslationUnits.increment();
+        System.err.printf("Failed to process %s: %s%n", command.getFile(), cause);
+    }
+
+    /**
+     * Shuts the worker threads down and disposes of their indices.
+     *
+     * <p>
+     * The indices can't be disposed of while still in use, so an interrupt
+     * doesn't cut the wait for the worker threads short: the interrupt
+     * status of the calling thread is restored once they've terminated.
+     * </p>
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, DAYS);
+                break;
+            } catch (final InterruptedException ignored) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        Index indexOrNull;
+        while ((indexOrNull = indices.poll()) != null) {
+            indexOrNull.close();
+        }
+    }
+
+    /**
+     * Processes a successfully parsed translation unit.
+     */
+    @FunctionalInterface
+    public interface TranslationUnitConsumer {
+        /**
+         * @throws IOException if an I/O error occurs.
+         */
+        void accept(
+                final @NonNull CompileCommand command,
+                final @NonNull TranslationUnit translationUnit
+        ) throws IOException;
+    }
+
+    /**
+     * Supplies the actual compiler arguments for a command.
+     *
+     * @see PrecompiledHeaderCache
+     */
+    @FunctionalInterface
+    public interface ArgumentsAdjuster {
+        /**
+         * @param index the index of the current worker thread.
+         * @return the compiler arguments to parse the {@code command} with.
+         * @throws IOException if an I/O error occurs.
+         */
+        @NonNull List<@NonNull String> adjust(
+                final @NonNull Index index,
+                final @NonNull CompileCommand command
+        ) throws IOException;
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final @NonNull AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public @NonNull Thread newThread(final @NonNull Runnable task) {
+            final Thread thread = new Thread(task, "parser-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.jetbrains.annotations.Contract;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * The aggregate throughput of a batch of translation units.
+ *
+ * @see ParallelParser
+ */
+public final class ParseStatistics {
+    private final long translationUnits;
+
+    private final long failedTranslationUnits;
+
+    private final long bytes;
+
+    private final long elapsedNanos;
+
+    public ParseStatistics(
+            final long translationUnits,
+            final long failedTranslationUnits,
+            final long bytes,
+            final long elapsedNanos
+    ) {
+        this.translationUnits = translationUnits;
+        this.failedTranslationUnits = failedTranslationUnits;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the number of successfully parsed translation units.
+     */
+    @Contract(pure = true)
+    public long getTranslationUnits() {
+        return translationUnits;
+    }
+
+    @Contract(pure = true)
+    public long getFailedTranslationUnits() {
+        return failedTranslationUnits;
+    }
+
+    /**
+     * @return the total size of the successfully parsed main source files,
+     *   in bytes.
+     */
+    @Contract(pure = true)
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Contract(pure = true)
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Contract(pure = true)
+    public double getTranslationUnitsPerSecond() {
+        return perSecond(translationUnits);
+    }
+
+    @Contract(pure = true)
+    public double getBytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    private double perSecond(final long count) {
+        return elapsedNanos == 0L
+               ? 0.0
+               : (double) count * NANOSECONDS.convert(1L, SECONDS) / elapsedNanos;
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return format(
+                "%d translation unit(s) (%d failed), %d byte(s) in %.3f s: %.1f TU/s, %.1f KiB/s",
+                translationUnits,
+                failedTranslationUnits,
+                bytes,
+                elapsedNanos / 1e9,
+                getTranslationUnitsPerSecond(),
+                getBytesPerSecond() / 1024.0
+        );
+    }
+}
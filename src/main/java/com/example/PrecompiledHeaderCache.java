@@ -0,0 +1,382 @@
+package com.example;
+
+import com.example.clang.Index;
+import com.example.clang.TranslationUnit;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.getLastModifiedTime;
+import static java.nio.file.Files.isRegularFile;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_ForSerialization;
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_Incomplete;
+import static org.bytedeco.llvm.global.clang.clang_getClangVersion;
+
+/**
+ * Builds and reuses precompiled headers for translation units which share the
+ * same header prefix.
+ *
+ * <p>
+ * The <em>header prefix</em> of a source file is the leading block of
+ * {@code #include} directives (comments and blank lines aside).
+ * A precompiled header is built once per distinct combination of the header
+ * prefix, the directory of the source file (which quoted includes are relative
+ * to), the compiler arguments and the <em>libclang</em> version, and
+ * subsequent translation units are parsed with {@code -include-pch}, so
+ * that the headers are not parsed again.
+ * </p>
+ *
+ * <p>
+ * Each precompiled header is accompanied by a manifest which lists the
+ * modification time, the size and the SHA-256 hash of every header it has
+ * been built from. A precompiled header is rebuilt whenever any of them
+ * changes. The validation (and, if needed, the build) happens at most once
+ * per cache entry per instance, whether it succeeds or not.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class PrecompiledHeaderCache implements ParallelParser.ArgumentsAdjuster {
+    private static final String MANIFEST_HEADER = "pch-manifest 1";
+
+    private final @NonNull Path directory;
+
+    /**
+     * Maps a cache key to the precompiled header. An entry which couldn't be
+     * built is kept (as a {@code null} result or a failure), so that it's not
+     * retried for every translation unit with the same header prefix, but
+     * only by the next instance.
+     */
+    private final @NonNull ConcurrentMap<@NonNull String, @NonNull FutureTask<@Nullable Path>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory the cache directory, created if necessary.
+     * @throws IOException if the cache directory can't be created.
+     */
+    public PrecompiledHeaderCache(final @NonNull Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * @return the arguments of the {@code command}, followed by
+     *   {@code -include-pch} and the path to the precompiled header, or the
+     *   unmodified arguments if the source file has no header prefix, or if
+     *   the precompiled header couldn't be built.
+     * @throws IOException if the source file can't be read.
+     */
+    @Override
+    public @NonNull List<@NonNull String> adjust(
+            final @NonNull Index index,
+            final @NonNull CompileCommand command
+    ) throws IOException {
+        final String headerPrefix = headerPrefix(command.getFile());
+        if (headerPrefix.isEmpty()) {
+            return command.getArguments();
+        }
+
+        final @Nullable Path precompiledHeader = getOrBuild(index, command, headerPrefix);
+        if (precompiledHeader == null) {
+            return command.getArguments();
+        }
+
+        final List<String> arguments = new ArrayList<>(command.getArguments().size() + 2);
+        arguments.addAll(command.getArguments());
+        arguments.add("-include-pch");
+        arguments.add(precompiledHeader.toString());
+        return arguments;
+    }
+
+    private @Nullable Path getOrBuild(
+            final @NonNull Index index,
+            final @NonNull CompileCommand command,
+            final @NonNull String headerPrefix
+    ) throws IOException {
+        final @Nullable Path sourceDirectory = command.getFile().getParent();
+        final String key = key(headerPrefix, sourceDirectory, command.getArguments());
+
+        /*
+         * Make sure each precompiled header is validated or built exactly once,
+         * without blocking the threads which need other ones.
+         */
+        final FutureTask<@Nullable Path> newEntry = new FutureTask<>(() -> validateOrBuild(index, command, headerPrefix, key));
+        final @Nullable FutureTask<@Nullable Path> existingEntry = entries.putIfAbsent(key, newEntry);
+        final FutureTask<@Nullable Path> entry;
+        if (existingEntry == null) {
+            entry = newEntry;
+            entry.run();
+        } else {
+            entry = existingEntry;
+        }
+
+        try {
+            return entry.get();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ie);
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private @Nullable Path validateOrBuild(
+            final @NonNull Index index,
+            final @NonNull CompileCommand command,
+            final @NonNull String headerPrefix,
+            final @NonNull String key
+    ) throws IOException {
+        final Path precompiledHeader = directory.resolve(key + ".pch");
+        final Path manifest = directory.resolve(key + ".manifest");
+
+        if (isRegularFile(precompiledHeader) && isValid(manifest, MANIFEST_HEADER)) {
+            return precompiledHeader;
+        }
+
+        final Path prefixHeader = directory.resolve(key + ".h");
+        Files.writeString(prefixHeader, headerPrefix, ISO_8859_1);
+
+        final List<String> arguments = new ArrayList<>(command.getArguments());
+        arguments.add("-x");
+        arguments.add(headerLanguage(command.getFile()));
+        final @Nullable Path sourceDirectory = command.getFile().getParent();
+        if (sourceDirectory != null) {
+            /*
+             * Quoted includes are relative to the source file, not to the
+             * generated prefix header.
+             */
+            arguments.add("-iquote");
+            arguments.add(sourceDirectory.toString());
+        }
+
+        final Path temporaryPrecompiledHeader = Files.createTempFile(directory, key, ".pch.tmp");
+        final Set<Path> inclusions;
+        try (final TranslationUnit translationUnit = TranslationUnit.parse(
+                index,
+                prefixHeader,
+                arguments,
+                CXTranslationUnit_ForSerialization | CXTranslationUnit_Incomplete
+        )) {
+            translationUnit.save(temporaryPrecompiledHeader);
+            inclusions = translationUnit.getInclusions();
+        } catch (final IOException | RuntimeException e) {
+            System.err.printf("Unable to build a precompiled header for %s: %s%n", command.getFile(), e);
+            Files.deleteIfExists(temporaryPrecompiledHeader);
+            return null;
+        }
+
+        /*
+         * Other processes may be sharing the same cache directory, so the
+         * manifest goes last: a stale manifest is removed before the old
+         * precompiled header is replaced, and a partial entry is never valid.
+         */
+        Files.deleteIfExists(manifest);
+        Files.move(temporaryPrecompiledHeader, precompiledHeader, ATOMIC_MOVE, REPLACE_EXISTING);
+        writeManifest(manifest, MANIFEST_HEADER, inclusions);
+        return precompiledHeader;
+    }
+
+    /**
+     * Lists the modification time, the size and the SHA-256 hash of each of
+     * the {@code headers}, after the {@code manifestHeader} line.
+     */
+    static void writeManifest(
+            final @NonNull Path manifest,
+            final @NonNull String manifestHeader,
+            final @NonNull Iterable<@NonNull Path> headers
+    ) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(manifestHeader);
+        for (final Path header : headers) {
+            lines.add(format(
+                    "%d %d %s %s",
+                    getLastModifiedTime(header).toMillis(),
+                    size(header),
+                    sha256(header),
+                    header
+            ));
+        }
+
+        final Path temporaryManifest = Files.createTempFile(manifest.getParent(), manifest.getFileName().toString(), ".tmp");
+        Files.write(temporaryManifest, lines, UTF_8);
+        Files.move(temporaryManifest, manifest, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * @return {@code true} if the manifest exists, starts with the
+     *   {@code manifestHeader} line, and none of the headers listed there
+     *   have changed since; {@code false} if the manifest is malformed, so
+     *   that it gets rebuilt.
+     * @see #writeManifest(Path, String, Iterable)
+     */
+    static boolean isValid(
+            final @NonNull Path manifest,
+            final @NonNull String manifestHeader
+    ) throws IOException {
+        if (!isRegularFile(manifest)) {
+            return false;
+        }
+
+        final List<String> lines = Files.readAllLines(manifest, UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(manifestHeader)) {
+            return false;
+        }
+
+        for (final String line : lines.subList(1, lines.size())) {
+            final String[] fields = line.split(" ", 4);
+            if (fields.length != 4) {
+                return false;
+            }
+
+            final long lastModifiedMillis;
+            final long headerSize;
+            final Path header;
+            try {
+                lastModifiedMillis = Long.parseLong(fields[0]);
+                headerSize = Long.parseLong(fields[1]);
+                header = Path.of(fields[3]);
+            } catch (final NumberFormatException | InvalidPathException ignored) {
+                return false;
+            }
+            if (!isRegularFile(header)
+                || getLastModifiedTime(header).toMillis() != lastModifiedMillis
+                || size(header) != headerSize
+                || !sha256(header).equals(fields[2])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the leading block of {@code #include} directives of the
+     *   {@code file}, or an empty string if there's none.
+     */
+    static @NonNull String headerPrefix(final @NonNull Path file) throws IOException {
+        final StringBuilder headerPrefix = new StringBuilder();
+
+        /*
+         * ISO-8859-1 never fails to decode, and the directives themselves are
+         * ASCII.
+         */
+        try (final BufferedReader reader = Files.newBufferedReader(file, ISO_8859_1)) {
+            boolean inComment = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+
+                if (inComment) {
+                    final int commentEnd = trimmed.indexOf("*/");
+                    if (commentEnd == -1) {
+                        continue;
+                    }
+                    inComment = false;
+                    trimmed = trimmed.substring(commentEnd + 2).trim();
+                }
+
+                if (trimmed.startsWith("/*")) {
+                    final int commentEnd = trimmed.indexOf("*/", 2);
+                    if (commentEnd == -1) {
+                        inComment = true;
+                        continue;
+                    }
+                    trimmed = trimmed.substring(commentEnd + 2).trim();
+                }
+
+                if (trimmed.isEmpty() || trimmed.startsWith("//")) {
+                    continue;
+                }
+
+                if (!trimmed.startsWith("#")) {
+                    break;
+                }
+
+                final String directive = trimmed.substring(1).trim();
+                if (directive.startsWith("include")) {
+                    headerPrefix.append(trimmed).append('\n');
+                } else if (!directive.equals("pragma once")) {
+                    break;
+                }
+            }
+        }
+
+        return headerPrefix.toString();
+    }
+
+    private static @NonNull String headerLanguage(final @NonNull Path file) {
+        final String fileName = file.getFileName().toString();
+        if (fileName.endsWith(".c")) {
+            return "c-header";
+        }
+        if (fileName.endsWith(".m")) {
+            return "objective-c-header";
+        }
+        if (fileName.endsWith(".mm")) {
+            return "objective-c++-header";
+        }
+        return "c++-header";
+    }
+
+    private static @NonNull String key(
+            final @NonNull String headerPrefix,
+            final @Nullable Path sourceDirectory,
+            final @NonNull List<@NonNull String> arguments
+    ) {
+        final MessageDigest digest = newSha256();
+        digest.update(clang_getClangVersion().getString().getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(headerPrefix.getBytes(ISO_8859_1));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(sourceDirectory).getBytes(UTF_8));
+        for (final String argument : arguments) {
+            digest.update((byte) 0);
+            digest.update(argument.getBytes(UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static @NonNull String sha256(final @NonNull Path file) throws IOException {
+        final MessageDigest digest = newSha256();
+        try (final InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static @NonNull MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Prints everything known about each visited cursor, as human-readable text,
+ * through an {@link AsyncWriter}.
+ *
+ * <p>
+ * Each cursor is formatted into a single chunk before being written, so that
+ * the output of several visitors sharing the sink is never interleaved
+ * within a cursor.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class TextDiagnosticSink implements DiagnosticSink, Closeable {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final @NonNull Writer out;
+
+    /**
+     * @param out the writer to write to (via an {@link AsyncWriter}), which
+     *            is closed along with the sink.
+     */
+    public TextDiagnosticSink(final @NonNull Writer out) {
+        this.out = new AsyncWriter(out);
+    }
+
+    /**
+     * @return a new sink which writes to the standard output (which is
+     *   flushed, but not closed, when the sink is closed).
+     */
+    public static @NonNull TextDiagnosticSink toStandardOutput() {
+        return new TextDiagnosticSink(new OutputStreamWriter(new NonClosingOutputStream(System.out), Charset.defaultCharset()));
+    }
+
+    @Override
+    public void accept(final @NonNull CursorRecord record) {
+        final StringBuilder text = new StringBuilder(256);
+        format(record, text);
+        try {
+            out.append(text);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Blocks until everything written so far has been written.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private static void format(
+            final @NonNull CursorRecord record,
+            final @NonNull StringBuilder text
+    ) {
+        line(text, record.getLocation() + ": depth = " + record.getDepth());
+
+        final CursorKind kind = record.getKind();
+        line(text, "Cursor: " + kind.getCategory() + '/' + kind.getSpelling());
+        line(text, "Type: " + record.getType());
+
+        final String spelling = record.getSpelling();
+        if (!spelling.isEmpty()) {
+            line(text, "Text: " + spelling);
+        }
+        line(text, "Text: " + record.getText());
+
+        final String usr = record.getUsr();
+        if (!usr.isEmpty()) {
+            line(text, "USR: " + usr);
+        }
+
+        line(text, "Linkage: " + record.getLinkage());
+
+        final String parent = record.getParentSpelling();
+        final String semanticParent = record.getSemanticParentSpelling();
+        final String lexicalParent = record.getLexicalParentSpelling();
+        if (!parent.isEmpty() || !semanticParent.isEmpty() || !lexicalParent.isEmpty()) {
+            line(text, "Parent:");
+        }
+        if (!parent.isEmpty()) {
+            line(text, "\tParent: " + parent);
+        }
+        if (!semanticParent.isEmpty()) {
+            line(text, "\tSemantic parent: " + semanticParent);
+        }
+        if (!lexicalParent.isEmpty()) {
+            line(text, "\tLexical parent: " + lexicalParent);
+        }
+
+        final @Nullable String includedFile = record.getIncludedFile();
+        if (includedFile != null) {
+            line(text, " included file: " + includedFile);
+        }
+
+        text.append(LINE_SEPARATOR);
+    }
+
+    private static void line(final @NonNull StringBuilder text, final @NonNull String line) {
+        text.append(line).append(LINE_SEPARATOR);
+    }
+
+    /**
+     * Lets the standard output outlive the sink.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        private NonClosingOutputStream(final @NonNull OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final byte b @NonNull[], final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
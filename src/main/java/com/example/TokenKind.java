@@ -1,40 +1,76 @@
 package com.example;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
-import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
 
-import java.io.Serial;
+import static org.bytedeco.llvm.global.clang.CXToken_Comment;
+import static org.bytedeco.llvm.global.clang.CXToken_Identifier;
+import static org.bytedeco.llvm.global.clang.CXToken_Keyword;
+import static org.bytedeco.llvm.global.clang.CXToken_Literal;
+import static org.bytedeco.llvm.global.clang.CXToken_Punctuation;
 
-import static java.lang.String.format;
-import static java.util.Objects.hash;
+/**
+ * The kind of token nodes, one constant per {@code CXTokenKind}, so that
+ * token nodes share the kind instead of each allocating its own.
+ *
+ * @see #of(int)
+ */
+public enum TokenKind implements AstNodeKind {
+    PUNCTUATION(CXToken_Punctuation, "Punctuation"),
+    KEYWORD(CXToken_Keyword, "Keyword"),
+    IDENTIFIER(CXToken_Identifier, "Identifier"),
+    LITERAL(CXToken_Literal, "Literal"),
+    COMMENT(CXToken_Comment, "Comment"),
+    ;
 
-public final class TokenKind implements AstNodeKind {
-    @Serial
-    private static final long serialVersionUID = 5789516195359696025L;
+    private final int value;
 
-    /**
-     * @serial include
-     */
-    private final @NonNull String value;
+    private final @NonNull String spelling;
 
-    public TokenKind(final @NonNull String value) {
+    private final @NonNull String string;
+
+    TokenKind(final int value, final @NonNull String spelling) {
         this.value = value;
+        this.spelling = spelling;
+        string = "TokenKind(" + spelling + ')';
     }
 
-    @Override
-    public boolean equals(final @Nullable Object obj) {
-        return this == obj
-               || obj instanceof TokenKind that
-                  && value.equals(that.value);
+    /**
+     * @param value the {@code CXTokenKind} value.
+     * @return the token kind which corresponds to {@code value}.
+     * @throws IllegalArgumentException if {@code value} is not a known
+     *   {@code CXTokenKind}.
+     */
+    @Contract(pure = true)
+    public static @NonNull TokenKind of(final int value) {
+        return switch (value) {
+            case CXToken_Punctuation -> PUNCTUATION;
+            case CXToken_Keyword -> KEYWORD;
+            case CXToken_Identifier -> IDENTIFIER;
+            case CXToken_Literal -> LITERAL;
+            case CXToken_Comment -> COMMENT;
+            default -> throw new IllegalArgumentException("Unknown token kind: " + value);
+        };
     }
 
-    @Override
-    public int hashCode() {
-        return hash(value);
+    /**
+     * @return the {@code CXTokenKind} value.
+     */
+    @Contract(pure = true)
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @return the spelling, e.g.: {@code Identifier}.
+     */
+    @Contract(pure = true)
+    public @NonNull String getSpelling() {
+        return spelling;
     }
 
     @Override
     public @NonNull String toString() {
-        return format("%s(%s)", getClass().getSimpleName(), value);
+        return string;
     }
 }
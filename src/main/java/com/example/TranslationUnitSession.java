@@ -0,0 +1,441 @@
+package com.example;
+
+import com.example.clang.CursorFilter;
+import com.example.clang.CursorVisitor;
+import com.example.clang.Index;
+import com.example.clang.SourceLocation;
+import com.example.clang.SourceOverlay;
+import com.example.clang.TokenIndex;
+import com.example.clang.TranslationUnit;
+import com.example.clang.UnsavedFile;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXSourceRange;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.AstVisitorUtils.addTokens;
+import static com.example.AstVisitorUtils.getType;
+import static com.example.clang.ChildVisitResult.BREAK;
+import static com.example.clang.ChildVisitResult.CONTINUE;
+import static com.example.clang.Utils.check;
+import static java.lang.String.format;
+import static org.bytedeco.llvm.global.clang.CXTranslationUnit_CreatePreambleOnFirstParse;
+import static org.bytedeco.llvm.global.clang.clang_defaultEditingTranslationUnitOptions;
+import static org.bytedeco.llvm.global.clang.clang_getCursorExtent;
+import static org.bytedeco.llvm.global.clang.clang_getRangeEnd;
+import static org.bytedeco.llvm.global.clang.clang_getRangeStart;
+
+/**
+ * A long-lived translation unit for editor-style workloads, where the same
+ * source file is edited and re-parsed over and over again.
+ *
+ * <p>
+ * The translation unit is parsed once with the
+ * {@linkplain org.bytedeco.llvm.global.clang#clang_defaultEditingTranslationUnitOptions()
+ * editing options} (which include a precompiled preamble), and then
+ * {@linkplain TranslationUnit#reparse(List) re-parsed} in place from the
+ * in-memory contents of the file on each {@link #update(byte[])}. Instead of
+ * the whole AST, an update only re-emits the subtrees of the top-level
+ * declarations whose source ranges overlap the edited region, along with the
+ * range of the previous top-level subtrees they replace (see {@link Update}).
+ * </p>
+ *
+ * <p>
+ * Note that an edit may change the meaning of the code outside the edited
+ * region (e.g.: a macro definition, or a declaration used elsewhere in the
+ * file); such changes are not detected, and the caller may rebuild the
+ * whole AST with {@link #getAst()} instead.
+ * </p>
+ *
+ * <p>
+ * The in-memory contents of the file are kept in a {@link SourceOverlay} of
+ * the session's own, which is {@linkplain SourceOverlay#apply() applied}
+ * while the session builds an AST, so that
+ * {@link com.example.clang.SourceRange#getText()} agrees with the translation
+ * unit. Any other lookup of the file (unless the overlay is applied, see
+ * {@link #getOverlay()}) still reads the on-disk contents.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class TranslationUnitSession implements AutoCloseable {
+    private final @NonNull Path file;
+
+    private final @NonNull TranslationUnit translationUnit;
+
+    private final @NonNull FlatAstVisitor visitor = new FlatAstVisitor();
+
+    private final @NonNull SourceOverlay overlay = new SourceOverlay();
+
+    private byte @NonNull[] contents;
+
+    /**
+     * The tokens of the file as of the last parse, created on first use.
+     */
+    private @Nullable TokenIndex tokenIndex;
+
+    /**
+     * The byte ranges of the top-level main-file cursors (i.e. of the
+     * children of the root node of {@link #getAst()}), as of the last parse.
+     */
+    private @NonNull Extents topLevelExtents;
+
+    /**
+     * Parses the {@code file} from its on-disk contents.
+     *
+     * @param commandLineArgs the compiler arguments, not including the
+     *                        compiler executable and the source file itself.
+     * @throws IOException if the file can't be read.
+     * @throws RuntimeException if the file can't be parsed.
+     */
+    public TranslationUnitSession(
+            final @NonNull Index index,
+            final @NonNull Path file,
+            final @NonNull List<@NonNull String> commandLineArgs
+    ) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        contents = Files.readAllBytes(this.file);
+
+        final UnsavedFile unsavedFile = new UnsavedFile(this.file, contents);
+        translationUnit = TranslationUnit.parse(
+                index,
+                this.file,
+                commandLineArgs,
+                List.of(unsavedFile),
+                clang_defaultEditingTranslationUnitOptions() | CXTranslationUnit_CreatePreambleOnFirstParse
+        );
+        overlay.put(unsavedFile);
+        topLevelExtents = getTopLevelExtents();
+    }
+
+    public @NonNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the current in-memory contents of the file; the caller should
+     *   not modify the array.
+     */
+    public byte @NonNull[] getContents() {
+        return contents;
+    }
+
+    public @NonNull TranslationUnit getTranslationUnit() {
+        return translationUnit;
+    }
+
+    /**
+     * @return the in-memory contents of the file, to be
+     *   {@linkplain SourceOverlay#apply() applied} while reading the text of
+     *   the source ranges of {@link #getTranslationUnit()}.
+     */
+    public @NonNull SourceOverlay getOverlay() {
+        return overlay;
+    }
+
+    /**
+     * Builds the whole AST of the file.
+     */
+    @SuppressWarnings("try")
+    public @NonNull AstNode getAst() {
+        final AstNode rootNode = new AstNode(file.getFileName().toString());
+        try (final SourceOverlay.Scope ignored = overlay.apply()) {
+            visitor.visit(translationUnit.getCursor(), rootNode, getTokenIndex());
+        }
+        return rootNode;
+    }
+
+    /**
+     * Replaces the contents of the file with {@code newContents} and re-parses
+     * the translation unit.
+     *
+     * <p>
+     * The edited region is the byte range of {@code newContents} which
+     * differs from the previous contents, i.e. what remains after stripping
+     * the common prefix and the common suffix.
+     * </p>
+     *
+     * @param newContents the new contents of the file; the caller should not
+     *                    modify the array once it has been passed to this
+     *                    method.
+     * @return the re-built subtrees of the top-level declarations which
+     *   overlap (or touch) the edited region, in source order, along with
+     *   the previous top-level subtrees they replace; an empty update if the
+     *   contents haven't changed.
+     * @throws RuntimeException if the file can't be re-parsed, in which case
+     *   the session is no longer usable.
+     */
+    public @NonNull Update update(final byte @NonNull[] newContents) {
+        check(!translationUnit.isClosed(), () -> "Session is closed: " + file);
+
+        final int prefixLength = commonPrefixLength(contents, newContents);
+        if (prefixLength == contents.length && prefixLength == newContents.length) {
+            return new Update(0, 0, List.of());
+        }
+        final int suffixLength = commonSuffixLength(contents, newContents, prefixLength);
+
+        final int editBegin = prefixLength;
+        final int oldEditEnd = contents.length - suffixLength;
+        final int editEnd = newContents.length - suffixLength;
+        final int delta = newContents.length - contents.length;
+
+        contents = newContents;
+        final UnsavedFile unsavedFile = new UnsavedFile(file, newContents);
+        overlay.put(unsavedFile);
+        tokenIndex = null;
+        translationUnit.reparse(List.of(unsavedFile));
+
+        final Extents oldExtents = topLevelExtents;
+        final Extents newExtents = getTopLevelExtents();
+        topLevelExtents = newExtents;
+
+        /*
+         * The top-level cursors entirely before or entirely after the edited
+         * region (and unchanged, apart from the shift) are kept; everything
+         * in between is replaced.
+         */
+        int from = 0;
+        while (from < oldExtents.size()
+               && from < newExtents.size()
+               && oldExtents.getEnd(from) < editBegin
+               && oldExtents.getBegin(from) == newExtents.getBegin(from)
+               && oldExtents.getEnd(from) == newExtents.getEnd(from)) {
+            from++;
+        }
+
+        int oldTo = oldExtents.size();
+        int newTo = newExtents.size();
+        while (oldTo > from
+               && newTo > from
+               && oldExtents.getBegin(oldTo - 1) > oldEditEnd
+               && oldExtents.getBegin(oldTo - 1) + delta == newExtents.getBegin(newTo - 1)
+               && oldExtents.getEnd(oldTo - 1) + delta == newExtents.getEnd(newTo - 1)) {
+            oldTo--;
+            newTo--;
+        }
+
+        return new Update(from, oldTo, emitTopLevel(from, newTo));
+    }
+
+    /**
+     * Builds the subtrees of the top-level main-file cursors with the indices
+     * in {@code [from, to)}.
+     */
+    @SuppressWarnings("try")
+    private @NonNull List<@NonNull AstNode> emitTopLevel(final int from, final int to) {
+        final List<AstNode> subtrees = new ArrayList<>(to - from);
+        if (from == to) {
+            return subtrees;
+        }
+
+        final int index[] = {0};
+        final CursorVisitor<AstNode> topLevelVisitor = CursorVisitor.from((self, cursor, parent, unused) -> {
+            if (!CursorFilter.MAIN_FILE.accept(cursor)) {
+                return CONTINUE;
+            }
+
+            final int currentIndex = index[0]++;
+            if (currentIndex < from) {
+                return CONTINUE;
+            }
+
+            subtrees.add(emitSubtree(cursor, getTokenIndex()));
+            return currentIndex + 1 < to ? CONTINUE : BREAK;
+        });
+
+        final AstNode unused = new AstNode(file.getFileName().toString());
+        try (final SourceOverlay.Scope ignored = overlay.apply()) {
+            topLevelVisitor.visitChildren(translationUnit.getCursor(), unused);
+        }
+
+        return subtrees;
+    }
+
+    /**
+     * @return the byte ranges of the top-level main-file cursors.
+     */
+    private @NonNull Extents getTopLevelExtents() {
+        final Extents extents = new Extents();
+
+        final CursorVisitor<AstNode> topLevelVisitor = CursorVisitor.from((self, cursor, parent, unused) -> {
+            if (!CursorFilter.MAIN_FILE.accept(cursor)) {
+                return CONTINUE;
+            }
+
+            final CXSourceRange extent = clang_getCursorExtent(cursor);
+            try (final SourceLocation begin = new SourceLocation(clang_getRangeStart(extent));
+                 final SourceLocation end = new SourceLocation(clang_getRangeEnd(extent))) {
+                extents.add(begin.getOffsetBytes(), end.getOffsetBytes());
+            } finally {
+                extent.close();
+            }
+
+            return CONTINUE;
+        });
+
+        final AstNode unused = new AstNode(file.getFileName().toString());
+        topLevelVisitor.visitChildren(translationUnit.getCursor(), unused);
+
+        return extents;
+    }
+
+    /**
+     * Builds the subtree of a single top-level cursor, exactly as it appears
+     * in the whole AST (i.e. at depth 1).
+     */
+    private @NonNull AstNode emitSubtree(final @NonNull CXCursor cursor, final @NonNull TokenIndex tokenIndex) {
+        final AstNode rootNode = new AstNode(file.getFileName().toString());
+        final AstNode node = rootNode.addChild(getType(cursor), null, null);
+        visitor.visit(cursor, node, tokenIndex);
+        if (node.isLeaf()) {
+            addTokens(node, cursor, tokenIndex);
+        }
+        return node;
+    }
+
+    /**
+     * @return the tokens of the whole file, which are only re-tokenized once
+     *   per parse (rather than per leaf cursor); to be called with the
+     *   overlay applied.
+     */
+    private @NonNull TokenIndex getTokenIndex() {
+        TokenIndex result = tokenIndex;
+        if (result == null) {
+            try {
+                result = new TokenIndex(translationUnit.getCxTranslationUnit(), file);
+            } catch (final IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            tokenIndex = result;
+        }
+        return result;
+    }
+
+    private static int commonPrefixLength(final byte a[], final byte b[]) {
+        final int mismatch = Arrays.mismatch(a, b);
+        return mismatch == -1 ? a.length : mismatch;
+    }
+
+    /**
+     * @return the length of the common suffix of {@code a} and {@code b},
+     *   which doesn't overlap with the common prefix of length
+     *   {@code prefixLength}.
+     */
+    private static int commonSuffixLength(final byte a[], final byte b[], final int prefixLength) {
+        final int maxLength = Math.min(a.length, b.length) - prefixLength;
+        int length = 0;
+        while (length < maxLength && a[a.length - 1 - length] == b[b.length - 1 - length]) {
+            length++;
+        }
+        return length;
+    }
+
+    @Override
+    public void close() {
+        visitor.close();
+        translationUnit.close();
+        overlay.remove(file);
+    }
+
+    /**
+     * The result of an {@link #update(byte[])}: the children of the root node
+     * of the previous AST with the indices in
+     * {@code [getFromIndex(), getToIndex())} are to be replaced with
+     * {@link #getSubtrees()} (either range may be empty, e.g.: if a
+     * declaration has been deleted).
+     *
+     * <p>
+     * The subtrees following the replaced ones are otherwise unchanged, but
+     * their positions are still those before the edit, i.e. shifted by the
+     * difference in length between the new and the old contents.
+     * </p>
+     */
+    public static final class Update {
+        private final int fromIndex;
+
+        private final int toIndex;
+
+        private final @NonNull List<@NonNull AstNode> subtrees;
+
+        private Update(
+                final int fromIndex,
+                final int toIndex,
+                final @NonNull List<@NonNull AstNode> subtrees
+        ) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.subtrees = subtrees;
+        }
+
+        /**
+         * @return the index of the first top-level subtree replaced.
+         */
+        @Contract(pure = true)
+        public int getFromIndex() {
+            return fromIndex;
+        }
+
+        /**
+         * @return the index past the last top-level subtree replaced.
+         */
+        @Contract(pure = true)
+        public int getToIndex() {
+            return toIndex;
+        }
+
+        /**
+         * @return the re-built subtrees, in source order.
+         */
+        @Contract(pure = true)
+        public @NonNull List<@NonNull AstNode> getSubtrees() {
+            return subtrees;
+        }
+
+        @Override
+        public @NonNull String toString() {
+            return format("[%d, %d) -> %d subtree(s)", fromIndex, toIndex, subtrees.size());
+        }
+    }
+
+    /**
+     * The {@code [begin, end]} byte ranges of the top-level cursors, in
+     * source order.
+     */
+    private static final class Extents {
+        private int offsets[] = new int[32];
+
+        private int size;
+
+        private void add(final int begin, final int end) {
+            if (2 * size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            }
+            offsets[2 * size] = begin;
+            offsets[2 * size + 1] = end;
+            size++;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int getBegin(final int index) {
+            return offsets[2 * index];
+        }
+
+        private int getEnd(final int index) {
+            return offsets[2 * index + 1];
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.example.clang;
 
 import org.bytedeco.javacpp.Pointer;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.jetbrains.annotations.Contract;
 
 import java.util.ArrayList;
@@ -12,7 +13,11 @@ public abstract class ClangAutoCloseable<T extends Pointer> implements AutoClose
 
     private boolean closed = false;
 
-    private final @NonNull List<@NonNull ClangAutoCloseable<?>> childResources =  new ArrayList<>();
+    /**
+     * Created on demand, since most instances (e.g.: source ranges and
+     * locations) never have any.
+     */
+    private @Nullable List<@NonNull ClangAutoCloseable<?>> childResources;
 
     protected ClangAutoCloseable(final @NonNull T resource) {
         this.resource = resource;
@@ -28,6 +33,9 @@ public abstract class ClangAutoCloseable<T extends Pointer> implements AutoClose
     }
 
     protected final void addChildResource(final @NonNull ClangAutoCloseable<?> childResource) {
+        if (childResources == null) {
+            childResources = new ArrayList<>();
+        }
         childResources.add(childResource);
     }
 
@@ -35,7 +43,9 @@ public abstract class ClangAutoCloseable<T extends Pointer> implements AutoClose
     public final void close() {
         if (!isClosed()) {
             closeInternal();
-            childResources.forEach(ClangAutoCloseable::close);
+            if (childResources != null) {
+                childResources.forEach(ClangAutoCloseable::close);
+            }
             resource.close();
             closed = true;
         }
@@ -0,0 +1,75 @@
+package com.example.clang;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.llvm.clang.CXClientData;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.clang.Utils.check;
+
+/**
+ * The registry of client data passed to {@code clang_visitChildren()} in the
+ * {@link ClientDataMode#HANDLE HANDLE} mode.
+ *
+ * <p>
+ * The handle itself is used as the (never dereferenced) address of
+ * {@link CXClientData}, so no native memory is allocated per call.
+ * </p>
+ *
+ * @see ClientDataMode#HANDLE
+ */
+final class ClientDataHandles {
+    /**
+     * Handles start with {@code 1}, as a zero address would be passed back to
+     * the JVM as a {@code null} client data.
+     */
+    private static final AtomicLong NEXT_HANDLE = new AtomicLong(1L);
+
+    private static final ConcurrentMap<@NonNull Long, @NonNull Object> HANDLES = new ConcurrentHashMap<>();
+
+    private ClientDataHandles() {
+        assert false;
+    }
+
+    /**
+     * @return the new handle, which should be released via
+     *   {@link #release(long)} once the native call returns.
+     * @see #release(long)
+     */
+    static long register(final @NonNull Object data) {
+        final long handle = NEXT_HANDLE.getAndIncrement();
+        HANDLES.put(handle, data);
+        return handle;
+    }
+
+    /**
+     * @throws IllegalStateException if the handle is unknown or has already
+     *   been released.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> @NonNull T resolve(final long handle) {
+        final @Nullable Object data = HANDLES.get(handle);
+        check(data != null, () -> "Unknown client data handle: " + handle);
+        return (T) data;
+    }
+
+    static void release(final long handle) {
+        HANDLES.remove(handle);
+    }
+
+    static @NonNull CXClientData toClientData(final long handle) {
+        return new CXClientData(new Pointer() {
+            {
+                address = handle;
+            }
+        });
+    }
+
+    static long fromClientData(final @NonNull CXClientData clientData) {
+        return clientData.address();
+    }
+}
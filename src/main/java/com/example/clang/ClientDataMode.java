@@ -0,0 +1,38 @@
+package com.example.clang;
+
+/**
+ * Controls how the client data of a {@link CursorVisitor} is passed across a
+ * native stack frame.
+ *
+ * @see CursorVisitor#getClientDataMode()
+ * @see CursorVisitor#visitChildren(org.bytedeco.llvm.clang.CXCursor, java.io.Serializable)
+ */
+public enum ClientDataMode {
+    /**
+     * The client data is registered in a JVM-side handle table, and only an
+     * opaque {@code long} handle is passed to {@code clang_visitChildren()}.
+     *
+     * <p>
+     * Nothing is serialized: the visitor receives the very same object which
+     * was passed to {@link CursorVisitor#visitChildren(org.bytedeco.llvm.clang.CXCursor, java.io.Serializable) visitChildren()},
+     * so any state changes made by a child invocation are visible to the
+     * caller once the child invocation returns.
+     * </p>
+     */
+    HANDLE,
+
+    /**
+     * The client data is serialized into a native buffer before the call to
+     * {@code clang_visitChildren()}, and de-serialized for each visited child.
+     *
+     * <p>
+     * Each child invocation receives its own copy of the data, so any state
+     * changes will be lost when a child invocation returns.
+     * The cost of a single call is proportional to the size of the serialized
+     * object graph, so this mode should only be used if a copy is really
+     * necessary.
+     * </p>
+     */
+    SERIALIZED,
+    ;
+}
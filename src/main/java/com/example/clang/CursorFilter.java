@@ -0,0 +1,63 @@
+package com.example.clang;
+
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXSourceLocation;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import static org.bytedeco.llvm.global.clang.clang_Location_isFromMainFile;
+import static org.bytedeco.llvm.global.clang.clang_Location_isInSystemHeader;
+import static org.bytedeco.llvm.global.clang.clang_getCursorLocation;
+
+/**
+ * Decides whether a cursor (along with its whole subtree) should be visited.
+ *
+ * <p>
+ * A visitor consults the filter before doing any per-cursor work, and
+ * returns {@link ChildVisitResult#CONTINUE} for the rejected cursors, so that
+ * their subtrees are pruned without ever being visited. Filters should
+ * therefore be cheap: e.g.: they shouldn't decode any strings, or construct a
+ * {@link SourceLocation} (which requires a file name).
+ * </p>
+ */
+@FunctionalInterface
+public interface CursorFilter {
+    /**
+     * Accepts every cursor.
+     */
+    CursorFilter ALL = cursor -> true;
+
+    /**
+     * Accepts the cursors located in the main file of the translation unit,
+     * rejecting those from the included files (e.g.: system headers), with a
+     * single native call and no string decoding.
+     *
+     * @see SourceLocation#isFromMainFile()
+     */
+    CursorFilter MAIN_FILE = cursor -> {
+        final CXSourceLocation location = clang_getCursorLocation(cursor);
+        try {
+            return clang_Location_isFromMainFile(location) != 0;
+        } finally {
+            location.close();
+        }
+    };
+
+    /**
+     * Accepts the cursors located in the main file or in any project header,
+     * rejecting only those from the system headers, with a single native
+     * call and no string decoding.
+     */
+    CursorFilter NON_SYSTEM = cursor -> {
+        final CXSourceLocation location = clang_getCursorLocation(cursor);
+        try {
+            return clang_Location_isInSystemHeader(location) == 0;
+        } finally {
+            location.close();
+        }
+    };
+
+    /**
+     * @return {@code true} if the {@code cursor} should be visited.
+     */
+    boolean accept(final @NonNull CXCursor cursor);
+}
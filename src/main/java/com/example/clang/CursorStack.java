@@ -0,0 +1,123 @@
+package com.example.clang;
+
+import org.bytedeco.llvm.clang.CXCursor;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.jetbrains.annotations.Contract;
+
+import static com.example.clang.Utils.check;
+import static org.bytedeco.llvm.global.clang.clang_equalCursors;
+
+/**
+ * A stack of cursors backed by a single growable native array.
+ *
+ * <p>
+ * Cursors passed to a {@link CursorVisitor} are only valid for the duration of
+ * the callback, so they need to be copied if they're to be compared with
+ * cursors visited later. Copying them into a contiguous native buffer avoids
+ * a native allocation per cursor.
+ * </p>
+ *
+ * <p>
+ * The buffer never belongs to a {@link NativeArena}, and is only released
+ * by {@link #close()}.
+ * </p>
+ */
+public final class CursorStack implements AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private @NonNull CXCursor buffer;
+
+    private long capacity;
+
+    private long size;
+
+    /**
+     * A view of {@link #buffer}, positioned at the top element.
+     */
+    private @NonNull CXCursor top;
+
+    public CursorStack() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CursorStack(final int initialCapacity) {
+        Utils.require(initialCapacity > 0, () -> "Capacity should be positive: " + initialCapacity);
+
+        capacity = initialCapacity;
+        buffer = NativeArena.detach(new CXCursor(capacity));
+        top = new CXCursor(buffer);
+    }
+
+    @Contract(pure = true)
+    public long size() {
+        return size;
+    }
+
+    @Contract(pure = true)
+    public boolean isEmpty() {
+        return size == 0L;
+    }
+
+    /**
+     * Copies {@code cursor} onto the top of this stack.
+     */
+    public void push(final @NonNull CXCursor cursor) {
+        if (size == capacity) {
+            grow();
+        }
+
+        top.position(size).put(cursor);
+        size++;
+    }
+
+    /**
+     * @throws IllegalStateException if this stack is empty.
+     */
+    public void pop() {
+        check(!isEmpty(), () -> "Stack is empty");
+
+        size--;
+        top.position(Math.max(size - 1, 0L));
+    }
+
+    /**
+     * @return the view of the top element, valid until the next modification
+     *   of this stack.
+     * @throws IllegalStateException if this stack is empty.
+     */
+    public @NonNull CXCursor peek() {
+        check(!isEmpty(), () -> "Stack is empty");
+
+        return top.position(size - 1);
+    }
+
+    /**
+     * @return {@code true} if the top element is equal to {@code cursor},
+     *   as defined by {@code clang_equalCursors()}.
+     * @throws IllegalStateException if this stack is empty.
+     */
+    public boolean isOnTop(final @NonNull CXCursor cursor) {
+        return clang_equalCursors(peek(), cursor) != 0;
+    }
+
+    private void grow() {
+        final long newCapacity = capacity * 2;
+        /*
+         * The stack may grow while a cursor is being visited, but outlives
+         * the arena of the visit.
+         */
+        final CXCursor newBuffer = NativeArena.detach(new CXCursor(newCapacity));
+        newBuffer.put(buffer.position(0L).limit(size));
+
+        buffer.close();
+        buffer = newBuffer;
+        capacity = newCapacity;
+        top = new CXCursor(buffer);
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+        size = 0L;
+    }
+}
@@ -30,6 +30,12 @@ public interface CursorVisitor<T extends Serializable> {
      * Will be invoked for each cursor found by {@code clang_visitCursorChildren()}.
      * </p>
      *
+     * <p>
+     * Both cursors are freed as soon as this method returns, and should be
+     * copied (e.g.: with {@code new CXCursor().put(cursor)}) in order to be
+     * retained.
+     * </p>
+     *
      * @param cursor the cursor being visited.
      * @param parent the parent visitor for that cursor.
      * @param clientData the client data provided to {@code clang_visitCursorChildren()}.
@@ -43,6 +49,24 @@ public interface CursorVisitor<T extends Serializable> {
             final @NonNull T clientData
     );
 
+    /**
+     * Returns the way the client data is passed across a native stack frame
+     * by {@link #visitChildren(CXCursor, Serializable)}.
+     *
+     * <p>
+     * Defaults to {@link ClientDataMode#HANDLE}, which doesn't serialize
+     * anything and preserves the identity of the client data.
+     * Override this method and return {@link ClientDataMode#SERIALIZED} if
+     * each child invocation needs its own copy of the data.
+     * </p>
+     *
+     * @return the way the client data is passed across a native stack frame.
+     * @see #visitChildren(CXCursor, Serializable)
+     */
+    default @NonNull ClientDataMode getClientDataMode() {
+        return ClientDataMode.HANDLE;
+    }
+
     /**
      * Visits the children of a particular cursor.
      *
@@ -60,16 +84,28 @@ public interface CursorVisitor<T extends Serializable> {
      * @param clientData the client data provided to {@code clang_visitCursorChildren()}.
      * @return {@code true} if the traversal was terminated prematurely by the
      *   visitor returning {@link ChildVisitResult#BREAK}.
+     * @see #getClientDataMode()
      */
     default boolean visitChildren(
             final @NonNull CXCursor parent,
             final @NonNull T clientData
     ) {
-        try (final CXCursorVisitor visitor = asCxCursorVisitor()) {
-            try (final CXClientData rawClientData = toClientData(clientData)) {
-                return clang_visitChildren(parent, visitor, rawClientData) != 0;
+        Metrics.getDefault().increment(Metrics.Counter.VISIT_CHILDREN_CALLS);
+        return switch (getClientDataMode()) {
+            /*
+             * A single native callback is shared by all handle-based
+             * invocations, so no native thunk is allocated per call.
+             */
+            case HANDLE -> SharedCxCursorVisitor.visitChildren(this, parent, clientData);
+
+            case SERIALIZED -> {
+                try (final CXCursorVisitor visitor = asCxCursorVisitor()) {
+                    try (final CXClientData rawClientData = toClientData(clientData)) {
+                        yield clang_visitChildren(parent, visitor, rawClientData) != 0;
+                    }
+                }
             }
-        }
+        };
     }
 
     private CXCursorVisitor asCxCursorVisitor() {
@@ -80,25 +116,57 @@ public interface CursorVisitor<T extends Serializable> {
                     final @NonNull CXCursor parent,
                     final @NonNull CXClientData clientData
             ) {
-                return CursorVisitor.this.call(
-                        cursor,
-                        parent,
-                        fromClientData(clientData)
-                ).ordinal();
+                try {
+                    return CursorVisitor.this.call(
+                            cursor,
+                            parent,
+                            fromClientData(clientData)
+                    ).ordinal();
+                } finally {
+                    /*
+                     * JavaCPP passes each cursor as a native copy of its own.
+                     */
+                    NativeArena.release(cursor);
+                    NativeArena.release(parent);
+                }
             }
         };
     }
 
+    /**
+     * Creates a new <em>stateless</em> visitor from a lambda.
+     *
+     * <p>
+     * The client data is passed across a native stack frame by handle
+     * (see {@link ClientDataMode#HANDLE}), so that child invocations see the
+     * very same object, and any state changes made by a child invocation are
+     * visible when it returns.
+     * </p>
+     *
+     * @param block the lambda which constitutes the visitor body.
+     * @return the new stateless visitor.
+     * @param <T> the type of data (e.g.: such as recursion depth) to pass to
+     *           child invocations of this visitor.
+     * @see #from(ClientDataMode, Function4)
+     */
+    static <T extends @NonNull Serializable> @NonNull CursorVisitor<T> from(
+            final @NonNull Function4<? super @NonNull CursorVisitor<T>, ? super @NonNull CXCursor, ? super @NonNull CXCursor, ? super @NonNull T, @NonNull ChildVisitResult> block
+    ) {
+        return from(ClientDataMode.HANDLE, block);
+    }
+
     /**
      * Creates a new <em>stateless</em> visitor from a lambda.
      *
      * <p>
      * It will be possible to pass data to child invocations
-     * (so that child AST nodes may see their parents), but not vice versa:
-     * the data passed across a native stack frame will be serialized and
-     * de-serialized, so any state changes will be lost when a child invocation
-     * returns. The only workaround is to use a custom {@code readResolve()}
-     * method when de-serializing data.
+     * (so that child AST nodes may see their parents). Whether it's also
+     * possible vice versa, depends on the {@code mode}:
+     * in the {@link ClientDataMode#SERIALIZED SERIALIZED} mode, the data passed
+     * across a native stack frame will be serialized and de-serialized, so any
+     * state changes will be lost when a child invocation returns.
+     * The only workaround is to use a custom {@code readResolve()} method when
+     * de-serializing data.
      * </p>
      *
      * <p>
@@ -106,6 +174,8 @@ public interface CursorVisitor<T extends Serializable> {
      * {@code CursorVisitor}.
      * </p>
      *
+     * @param mode the way the client data is passed across a native stack
+     *             frame.
      * @param block the lambda which constitutes the visitor body.
      * @return the new stateless visitor.
      * @param <T> the type of data (e.g.: such as recursion depth) to pass to
@@ -117,8 +187,10 @@ public interface CursorVisitor<T extends Serializable> {
      * @see #visitChildren(CXCursor, Serializable)
      * @see ChildVisitResult#CONTINUE
      * @see ChildVisitResult#RECURSE
+     * @see #from(Function4)
      */
     static <T extends @NonNull Serializable> @NonNull CursorVisitor<T> from(
+            final @NonNull ClientDataMode mode,
             final @NonNull Function4<? super @NonNull CursorVisitor<T>, ? super @NonNull CXCursor, ? super @NonNull CXCursor, ? super @NonNull T, @NonNull ChildVisitResult> block
     ) {
         return new CursorVisitor<>() {
@@ -130,6 +202,11 @@ public interface CursorVisitor<T extends Serializable> {
             ) {
                 return block.invoke(this, cursor, parent, clientData);
             }
+
+            @Override
+            public @NonNull ClientDataMode getClientDataMode() {
+                return mode;
+            }
         };
     }
 
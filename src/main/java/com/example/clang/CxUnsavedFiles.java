@@ -0,0 +1,55 @@
+package com.example.clang;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.llvm.clang.CXUnsavedFile;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A native array of {@link CXUnsavedFile} structures, along with the file
+ * names and contents they point to.
+ */
+final class CxUnsavedFiles extends ClangAutoCloseable<CXUnsavedFile> {
+    private final int count;
+
+    private final @NonNull List<@NonNull BytePointer> buffers;
+
+    CxUnsavedFiles(final @NonNull List<@NonNull UnsavedFile> unsavedFiles) {
+        super(new CXUnsavedFile(Math.max(unsavedFiles.size(), 1)));
+        count = unsavedFiles.size();
+        buffers = new ArrayList<>(2 * count);
+
+        for (int index = 0; index < count; index++) {
+            final UnsavedFile unsavedFile = unsavedFiles.get(index);
+            final BytePointer filename = new BytePointer(unsavedFile.getFile().toString());
+            final byte contents[] = unsavedFile.getContents();
+            final BytePointer contentsPointer = new BytePointer(contents.length);
+            contentsPointer.put(contents);
+            buffers.add(filename);
+            buffers.add(contentsPointer);
+
+            resource.getPointer(index)
+                    .Filename(filename)
+                    .Contents(contentsPointer)
+                    .Length(contents.length);
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return the pointer to the first element of the array.
+     */
+    @NonNull CXUnsavedFile array() {
+        return resource;
+    }
+
+    @Override
+    protected void closeInternal() {
+        buffers.forEach(BytePointer::close);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.clang;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.jetbrains.annotations.Contract;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.example.clang.Utils.require;
+
+/**
+ * Numbers the distinct file paths, so that a source range can refer to its
+ * file with an {@code int} rather than a {@link Path}.
+ *
+ * <p>
+ * Ids are dense (starting from 0), never reused, and only meaningful within
+ * the same JVM. Paths are kept exactly as given (i.e. not normalized), so that
+ * they're formatted exactly as those reported by <em>libclang</em>.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe; looking up either an existing id or a path
+ * takes no lock.
+ * </p>
+ */
+public final class FileTable {
+    private static final FileTable DEFAULT = new FileTable();
+
+    private final @NonNull ConcurrentMap<@NonNull Path, @NonNull Integer> ids = new ConcurrentHashMap<>();
+
+    /**
+     * Indexed by id; replaced (rather than modified in place) when full.
+     * Only written while holding {@code this}.
+     */
+    private volatile @NonNull Path paths @NonNull[] = new Path[64];
+
+    /**
+     * Guarded by {@code this}.
+     */
+    private int size;
+
+    /**
+     * @return the table shared by all {@link com.example.AstNode}s.
+     */
+    @Contract(pure = true)
+    public static @NonNull FileTable getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the id of the {@code file}, assigning a new one if needed.
+     */
+    public int getId(final @NonNull Path file) {
+        final Integer id = ids.get(file);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            final Integer existingId = ids.get(file);
+            if (existingId != null) {
+                return existingId;
+            }
+
+            final int newId = size++;
+            if (newId == paths.length) {
+                paths = Arrays.copyOf(paths, 2 * newId);
+            }
+            paths[newId] = file;
+
+            /*
+             * Publishes the path along with the id.
+             */
+            ids.put(file, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * @return the file with the given {@code id}.
+     * @throws IllegalArgumentException if no file has such an id.
+     */
+    public @NonNull Path getPath(final int id) {
+        final Path paths[] = this.paths;
+        final Path path = id >= 0 && id < paths.length ? paths[id] : null;
+        require(path != null, () -> "Unknown file id: " + id);
+        return path;
+    }
+
+    /**
+     * @return the number of files known.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
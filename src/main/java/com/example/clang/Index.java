@@ -0,0 +1,29 @@
+package com.example.clang;
+
+import org.bytedeco.llvm.clang.CXIndex;
+
+import static org.bytedeco.llvm.global.clang.clang_createIndex;
+import static org.bytedeco.llvm.global.clang.clang_disposeIndex;
+
+/**
+ * A shared context for creating translation units.
+ *
+ * <p>
+ * An index is not thread-safe: concurrent parsers should use an index per
+ * thread.
+ * </p>
+ */
+public final class Index extends ClangAutoCloseable<CXIndex> {
+    /**
+     * Creates a new index which excludes declarations from precompiled
+     * headers and doesn't print diagnostics.
+     */
+    public Index() {
+        super(clang_createIndex(1, 0));
+    }
+
+    @Override
+    protected void closeInternal() {
+        clang_disposeIndex(resource);
+    }
+}
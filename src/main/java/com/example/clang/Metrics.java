@@ -0,0 +1,420 @@
+package com.example.clang;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import org.bytedeco.javacpp.Pointer;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Counters and per-stage timers of the whole pipeline, from parsing to
+ * exporting the graph, so that it's possible to tell where the time of a
+ * slow translation unit goes.
+ *
+ * <p>
+ * Metrics are off by default (unless the {@value #ENABLED_PROPERTY} system
+ * property is {@code true}), in which case each call is a single volatile
+ * read. When on, each call is a {@link LongAdder} update (plus a
+ * {@link System#nanoTime()} per timer), and never takes a lock, so that
+ * concurrent native callbacks don't contend.
+ * </p>
+ *
+ * <p>
+ * The stages nest: e.g. {@link Stage#VISIT} includes the tokenization of the
+ * leaf cursors, and (for a builder which streams into a graph) the loading
+ * of the nodes, so the times of all the stages don't add up to the total.
+ * </p>
+ *
+ * <p>
+ * The {@linkplain Gauge gauges} of the native memory are process-wide, and
+ * are read when a snapshot is taken, whether metrics are on or off.
+ * </p>
+ *
+ * <p>
+ * When a <em>JFR</em> recording has the {@value #STAGE_EVENT_NAME} event
+ * enabled, each timed stage is also emitted as an event.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @see #toJson()
+ * @see #toPrometheus()
+ */
+public final class Metrics {
+    public static final String ENABLED_PROPERTY = "com.example.metrics";
+
+    public static final String STAGE_EVENT_NAME = "com.example.Stage";
+
+    /**
+     * The prefix of all the Prometheus metric names.
+     */
+    private static final String PROMETHEUS_PREFIX = "clang_ast_";
+
+    private static final Metrics DEFAULT = new Metrics(Boolean.getBoolean(ENABLED_PROPERTY));
+
+    private volatile boolean enabled;
+
+    private final @NonNull LongAdder counters @NonNull[] = newAdders(Counter.values().length);
+
+    private final @NonNull LongAdder stageNanos @NonNull[] = newAdders(Stage.values().length);
+
+    private final @NonNull LongAdder stageCalls @NonNull[] = newAdders(Stage.values().length);
+
+    public Metrics(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the instance all the stages report to.
+     */
+    @Contract(pure = true)
+    public static @NonNull Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    @Contract(pure = true)
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void increment(final @NonNull Counter counter) {
+        if (enabled) {
+            counters[counter.ordinal()].increment();
+        }
+    }
+
+    public void add(final @NonNull Counter counter, final long delta) {
+        if (enabled) {
+            counters[counter.ordinal()].add(delta);
+        }
+    }
+
+    /**
+     * Starts timing a stage.
+     *
+     * @return the start time, to be passed to {@link #stop(Stage, long)}, or
+     *   {@code 0L} if metrics are off.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Stops timing a stage.
+     *
+     * @param startNanos the value returned by {@link #start()}.
+     */
+    public void stop(final @NonNull Stage stage, final long startNanos) {
+        if (startNanos != 0L) {
+            record(stage, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Accounts for a single run of a stage timed elsewhere.
+     */
+    public void record(final @NonNull Stage stage, final long nanos) {
+        if (!enabled) {
+            return;
+        }
+
+        stageNanos[stage.ordinal()].add(nanos);
+        stageCalls[stage.ordinal()].increment();
+
+        final StageEvent event = new StageEvent();
+        if (event.shouldCommit()) {
+            event.stage = stage.getName();
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    public long get(final @NonNull Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * @return the current value of the {@code gauge}.
+     */
+    public long get(final @NonNull Gauge gauge) {
+        return gauge.read();
+    }
+
+    /**
+     * @return the total time spent in the {@code stage}.
+     */
+    public long getNanos(final @NonNull Stage stage) {
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of times the {@code stage} has been run.
+     */
+    public long getCalls(final @NonNull Stage stage) {
+        return stageCalls[stage.ordinal()].sum();
+    }
+
+    /**
+     * Resets all the counters and timers (but not concurrently with their
+     * updates, which may or may not be lost).
+     */
+    public void reset() {
+        for (final LongAdder counter : counters) {
+            counter.reset();
+        }
+        for (int stage = 0; stage < stageNanos.length; stage++) {
+            stageNanos[stage].reset();
+            stageCalls[stage].reset();
+        }
+    }
+
+    /**
+     * @return a snapshot of all the metrics, as a single JSON object, e.g.:
+     *   <code>{"counters": {"tokens": 42, ...}, "gauges": {"native_bytes":
+     *   4096, ...}, "stages": {"parse": {"nanos": 1000, "calls": 1},
+     *   ...}}</code>.
+     */
+    public @NonNull String toJson() {
+        final StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+        for (final Counter counter : Counter.values()) {
+            json.append(counter.ordinal() == 0 ? "\n" : ",\n")
+                .append("    \"").append(counter.getName()).append("\": ").append(get(counter));
+        }
+        json.append("\n  },\n  \"gauges\": {");
+        for (final Gauge gauge : Gauge.values()) {
+            json.append(gauge.ordinal() == 0 ? "\n" : ",\n")
+                .append("    \"").append(gauge.getName()).append("\": ").append(get(gauge));
+        }
+        json.append("\n  },\n  \"stages\": {");
+        for (final Stage stage : Stage.values()) {
+            json.append(stage.ordinal() == 0 ? "\n" : ",\n")
+                .append("    \"").append(stage.getName()).append("\": {\"nanos\": ").append(getNanos(stage))
+                .append(", \"calls\": ").append(getCalls(stage)).append('}');
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    /**
+     * @return a snapshot of all the metrics, in the Prometheus text
+     *   exposition format: a {@code clang_ast_<name>_total} counter per
+     *   {@link Counter}, a {@code clang_ast_<name>} gauge per {@link Gauge},
+     *   and the {@code clang_ast_stage_seconds_total} and
+     *   {@code clang_ast_stage_calls_total} counters labelled by stage.
+     */
+    public @NonNull String toPrometheus() {
+        final StringBuilder text = new StringBuilder();
+        for (final Counter counter : Counter.values()) {
+            final String name = PROMETHEUS_PREFIX + counter.getName() + "_total";
+            text.append("# HELP ").append(name).append(' ').append(counter.getDescription()).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(get(counter)).append('\n');
+        }
+
+        for (final Gauge gauge : Gauge.values()) {
+            final String name = PROMETHEUS_PREFIX + gauge.getName();
+            text.append("# HELP ").append(name).append(' ').append(gauge.getDescription()).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(get(gauge)).append('\n');
+        }
+
+        final String secondsName = PROMETHEUS_PREFIX + "stage_seconds_total";
+        text.append("# HELP ").append(secondsName).append(" Time spent in each stage.\n")
+            .append("# TYPE ").append(secondsName).append(" counter\n");
+        for (final Stage stage : Stage.values()) {
+            text.append(secondsName).append("{stage=\"").append(stage.getName()).append("\"} ")
+                .append(format(Locale.ROOT, "%.9f", getNanos(stage) / 1e9)).append('\n');
+        }
+
+        final String callsName = PROMETHEUS_PREFIX + "stage_calls_total";
+        text.append("# HELP ").append(callsName).append(" Number of runs of each stage.\n")
+            .append("# TYPE ").append(callsName).append(" counter\n");
+        for (final Stage stage : Stage.values()) {
+            text.append(callsName).append("{stage=\"").append(stage.getName()).append("\"} ")
+                .append(getCalls(stage)).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Writes a snapshot of all the metrics to {@code file}, as JSON if the
+     * file name ends with {@code .json}, or else in the Prometheus text
+     * format (e.g.: for the <em>node_exporter</em> textfile collector).
+     */
+    public void write(final @NonNull Path file) throws IOException {
+        final boolean json = file.getFileName().toString().endsWith(".json");
+        Files.writeString(file, json ? toJson() : toPrometheus(), UTF_8);
+    }
+
+    private static @NonNull LongAdder @NonNull[] newAdders(final int count) {
+        final LongAdder adders[] = new LongAdder[count];
+        for (int index = 0; index < count; index++) {
+            adders[index] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public enum Counter {
+        CURSORS_VISITED("cursors_visited", "Cursors visited, including the skipped ones."),
+        CURSORS_SKIPPED("cursors_skipped", "Cursors skipped along with their subtrees by a cursor filter, e.g. as not in the main file."),
+        VISIT_CHILDREN_CALLS("visit_children_calls", "Calls to clang_visitChildren()."),
+        TOKENS("tokens", "Tokens returned by clang_tokenize()."),
+        BYTES_MAPPED("bytes_mapped", "Bytes of source files memory-mapped."),
+        GRAPH_NODES("graph_nodes", "Graph nodes written."),
+        GRAPH_EDGES("graph_edges", "Graph edges written."),
+        ;
+
+        private final @NonNull String name;
+
+        private final @NonNull String description;
+
+        Counter(final @NonNull String name, final @NonNull String description) {
+            this.name = name;
+            this.description = description;
+        }
+
+        @Contract(pure = true)
+        public @NonNull String getName() {
+            return name;
+        }
+
+        @Contract(pure = true)
+        public @NonNull String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * The native memory, as accounted for by <em>JavaCPP</em>: the memory
+     * allocated by <em>libclang</em> itself (e.g.: for the ASTs) is only
+     * included in {@link #PHYSICAL_BYTES}.
+     *
+     * @see NativeArena
+     */
+    public enum Gauge {
+        NATIVE_BYTES(
+                "native_bytes",
+                "Bytes of native memory allocated via JavaCPP and not yet freed.",
+                Pointer::totalBytes
+        ),
+        NATIVE_POINTERS(
+                "native_pointers",
+                "Native allocations made via JavaCPP and not yet freed.",
+                Pointer::totalCount
+        ),
+        PHYSICAL_BYTES(
+                "physical_bytes",
+                "Resident set size of the process, in bytes.",
+                Pointer::physicalBytes
+        ),
+        ;
+
+        private final @NonNull String name;
+
+        private final @NonNull String description;
+
+        private final @NonNull LongSupplier value;
+
+        Gauge(
+                final @NonNull String name,
+                final @NonNull String description,
+                final @NonNull LongSupplier value
+        ) {
+            this.name = name;
+            this.description = description;
+            this.value = value;
+        }
+
+        @Contract(pure = true)
+        public @NonNull String getName() {
+            return name;
+        }
+
+        @Contract(pure = true)
+        public @NonNull String getDescription() {
+            return description;
+        }
+
+        private long read() {
+            return value.getAsLong();
+        }
+    }
+
+    public enum Stage {
+        /**
+         * {@code clang_parseTranslationUnit2()} and
+         * {@code clang_reparseTranslationUnit()}.
+         */
+        PARSE("parse"),
+
+        /**
+         * A whole traversal of an AST.
+         */
+        VISIT("visit"),
+
+        /**
+         * {@code clang_tokenize()}.
+         */
+        TOKENIZE("tokenize"),
+
+        /**
+         * {@link SourceRange#getTextSequence()}.
+         */
+        SOURCE_TEXT("source_text"),
+
+        /**
+         * Adding nodes and edges to a graph.
+         */
+        GRAPH_LOAD("graph_load"),
+
+        /**
+         * Writing a graph out, e.g.: as GraphML.
+         */
+        GRAPH_EXPORT("graph_export"),
+        ;
+
+        private final @NonNull String name;
+
+        Stage(final @NonNull String name) {
+            this.name = name;
+        }
+
+        @Contract(pure = true)
+        public @NonNull String getName() {
+            return name;
+        }
+    }
+
+    @Name(STAGE_EVENT_NAME)
+    @Label("Pipeline Stage")
+    @Description("A single run of a stage of the AST pipeline.")
+    @Category("libclang")
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.clang;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.PointerScope;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Owns the native memory allocated by the current thread while it's open,
+ * and frees it all at once when closed.
+ *
+ * <p>
+ * Every struct <em>libclang</em> returns by value ({@code CXSourceRange},
+ * {@code CXSourceLocation}, {@code CXType}, {@code CXString}, etc.) is copied
+ * by <em>JavaCPP</em> into a native allocation of its own, which, unless
+ * closed explicitly, is only freed once the garbage collector gets to the
+ * {@link Pointer}. Since the Java objects are tiny, the collector may never
+ * get to them under a sustained load, while the process keeps growing.
+ * Opening an arena for the duration of a traversal makes all such
+ * allocations short-lived, whether they're closed or not (closing a pointer
+ * explicitly while the arena is still open is fine).
+ * </p>
+ *
+ * <p>
+ * Arenas nest: a pointer belongs to the innermost arena open at the time of
+ * its allocation. A pointer which should outlive the arena (e.g.: a buffer
+ * which is reused across traversals) should be {@linkplain #detach(Pointer)
+ * detached} right after its allocation.
+ * </p>
+ *
+ * <p>
+ * An arena is confined to the thread which has opened it, and should be
+ * closed in the reverse order of opening, preferably with a
+ * {@code try}-with-resources statement.
+ * </p>
+ *
+ * @see PointerScope
+ */
+public final class NativeArena implements AutoCloseable {
+    private final @NonNull PointerScope scope = new PointerScope();
+
+    /**
+     * Detaches the {@code pointer} from the innermost arena (if any), so
+     * that its memory is only freed when the pointer is closed explicitly or
+     * becomes unreachable.
+     *
+     * @return the {@code pointer} itself.
+     */
+    public static <P extends Pointer> @NonNull P detach(final @NonNull P pointer) {
+        final @Nullable PointerScope innerScope = PointerScope.getInnerScope();
+        if (innerScope != null) {
+            /*
+             * Detaching releases the reference held by the scope, which
+             * would free the memory unless another one is taken first.
+             */
+            pointer.retainReference();
+            innerScope.detach(pointer);
+        }
+        return pointer;
+    }
+
+    /**
+     * Frees the {@code pointer} right away, and drops it from the innermost
+     * arena (if any), which would otherwise hold on to it until closed.
+     */
+    static void release(final @NonNull Pointer pointer) {
+        final @Nullable PointerScope innerScope = PointerScope.getInnerScope();
+        if (innerScope == null) {
+            pointer.close();
+        } else {
+            /*
+             * Releases the reference held by the scope.
+             */
+            innerScope.detach(pointer);
+        }
+    }
+
+    @Override
+    public void close() {
+        scope.close();
+    }
+}
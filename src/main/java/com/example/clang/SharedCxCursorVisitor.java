@@ -0,0 +1,96 @@
+package com.example.clang;
+
+import org.bytedeco.llvm.clang.CXClientData;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXCursorVisitor;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.Serializable;
+
+import static org.bytedeco.llvm.global.clang.clang_visitChildren;
+
+/**
+ * The single native callback shared by all {@link CursorVisitor} invocations
+ * in the {@link ClientDataMode#HANDLE HANDLE} mode.
+ *
+ * <p>
+ * Each {@link CXCursorVisitor} instance owns a native function pointer thunk,
+ * which is expensive to allocate and release. Instead of creating a new
+ * callback per {@code clang_visitChildren()} call, the visitor and its client
+ * data are registered together as a single handle, and this callback
+ * dispatches each visited cursor to the right visitor.
+ * The instance is never released and may be invoked concurrently from
+ * multiple threads.
+ * </p>
+ *
+ * @see ClientDataHandles
+ */
+final class SharedCxCursorVisitor extends CXCursorVisitor {
+    /**
+     * Detached, since the class may well be initialized within the
+     * {@link NativeArena} of the first traversal.
+     */
+    private static final SharedCxCursorVisitor INSTANCE = NativeArena.detach(new SharedCxCursorVisitor());
+
+    private SharedCxCursorVisitor() {
+        // empty
+    }
+
+    /**
+     * @see CursorVisitor#visitChildren(CXCursor, Serializable)
+     */
+    static <T extends Serializable> boolean visitChildren(
+            final @NonNull CursorVisitor<T> visitor,
+            final @NonNull CXCursor parent,
+            final @NonNull T clientData
+    ) {
+        final long handle = ClientDataHandles.register(new Frame<>(visitor, clientData));
+        try (final CXClientData rawClientData = ClientDataHandles.toClientData(handle)) {
+            return clang_visitChildren(parent, INSTANCE, rawClientData) != 0;
+        } finally {
+            ClientDataHandles.release(handle);
+        }
+    }
+
+    @Override
+    public int call(
+            final @NonNull CXCursor cursor,
+            final @NonNull CXCursor parent,
+            final @NonNull CXClientData clientData
+    ) {
+        try {
+            final Frame<?> frame = ClientDataHandles.resolve(ClientDataHandles.fromClientData(clientData));
+            return frame.call(cursor, parent).ordinal();
+        } finally {
+            /*
+             * JavaCPP passes each cursor as a native copy of its own.
+             */
+            NativeArena.release(cursor);
+            NativeArena.release(parent);
+        }
+    }
+
+    /**
+     * A visitor along with the client data it has been invoked with.
+     */
+    private static final class Frame<T extends Serializable> {
+        private final @NonNull CursorVisitor<T> visitor;
+
+        private final @NonNull T clientData;
+
+        private Frame(
+                final @NonNull CursorVisitor<T> visitor,
+                final @NonNull T clientData
+        ) {
+            this.visitor = visitor;
+            this.clientData = clientData;
+        }
+
+        private @NonNull ChildVisitResult call(
+                final @NonNull CXCursor cursor,
+                final @NonNull CXCursor parent
+        ) {
+            return visitor.call(cursor, parent, clientData);
+        }
+    }
+}
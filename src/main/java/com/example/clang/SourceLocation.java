@@ -1,14 +1,18 @@
 package com.example.clang;
 
+import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.llvm.clang.CXCursor;
 import org.bytedeco.llvm.clang.CXFile;
 import org.bytedeco.llvm.clang.CXSourceLocation;
+import org.bytedeco.llvm.clang.CXString;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.nio.file.Path;
 
 import static java.lang.String.format;
 import static org.bytedeco.llvm.global.clang.clang_Location_isFromMainFile;
+import static org.bytedeco.llvm.global.clang.clang_disposeString;
+import static org.bytedeco.llvm.global.clang.clang_getCString;
 import static org.bytedeco.llvm.global.clang.clang_getCursorLocation;
 import static org.bytedeco.llvm.global.clang.clang_getFileName;
 import static org.bytedeco.llvm.global.clang.clang_getSpellingLocation;
@@ -36,12 +40,26 @@ public final class SourceLocation extends ClangAutoCloseable<CXSourceLocation> {
 
         clang_getSpellingLocation(resource, file, line, column, offsetBytes);
 
-        this.file = Path.of(clang_getFileName(file).getString());
+        /*
+         * Locations which don't belong to any file (e.g.: those of implicit
+         * declarations) have a null file name.
+         */
+        final CXString cxFileName = clang_getFileName(file);
+        try {
+            final BytePointer fileName = clang_getCString(cxFileName);
+            this.file = fileName == null ? Path.of("") : Path.of(fileName.getString());
+        } finally {
+            clang_disposeString(cxFileName);
+            cxFileName.close();
+        }
         this.line = line[0];
         this.column = column[0];
         this.offsetBytes = offsetBytes[0];
     }
 
+    /**
+     * @return the file this location belongs to, or an empty path if none.
+     */
     public @NonNull Path getFile() {
         return file;
     }
@@ -0,0 +1,98 @@
+package com.example.clang;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The unsaved files which {@link SourceRange#getText()} should read instead of
+ * their on-disk contents, so that the text of a range agrees with the
+ * translation unit it has been obtained from.
+ *
+ * <p>
+ * An overlay belongs to its owner (e.g.: a session of an editor), and is
+ * only visible to the lookups of a thread while {@linkplain #apply() applied}
+ * there, so that any other translation unit of the same file (or any other
+ * owner's overlay of it) still reads its own contents.
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @see UnsavedFile
+ * @see SourceTextCache#get(Path)
+ */
+public final class SourceOverlay {
+    /**
+     * The overlay applied on each thread, if any.
+     */
+    private static final ThreadLocal<@Nullable SourceOverlay> CURRENT = new ThreadLocal<>();
+
+    private final @NonNull ConcurrentMap<@NonNull Path, @NonNull UnsavedFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * Replaces the on-disk contents of the file with the unsaved ones.
+     */
+    public void put(final @NonNull UnsavedFile unsavedFile) {
+        files.put(unsavedFile.getFile().toAbsolutePath().normalize(), unsavedFile);
+    }
+
+    /**
+     * Restores the on-disk contents of the {@code file}.
+     */
+    public void remove(final @NonNull Path file) {
+        files.remove(file.toAbsolutePath().normalize());
+    }
+
+    public @Nullable UnsavedFile get(final @NonNull Path file) {
+        if (files.isEmpty()) {
+            return null;
+        }
+
+        return files.get(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Makes this overlay visible to the lookups of the current thread
+     * (replacing any other overlay applied there) until the returned scope
+     * is closed.
+     */
+    public @NonNull Scope apply() {
+        final Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(this);
+        return scope;
+    }
+
+    /**
+     * @return the unsaved contents of the {@code file} in the overlay applied
+     *   on the current thread, or {@code null} if there's none.
+     */
+    static @Nullable UnsavedFile lookup(final @NonNull Path file) {
+        final @Nullable SourceOverlay overlay = CURRENT.get();
+        return overlay == null ? null : overlay.get(file);
+    }
+
+    /**
+     * Restores the overlay previously applied on the thread, if any.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final @Nullable SourceOverlay previous;
+
+        private Scope(final @Nullable SourceOverlay previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
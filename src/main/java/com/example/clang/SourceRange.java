@@ -6,17 +6,13 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 
 import static com.example.clang.Utils.check;
 import static com.example.clang.Utils.require;
 import static java.lang.String.format;
-import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 import static java.nio.charset.Charset.defaultCharset;
-import static java.nio.file.StandardOpenOption.READ;
 import static org.bytedeco.llvm.global.clang.clang_getCursorExtent;
 import static org.bytedeco.llvm.global.clang.clang_getRangeEnd;
 import static org.bytedeco.llvm.global.clang.clang_getRangeStart;
@@ -30,6 +26,21 @@ public final class SourceRange extends ClangAutoCloseable<CXSourceRange> {
         this(clang_getCursorExtent(cursor));
     }
 
+    /**
+     * @return the beginning of this range, which should be closed by the
+     *   caller.
+     */
+    public @NonNull SourceLocation getBegin() {
+        return new SourceLocation(clang_getRangeStart(resource));
+    }
+
+    /**
+     * @return the end of this range, which should be closed by the caller.
+     */
+    public @NonNull SourceLocation getEnd() {
+        return new SourceLocation(clang_getRangeEnd(resource));
+    }
+
     /**
      * @return the fragment of the file content which corresponds to this range.
      * @see #getText(Charset)
@@ -39,18 +50,53 @@ public final class SourceRange extends ClangAutoCloseable<CXSourceRange> {
     }
 
     /**
-     * @return the fragment of the file content which corresponds to this range.
+     * @return the fragment of the file content which corresponds to this range,
+     *   read from the {@linkplain SourceOverlay unsaved file}, if any.
      * @see #getText()
+     * @see #getTextSequence(Charset)
      */
     public @NonNull String getText(final @NonNull Charset charset) {
-        final SourceLocation beginLocation = new SourceLocation(clang_getRangeStart(resource));
-        final SourceLocation endLocation = new SourceLocation(clang_getRangeEnd(resource));
+        return getTextSequence(charset).toString();
+    }
+
+    /**
+     * @return the fragment of the file content which corresponds to this
+     *   range, which is only decoded if really needed.
+     * @see #getTextSequence(Charset)
+     */
+    public @NonNull CharSequence getTextSequence() {
+        return getTextSequence(defaultCharset());
+    }
 
-        final Path beginFile = beginLocation.getFile();
-        final int beginOffsetBytes = beginLocation.getOffsetBytes();
+    /**
+     * @return the fragment of the file content which corresponds to this
+     *   range, read from the {@linkplain SourceOverlay unsaved file}, if any,
+     *   and only decoded if really needed.
+     * @see SourceTextCache
+     * @see #getText(Charset)
+     */
+    public @NonNull CharSequence getTextSequence(final @NonNull Charset charset) {
+        final long start = Metrics.getDefault().start();
+        try {
+            return textSequence(charset);
+        } finally {
+            Metrics.getDefault().stop(Metrics.Stage.SOURCE_TEXT, start);
+        }
+    }
 
-        final Path endFile = endLocation.getFile();
-        final int endOffsetBytes = endLocation.getOffsetBytes();
+    private @NonNull CharSequence textSequence(final @NonNull Charset charset) {
+        final Path beginFile;
+        final int beginOffsetBytes;
+        final Path endFile;
+        final int endOffsetBytes;
+        try (final SourceLocation beginLocation = getBegin();
+             final SourceLocation endLocation = getEnd()) {
+            beginFile = beginLocation.getFile();
+            beginOffsetBytes = beginLocation.getOffsetBytes();
+
+            endFile = endLocation.getFile();
+            endOffsetBytes = endLocation.getOffsetBytes();
+        }
 
         check(
                 beginOffsetBytes >= 0,
@@ -84,9 +130,8 @@ public final class SourceRange extends ClangAutoCloseable<CXSourceRange> {
 
         final int size = endOffsetBytes - beginOffsetBytes;
 
-        try (final FileChannel channel = FileChannel.open(beginFile, READ)) {
-            final MappedByteBuffer mappedBuffer = channel.map(READ_ONLY, beginOffsetBytes, size);
-            return charset.decode(mappedBuffer).toString();
+        try {
+            return SourceTextCache.getDefault().get(beginFile).subSequence(beginOffsetBytes, size, charset);
         } catch (final IOException ioe) {
             throw new UncheckedIOException(ioe);
         }
@@ -107,32 +152,43 @@ public final class SourceRange extends ClangAutoCloseable<CXSourceRange> {
      */
     @Override
     public @NonNull String toString() {
-        final SourceLocation beginLocation = new SourceLocation(clang_getRangeStart(resource));
-        final SourceLocation endLocation = new SourceLocation(clang_getRangeEnd(resource));
-
-        final Path beginFile = beginLocation.getFile();
-        final int beginLine = beginLocation.getLine();
-        final int beginColumn = beginLocation.getColumn();
-
-        final Path endFile = endLocation.getFile();
-        final int endLine = endLocation.getLine();
-        final int endColumn = endLocation.getColumn();
+        try (final SourceLocation beginLocation = getBegin();
+             final SourceLocation endLocation = getEnd()) {
+            return toString(
+                    beginLocation.getFile(),
+                    beginLocation.getLine(),
+                    beginLocation.getColumn(),
+                    endLocation.getFile(),
+                    endLocation.getLine(),
+                    endLocation.getColumn()
+            );
+        }
+    }
 
+    /**
+     * @return the string representation of a range with the given
+     *   coordinates, in the same form as {@link #toString()}.
+     */
+    public static @NonNull String toString(
+            final @NonNull Path beginFile,
+            final int beginLine,
+            final int beginColumn,
+            final @NonNull Path endFile,
+            final int endLine,
+            final int endColumn
+    ) {
         if (beginFile.equals(endFile)) {
             /*-
              * sourcefile:line1:column1-line2:column2
              * sourcefile:line:column1-column2
              * sourcefile:line:column
              */
-            return format(
-                    "%s:%s",
+            return toString(
                     beginFile,
-                    toString(
-                            beginLine,
-                            beginColumn,
-                            endLine,
-                            endColumn
-                    )
+                    beginLine,
+                    beginColumn,
+                    endLine,
+                    endColumn
             );
         }
 
@@ -140,9 +196,37 @@ public final class SourceRange extends ClangAutoCloseable<CXSourceRange> {
          * file1:line1:column1-file2:line2:column2
          */
         return format(
-                "%s-%s",
-                beginLocation,
-                endLocation
+                "%s:%d:%d-%s:%d:%d",
+                beginFile,
+                beginLine,
+                beginColumn,
+                endFile,
+                endLine,
+                endColumn
+        );
+    }
+
+    /**
+     * @return the string representation of a range which begins and ends
+     *   in the same {@code file}.
+     * @see #toString()
+     */
+    static @NonNull String toString(
+            final @NonNull Path file,
+            final int beginLine,
+            final int beginColumn,
+            final int endLine,
+            final int endColumn
+    ) {
+        return format(
+                "%s:%s",
+                file,
+                toString(
+                        beginLine,
+                        beginColumn,
+                        endLine,
+                        endColumn
+                )
         );
     }
 
@@ -0,0 +1,315 @@
+package com.example.clang;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.example.clang.Utils.require;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * The contents of a source file (either memory-mapped, or an
+ * {@linkplain UnsavedFile unsaved file}), which hands out zero-copy slices by
+ * byte offset.
+ *
+ * <p>
+ * If the file is pure ASCII, text is decoded without a
+ * {@link java.nio.charset.CharsetDecoder} (as long as the charset is
+ * ASCII-compatible), and {@linkplain #subSequence(int, int, Charset)
+ * character sequences} are backed by the bytes directly.
+ * </p>
+ *
+ * <p>
+ * Instances are immutable and thread-safe.
+ * </p>
+ *
+ * @see SourceTextCache
+ */
+public final class SourceText {
+    private static final ConcurrentMap<@NonNull Charset, @NonNull Boolean> ASCII_COMPATIBLE = new ConcurrentHashMap<>();
+
+    private final @NonNull Path file;
+
+    /**
+     * A read-only buffer, with the position of 0 and the limit equal to the
+     * file size, which is never modified (only sliced).
+     */
+    private final @NonNull ByteBuffer contents;
+
+    private final boolean ascii;
+
+    /**
+     * The offsets (0-based) at which each line begins, in ascending order,
+     * computed lazily.
+     */
+    private volatile int @Nullable[] lineOffsets;
+
+    SourceText(final @NonNull Path file, final @NonNull ByteBuffer contents) {
+        this.file = file;
+        this.contents = contents.asReadOnlyBuffer();
+        ascii = isAscii(this.contents);
+    }
+
+    public @NonNull Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the size of the file, in bytes.
+     */
+    @Contract(pure = true)
+    public int size() {
+        return contents.limit();
+    }
+
+    /**
+     * @return whether the file consists of ASCII characters only.
+     */
+    @Contract(pure = true)
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    /**
+     * @return the line number (1-based) of the byte {@code offset}.
+     */
+    public int getLine(final int offsetBytes) {
+        final int index = Arrays.binarySearch(lineOffsets(), offsetBytes);
+        return index >= 0 ? index + 1 : -(index + 1);
+    }
+
+    /**
+     * @return the column number (1-based, in bytes) of the byte
+     *   {@code offset}.
+     */
+    public int getColumn(final int offsetBytes) {
+        return offsetBytes - lineOffsets()[getLine(offsetBytes) - 1] + 1;
+    }
+
+    /**
+     * @return the string representation of the {@code [beginOffsetBytes, endOffsetBytes)}
+     *   range, formatted exactly as {@link SourceRange#toString()} would.
+     */
+    public @NonNull String formatRange(final int beginOffsetBytes, final int endOffsetBytes) {
+        final int beginLine = getLine(beginOffsetBytes);
+        final int endLine = getLine(endOffsetBytes);
+        final int lineOffsets[] = lineOffsets();
+        return SourceRange.toString(
+                file,
+                beginLine,
+                beginOffsetBytes - lineOffsets[beginLine - 1] + 1,
+                endLine,
+                endOffsetBytes - lineOffsets[endLine - 1] + 1
+        );
+    }
+
+    /**
+     * @return the read-only zero-copy slice of the contents.
+     * @throws IllegalArgumentException if the range is out of bounds.
+     */
+    public @NonNull ByteBuffer slice(final int offsetBytes, final int lengthBytes) {
+        checkBounds(offsetBytes, lengthBytes);
+        return contents.slice(offsetBytes, lengthBytes);
+    }
+
+    /**
+     * @return the decoded fragment of the contents.
+     * @throws IllegalArgumentException if the range is out of bounds.
+     */
+    public @NonNull String decode(
+            final int offsetBytes,
+            final int lengthBytes,
+            final @NonNull Charset charset
+    ) {
+        checkBounds(offsetBytes, lengthBytes);
+        if (lengthBytes == 0) {
+            return "";
+        }
+
+        if (isDirect(charset)) {
+            /*
+             * A Latin-1 string is a plain copy of the bytes.
+             */
+            final byte bytes[] = new byte[lengthBytes];
+            contents.get(offsetBytes, bytes);
+            return new String(bytes, ISO_8859_1);
+        }
+
+        return charset.decode(contents.slice(offsetBytes, lengthBytes)).toString();
+    }
+
+    /**
+     * @return the fragment of the contents, which is only decoded if really
+     *   needed (i.e. never, if the file is pure ASCII).
+     * @throws IllegalArgumentException if the range is out of bounds.
+     */
+    public @NonNull CharSequence subSequence(
+            final int offsetBytes,
+            final int lengthBytes,
+            final @NonNull Charset charset
+    ) {
+        checkBounds(offsetBytes, lengthBytes);
+        return new Slice(offsetBytes, lengthBytes, charset);
+    }
+
+    /**
+     * @return whether the bytes of the contents are also its characters in
+     *   the {@code charset}.
+     */
+    boolean isDirect(final @NonNull Charset charset) {
+        return ascii && isAsciiCompatible(charset);
+    }
+
+    /**
+     * @return the byte at the {@code offset}, unchecked.
+     */
+    byte byteAt(final int offsetBytes) {
+        return contents.get(offsetBytes);
+    }
+
+    private void checkBounds(final int offsetBytes, final int lengthBytes) {
+        require(
+                offsetBytes >= 0 && lengthBytes >= 0 && offsetBytes + lengthBytes <= size(),
+                () -> format(
+                        "Range [%d, %d) is out of bounds of %s (%d bytes)",
+                        offsetBytes,
+                        offsetBytes + lengthBytes,
+                        file,
+                        size()
+                )
+        );
+    }
+
+    private int @NonNull[] lineOffsets() {
+        int result[] = lineOffsets;
+        if (result == null) {
+            result = lineOffsets(contents);
+            lineOffsets = result;
+        }
+        return result;
+    }
+
+    /**
+     * Lines may be terminated with {@code \n}, {@code \r\n} or {@code \r}.
+     */
+    private static int @NonNull[] lineOffsets(final @NonNull ByteBuffer contents) {
+        final int size = contents.limit();
+        int lineCount = 1;
+        int offsets[] = new int[64];
+        for (int offset = 0; offset < size; offset++) {
+            final byte b = contents.get(offset);
+            if (b == '\n' || b == '\r' && (offset + 1 == size || contents.get(offset + 1) != '\n')) {
+                if (lineCount == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * lineCount);
+                }
+                offsets[lineCount++] = offset + 1;
+            }
+        }
+        return Arrays.copyOf(offsets, lineCount);
+    }
+
+    private static boolean isAscii(final @NonNull ByteBuffer buffer) {
+        final int limit = buffer.limit();
+        int index = 0;
+        for (; index + Long.BYTES <= limit; index += Long.BYTES) {
+            if ((buffer.getLong(index) & 0x8080808080808080L) != 0) {
+                return false;
+            }
+        }
+        for (; index < limit; index++) {
+            if (buffer.get(index) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the {@code charset} encodes the ASCII characters
+     *   exactly as ASCII does (e.g.: UTF-8 and ISO-8859-1 do, UTF-16 doesn't).
+     */
+    private static boolean isAsciiCompatible(final @NonNull Charset charset) {
+        return ASCII_COMPATIBLE.computeIfAbsent(charset, it -> {
+            final byte ascii[] = new byte[0x80];
+            for (int b = 0; b < ascii.length; b++) {
+                ascii[b] = (byte) b;
+            }
+            return it.canEncode()
+                   && Arrays.equals(new String(ascii, ISO_8859_1).getBytes(it), ascii);
+        });
+    }
+
+    /**
+     * A lazily decoded fragment of the contents.
+     */
+    private final class Slice implements CharSequence {
+        private final int offsetBytes;
+
+        private final int lengthBytes;
+
+        private final @NonNull Charset charset;
+
+        /**
+         * Whether the characters are the bytes themselves.
+         */
+        private final boolean direct;
+
+        private @Nullable String decoded;
+
+        private Slice(
+                final int offsetBytes,
+                final int lengthBytes,
+                final @NonNull Charset charset
+        ) {
+            this.offsetBytes = offsetBytes;
+            this.lengthBytes = lengthBytes;
+            this.charset = charset;
+            direct = isDirect(charset);
+        }
+
+        @Override
+        public int length() {
+            return direct ? lengthBytes : toString().length();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (direct) {
+                if (index < 0 || index >= lengthBytes) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                return (char) contents.get(offsetBytes + index);
+            }
+            return toString().charAt(index);
+        }
+
+        @Override
+        public @NonNull CharSequence subSequence(final int start, final int end) {
+            if (direct) {
+                if (start < 0 || end > lengthBytes || start > end) {
+                    throw new IndexOutOfBoundsException(format("[%d, %d) of %d", start, end, lengthBytes));
+                }
+                return new Slice(offsetBytes + start, end - start, charset);
+            }
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public @NonNull String toString() {
+            String result = decoded;
+            if (result == null) {
+                result = decode(offsetBytes, lengthBytes, charset);
+                decoded = result;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.clang;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.clang.Utils.require;
+import static java.lang.String.format;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Maps each source file into memory once, and then hands out the same
+ * {@link SourceText} for all subsequent requests, so that reading the text of
+ * millions of source ranges doesn't result in millions of
+ * {@code mmap()}/{@code munmap()} calls.
+ *
+ * <p>
+ * Entries are keyed by the file path, and are re-validated against the file
+ * modification time and size (at most once per {@code validationInterval},
+ * to avoid a {@code stat()} call per lookup). The cache is bounded by both
+ * the number of files and the total number of mapped bytes, and evicts the
+ * least recently used mappings first (the memory is unmapped once the
+ * mapping becomes unreachable).
+ * </p>
+ *
+ * <p>
+ * {@linkplain SourceOverlay Unsaved files} (of the overlay applied on the
+ * calling thread, if any) take precedence over the on-disk contents, and are
+ * never cached here (each {@link UnsavedFile} keeps its own
+ * {@link SourceText} instead).
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @see SourceRange#getText()
+ */
+public final class SourceTextCache {
+    private static final SourceTextCache DEFAULT = new SourceTextCache(
+            256,
+            1L << 30,
+            TimeUnit.SECONDS.toNanos(1L)
+    );
+
+    private final int maxFiles;
+
+    private final long maxBytes;
+
+    private final long validationIntervalNanos;
+
+    /**
+     * Guarded by {@code this}.
+     */
+    private final @NonNull LinkedHashMap<@NonNull Path, @NonNull Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The total size of all {@link #entries}, guarded by {@code this}.
+     */
+    private long mappedBytes;
+
+    /**
+     * @param maxFiles the maximum number of files kept mapped.
+     * @param maxBytes the maximum total size of the files kept mapped;
+     *                 a single larger file is still mapped, but evicts
+     *                 everything else.
+     * @param validationIntervalNanos how long an entry is trusted before its
+     *                                modification time and size are checked
+     *                                again.
+     */
+    public SourceTextCache(
+            final int maxFiles,
+            final long maxBytes,
+            final long validationIntervalNanos
+    ) {
+        require(maxFiles > 0, () -> "maxFiles should be positive: " + maxFiles);
+        require(maxBytes > 0L, () -> "maxBytes should be positive: " + maxBytes);
+        require(validationIntervalNanos >= 0L, () -> "validationIntervalNanos is negative: " + validationIntervalNanos);
+
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.validationIntervalNanos = validationIntervalNanos;
+    }
+
+    /**
+     * @return the cache shared by all {@link SourceRange}s.
+     */
+    @Contract(pure = true)
+    public static @NonNull SourceTextCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the current contents of the {@code file}.
+     * @throws IOException if the file can't be read.
+     */
+    public @NonNull SourceText get(final @NonNull Path file) throws IOException {
+        final UnsavedFile unsavedFile = SourceOverlay.lookup(file);
+        if (unsavedFile != null) {
+            return unsavedFile.getText();
+        }
+
+        final Path key = file.toAbsolutePath().normalize();
+        final long now = System.nanoTime();
+
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null && now - entry.validatedAtNanos < validationIntervalNanos) {
+                return entry.text;
+            }
+        }
+
+        /*
+         * Stat and map the file outside the lock.
+         */
+        final BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        final long lastModifiedNanos = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        final long size = attributes.size();
+
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null && entry.lastModifiedNanos == lastModifiedNanos && entry.size == size) {
+                entry.validatedAtNanos = now;
+                return entry.text;
+            }
+        }
+
+        final Entry newEntry = new Entry(map(key, size), lastModifiedNanos, size, now);
+        synchronized (this) {
+            final Entry oldEntry = entries.put(key, newEntry);
+            if (oldEntry != null) {
+                mappedBytes -= oldEntry.size;
+            }
+            mappedBytes += newEntry.size;
+            evict();
+        }
+
+        return newEntry.text;
+    }
+
+    /**
+     * @return the number of files currently mapped.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total size of the files currently mapped.
+     */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * Drops all the mappings.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        mappedBytes = 0L;
+    }
+
+    /**
+     * Evicts the least recently used entries, but always keeps the most
+     * recently used one.
+     */
+    private void evict() {
+        assert Thread.holdsLock(this);
+
+        final Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > 1 && (entries.size() > maxFiles || mappedBytes > maxBytes)) {
+            final Entry eldest = it.next();
+            mappedBytes -= eldest.size;
+            it.remove();
+        }
+    }
+
+    private static @NonNull SourceText map(final @NonNull Path file, final long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(format("%s is too large: %d bytes", file, size));
+        }
+
+        try (final FileChannel channel = FileChannel.open(file, READ)) {
+            /*
+             * The mapping stays valid once the channel is closed.
+             */
+            final SourceText text = new SourceText(file, channel.map(READ_ONLY, 0L, size));
+            Metrics.getDefault().add(Metrics.Counter.BYTES_MAPPED, size);
+            return text;
+        }
+    }
+
+    private static final class Entry {
+        private final @NonNull SourceText text;
+
+        private final long lastModifiedNanos;
+
+        private final long size;
+
+        private long validatedAtNanos;
+
+        private Entry(
+                final @NonNull SourceText text,
+                final long lastModifiedNanos,
+                final long size,
+                final long validatedAtNanos
+        ) {
+            this.text = text;
+            this.lastModifiedNanos = lastModifiedNanos;
+            this.size = size;
+            this.validatedAtNanos = validatedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.clang;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+
+import java.nio.charset.Charset;
+
+import static com.example.clang.Utils.require;
+import static java.lang.String.format;
+
+/**
+ * A bounded, lossy string pool, so that the millions of identical strings of
+ * a large AST (identifiers, punctuation, type spellings) share a handful of
+ * instances rather than each node retaining its own copy.
+ *
+ * <p>
+ * The pool is a fixed-size table indexed by the string hash, so memory is
+ * bounded by {@code capacity} strings of at most {@code maxLength}
+ * characters each; a colliding string simply replaces the previous one
+ * (which is then no longer shared, but stays valid). Unlike
+ * {@link String#intern()}, interned strings are never pinned, and lookups
+ * take no lock.
+ * </p>
+ *
+ * <p>
+ * Fragments of an ASCII {@link SourceText} are looked up without decoding
+ * them first, so that a hit allocates nothing
+ * (see {@link #intern(SourceText, int, int, Charset)}).
+ * </p>
+ *
+ * <p>
+ * This class is thread-safe: the table is read and written without
+ * synchronization, which is benign since strings are immutable (a racing
+ * reader may only miss, never see a partially constructed string).
+ * </p>
+ */
+public final class StringInterner {
+    private static final StringInterner DEFAULT = new StringInterner(1 << 16, 128);
+
+    private final @Nullable String table @NonNull[];
+
+    private final int mask;
+
+    private final int maxLength;
+
+    /**
+     * @param capacity the size of the table, a power of 2.
+     * @param maxLength the length of the longest string worth interning;
+     *                  longer strings are returned as-is.
+     */
+    public StringInterner(final int capacity, final int maxLength) {
+        require(
+                capacity > 0 && Integer.bitCount(capacity) == 1,
+                () -> "capacity should be a positive power of 2: " + capacity
+        );
+        require(maxLength >= 0, () -> "maxLength is negative: " + maxLength);
+
+        table = new String[capacity];
+        mask = capacity - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the pool shared by all AST builders.
+     */
+    @Contract(pure = true)
+    public static @NonNull StringInterner getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the pooled string equal to {@code value}, or {@code value}
+     *   itself (which then becomes pooled).
+     */
+    public @NonNull String intern(final @NonNull String value) {
+        if (value.length() > maxLength) {
+            return value;
+        }
+
+        final int slot = slot(value.hashCode());
+        final String cached = table[slot];
+        if (value.equals(cached)) {
+            return cached;
+        }
+
+        table[slot] = value;
+        return value;
+    }
+
+    /**
+     * @return the pooled string equal to {@code prefix + separator + suffix},
+     *   which is only concatenated on a miss.
+     */
+    public @NonNull String intern(
+            final @NonNull String prefix,
+            final char separator,
+            final @NonNull String suffix
+    ) {
+        final int length = prefix.length() + 1 + suffix.length();
+        if (length > maxLength) {
+            return prefix + separator + suffix;
+        }
+
+        /*
+         * The hash code of the concatenation, see `String.hashCode()`.
+         */
+        int hash = prefix.hashCode();
+        hash = 31 * hash + separator;
+        for (int index = 0; index < suffix.length(); index++) {
+            hash = 31 * hash + suffix.charAt(index);
+        }
+
+        final int slot = slot(hash);
+        final String cached = table[slot];
+        if (cached != null
+            && cached.length() == length
+            && cached.startsWith(prefix)
+            && cached.charAt(prefix.length()) == separator
+            && cached.endsWith(suffix)) {
+            return cached;
+        }
+
+        final String value = prefix + separator + suffix;
+        table[slot] = value;
+        return value;
+    }
+
+    /**
+     * @return the pooled string equal to the decoded fragment of
+     *   {@code text}; if the text is ASCII, the fragment is only decoded on
+     *   a miss.
+     * @throws IllegalArgumentException if the range is out of bounds.
+     * @see SourceText#decode(int, int, Charset)
+     */
+    public @NonNull String intern(
+            final @NonNull SourceText text,
+            final int offsetBytes,
+            final int lengthBytes,
+            final @NonNull Charset charset
+    ) {
+        if (lengthBytes > maxLength || !text.isDirect(charset)) {
+            return intern(text.decode(offsetBytes, lengthBytes, charset));
+        }
+
+        require(
+                offsetBytes >= 0 && lengthBytes >= 0 && offsetBytes + lengthBytes <= text.size(),
+                () -> format("Range [%d, %d) is out of bounds of %s", offsetBytes, offsetBytes + lengthBytes, text.getFile())
+        );
+
+        int hash = 0;
+        for (int index = 0; index < lengthBytes; index++) {
+            hash = 31 * hash + text.byteAt(offsetBytes + index);
+        }
+
+        final int slot = slot(hash);
+        final String cached = table[slot];
+        if (cached != null && contentEquals(cached, text, offsetBytes, lengthBytes)) {
+            return cached;
+        }
+
+        final String value = text.decode(offsetBytes, lengthBytes, charset);
+        table[slot] = value;
+        return value;
+    }
+
+    /**
+     * @return the number of strings the pool can hold.
+     */
+    @Contract(pure = true)
+    public int capacity() {
+        return table.length;
+    }
+
+    private int slot(final int hash) {
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    private static boolean contentEquals(
+            final @NonNull String value,
+            final @NonNull SourceText text,
+            final int offsetBytes,
+            final int lengthBytes
+    ) {
+        if (value.length() != lengthBytes) {
+            return false;
+        }
+        for (int index = 0; index < lengthBytes; index++) {
+            if (value.charAt(index) != text.byteAt(offsetBytes + index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
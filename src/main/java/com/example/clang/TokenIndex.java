@@ -0,0 +1,280 @@
+package com.example.clang;
+
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXFile;
+import org.bytedeco.llvm.clang.CXSourceLocation;
+import org.bytedeco.llvm.clang.CXSourceRange;
+import org.bytedeco.llvm.clang.CXToken;
+import org.bytedeco.llvm.clang.CXTranslationUnit;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.jetbrains.annotations.Contract;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static com.example.clang.Utils.check;
+import static com.example.clang.Utils.require;
+import static java.lang.String.format;
+import static java.nio.charset.Charset.defaultCharset;
+import static org.bytedeco.llvm.global.clang.clang_getCursorExtent;
+import static org.bytedeco.llvm.global.clang.clang_getFile;
+import static org.bytedeco.llvm.global.clang.clang_getFileLocation;
+import static org.bytedeco.llvm.global.clang.clang_getFileName;
+import static org.bytedeco.llvm.global.clang.clang_getLocationForOffset;
+import static org.bytedeco.llvm.global.clang.clang_getRange;
+import static org.bytedeco.llvm.global.clang.clang_getRangeEnd;
+import static org.bytedeco.llvm.global.clang.clang_getRangeStart;
+import static org.bytedeco.llvm.global.clang.clang_getTokenExtent;
+import static org.bytedeco.llvm.global.clang.clang_getTokenKind;
+
+/**
+ * All the tokens of a single file, tokenized once and stored in sorted
+ * primitive arrays of (offset, length, kind).
+ *
+ * <p>
+ * Instead of calling {@code clang_tokenize()} (and then
+ * {@code clang_disposeTokens()}) for every leaf cursor, a visitor can look
+ * its tokens up with a binary search (see {@link #forEachToken(CXCursor, IntConsumer)}),
+ * which turns per-leaf native round-trips into array slices and makes the
+ * tokenization cost linear in the file size. The token text and the source
+ * range are derived from the file contents and its line table, with no
+ * further native calls (see {@link SourceText#formatRange(int, int)}).
+ * </p>
+ *
+ * <p>
+ * The contents of the file are read through the {@link SourceTextCache}
+ * (i.e. from the {@linkplain SourceOverlay unsaved file}, if any, so that
+ * they agree with the translation unit).
+ * </p>
+ *
+ * <p>
+ * Instances are immutable and thread-safe, but become invalid once the
+ * translation unit is closed or re-parsed.
+ * </p>
+ *
+ * @see Tokens
+ */
+public final class TokenIndex {
+    private final @NonNull CXFile cxFile;
+
+    /**
+     * The contents of the file, looked up by the file name as reported by
+     * <em>libclang</em>, so that the ranges are formatted exactly as those
+     * of {@link SourceRange#toString()}.
+     */
+    private final @NonNull SourceText contents;
+
+    private final @NonNull Charset charset;
+
+    /**
+     * The token offsets, in ascending order.
+     */
+    private final int offsets[];
+
+    private final int lengths[];
+
+    /**
+     * The {@code CXTokenKind} values.
+     */
+    private final int kinds[];
+
+    /**
+     * Tokenizes the whole {@code file}, decoding the token text with the
+     * default charset.
+     *
+     * @throws IOException if the file can't be read.
+     * @throws IllegalArgumentException if the {@code file} doesn't belong
+     *   to the translation unit.
+     */
+    public TokenIndex(
+            final @NonNull CXTranslationUnit translationUnit,
+            final @NonNull Path file
+    ) throws IOException {
+        this(translationUnit, file, defaultCharset());
+    }
+
+    /**
+     * Tokenizes the whole {@code file}.
+     *
+     * @throws IOException if the file can't be read.
+     * @throws IllegalArgumentException if the {@code file} doesn't belong
+     *   to the translation unit.
+     */
+    public TokenIndex(
+            final @NonNull CXTranslationUnit translationUnit,
+            final @NonNull Path file,
+            final @NonNull Charset charset
+    ) throws IOException {
+        cxFile = clang_getFile(translationUnit, file.toString());
+        require(!cxFile.isNull(), () -> "Not a part of the translation unit: " + file);
+
+        contents = SourceTextCache.getDefault().get(Path.of(clang_getFileName(cxFile).getString()));
+        this.charset = charset;
+
+        try (final CXSourceRange range = wholeFileRange(translationUnit);
+             final Tokens tokens = new Tokens(translationUnit, range)) {
+            final int tokenCount = tokens.getTokenCount();
+            offsets = new int[tokenCount];
+            lengths = new int[tokenCount];
+            kinds = new int[tokenCount];
+
+            final int[] beginOffset = new int[1];
+            final int[] endOffset = new int[1];
+            tokens.forEachIndexed(triple -> {
+                final int index = triple.getFirst();
+                final CXToken token = triple.getThird();
+
+                final CXSourceRange extent = clang_getTokenExtent(translationUnit, token);
+                try {
+                    fileOffset(clang_getRangeStart(extent), beginOffset);
+                    fileOffset(clang_getRangeEnd(extent), endOffset);
+                } finally {
+                    extent.close();
+                }
+
+                offsets[index] = beginOffset[0];
+                lengths[index] = endOffset[0] - beginOffset[0];
+                kinds[index] = clang_getTokenKind(token);
+            });
+        }
+
+        for (int index = 1; index < offsets.length; index++) {
+            final int previous = index - 1;
+            check(
+                    offsets[previous] + lengths[previous] <= offsets[index],
+                    () -> format("Tokens %d and %d overlap in %s", previous, previous + 1, contents.getFile())
+            );
+        }
+    }
+
+    @Contract(pure = true)
+    public int getTokenCount() {
+        return offsets.length;
+    }
+
+    /**
+     * @return the offset of the token, in bytes.
+     */
+    @Contract(pure = true)
+    public int getOffset(final int token) {
+        return offsets[token];
+    }
+
+    /**
+     * @return the length of the token, in bytes.
+     */
+    @Contract(pure = true)
+    public int getLength(final int token) {
+        return lengths[token];
+    }
+
+    /**
+     * @return the {@code CXTokenKind} of the token.
+     */
+    @Contract(pure = true)
+    public int getKind(final int token) {
+        return kinds[token];
+    }
+
+    /**
+     * @return the spelling of the token, {@linkplain StringInterner#getDefault() interned}.
+     */
+    public @NonNull String getText(final int token) {
+        return StringInterner.getDefault().intern(contents, offsets[token], lengths[token], charset);
+    }
+
+    /**
+     * @return the source range of the token, formatted exactly as
+     *   {@link SourceRange#toString()} would.
+     */
+    public @NonNull String getRange(final int token) {
+        return contents.formatRange(offsets[token], offsets[token] + lengths[token]);
+    }
+
+    /**
+     * @return the contents of the indexed file.
+     */
+    public @NonNull SourceText getSourceText() {
+        return contents;
+    }
+
+    /**
+     * Passes the indices of all the tokens within the extent of
+     * {@code cursor} to {@code action}, in ascending order.
+     *
+     * <p>
+     * The tokens are exactly those which {@link Tokens#Tokens(CXCursor)}
+     * would return: the first token which begins at or after the beginning
+     * of the extent, and each subsequent one for as long as the previous one
+     * ends before the end of the extent.
+     * </p>
+     *
+     * @return {@code false} if the extent of the {@code cursor} doesn't
+     *   belong to the indexed file (e.g.: because it's a macro expansion
+     *   from a different file), in which case nothing is passed to the
+     *   {@code action}, and the caller should fall back to
+     *   {@link Tokens#Tokens(CXCursor)}.
+     */
+    public boolean forEachToken(
+            final @NonNull CXCursor cursor,
+            final @NonNull IntConsumer action
+    ) {
+        final int beginOffset[] = new int[1];
+        final int endOffset[] = new int[1];
+        final CXSourceRange extent = clang_getCursorExtent(cursor);
+        try {
+            if (!fileOffset(clang_getRangeStart(extent), beginOffset)
+                || !fileOffset(clang_getRangeEnd(extent), endOffset)) {
+                return false;
+            }
+        } finally {
+            extent.close();
+        }
+
+        final int from = firstTokenAtOrAfter(beginOffset[0]);
+        for (int token = from; token < offsets.length; token++) {
+            if (token > from && offsets[token - 1] + lengths[token - 1] >= endOffset[0]) {
+                break;
+            }
+            action.accept(token);
+        }
+        return true;
+    }
+
+    private int firstTokenAtOrAfter(final int offset) {
+        final int index = Arrays.binarySearch(offsets, offset);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * Stores the file offset of {@code location} (which is closed) in
+     * {@code offset}.
+     *
+     * @return {@code true} if the location belongs to the indexed file.
+     */
+    private boolean fileOffset(
+            final @NonNull CXSourceLocation location,
+            final int offset[]
+    ) {
+        try (final CXFile file = new CXFile()) {
+            clang_getFileLocation(location, file, (int[]) null, null, offset);
+            return file.address() == cxFile.address();
+        } finally {
+            location.close();
+        }
+    }
+
+    private @NonNull CXSourceRange wholeFileRange(final @NonNull CXTranslationUnit translationUnit) {
+        final CXSourceLocation begin = clang_getLocationForOffset(translationUnit, cxFile, 0);
+        final CXSourceLocation end = clang_getLocationForOffset(translationUnit, cxFile, contents.size());
+        try {
+            return clang_getRange(begin, end);
+        } finally {
+            begin.close();
+            end.close();
+        }
+    }
+}
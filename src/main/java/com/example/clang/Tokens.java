@@ -74,8 +74,11 @@ public final class Tokens extends ClangAutoCloseable<CXToken> {
         super(new CXToken());
         this.translationUnit = translationUnit;
         final int tokenCount[] = new int[1];
+        final long start = Metrics.getDefault().start();
         clang_tokenize(translationUnit, range, resource, tokenCount);
+        Metrics.getDefault().stop(Metrics.Stage.TOKENIZE, start);
         this.tokenCount = tokenCount[0];
+        Metrics.getDefault().add(Metrics.Counter.TOKENS, this.tokenCount);
 
         if (disposeArguments) {
             /*
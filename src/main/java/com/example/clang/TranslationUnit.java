@@ -0,0 +1,245 @@
+package com.example.clang;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.llvm.clang.CXClientData;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXFile;
+import org.bytedeco.llvm.clang.CXInclusionVisitor;
+import org.bytedeco.llvm.clang.CXSourceLocation;
+import org.bytedeco.llvm.clang.CXTranslationUnit;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.example.clang.Metrics.Stage.PARSE;
+import static com.example.clang.Utils.check;
+import static java.lang.String.format;
+import static org.bytedeco.llvm.global.clang.CXError_ASTReadError;
+import static org.bytedeco.llvm.global.clang.CXError_Crashed;
+import static org.bytedeco.llvm.global.clang.CXError_Failure;
+import static org.bytedeco.llvm.global.clang.CXError_InvalidArguments;
+import static org.bytedeco.llvm.global.clang.CXError_Success;
+import static org.bytedeco.llvm.global.clang.CXSaveError_InvalidTU;
+import static org.bytedeco.llvm.global.clang.CXSaveError_None;
+import static org.bytedeco.llvm.global.clang.CXSaveError_TranslationErrors;
+import static org.bytedeco.llvm.global.clang.clang_defaultReparseOptions;
+import static org.bytedeco.llvm.global.clang.clang_defaultSaveOptions;
+import static org.bytedeco.llvm.global.clang.clang_disposeTranslationUnit;
+import static org.bytedeco.llvm.global.clang.clang_getFileName;
+import static org.bytedeco.llvm.global.clang.clang_getInclusions;
+import static org.bytedeco.llvm.global.clang.clang_getTranslationUnitCursor;
+import static org.bytedeco.llvm.global.clang.clang_parseTranslationUnit2;
+import static org.bytedeco.llvm.global.clang.clang_reparseTranslationUnit;
+import static org.bytedeco.llvm.global.clang.clang_saveTranslationUnit;
+
+public final class TranslationUnit extends ClangAutoCloseable<CXTranslationUnit> {
+    private final @NonNull Path file;
+
+    private TranslationUnit(
+            final @NonNull CXTranslationUnit translationUnit,
+            final @NonNull Path file
+    ) {
+        super(translationUnit);
+        this.file = file;
+    }
+
+    /**
+     * Parses the {@code file}.
+     *
+     * @param commandLineArgs the compiler arguments, not including the
+     *                        compiler executable and the source file itself.
+     * @param options the bitwise <em>OR</em> of the
+     *                {@code CXTranslationUnit_*} flags.
+     * @throws RuntimeException if the file can't be parsed.
+     * @see #parse(Index, Path, List, List, int)
+     */
+    public static @NonNull TranslationUnit parse(
+            final @NonNull Index index,
+            final @NonNull Path file,
+            final @NonNull List<@NonNull String> commandLineArgs,
+            final int options
+    ) {
+        return parse(index, file, commandLineArgs, List.of(), options);
+    }
+
+    /**
+     * Parses the {@code file}, reading the contents of the
+     * {@code unsavedFiles} from memory rather than from disk.
+     *
+     * @param commandLineArgs the compiler arguments, not including the
+     *                        compiler executable and the source file itself.
+     * @param unsavedFiles the files whose in-memory contents override their
+     *                     on-disk contents; the contents are copied, so they
+     *                     may be changed once this method returns.
+     * @param options the bitwise <em>OR</em> of the
+     *                {@code CXTranslationUnit_*} flags.
+     * @throws RuntimeException if the file can't be parsed.
+     * @see #parse(Index, Path, List, int)
+     * @see #reparse(List)
+     */
+    public static @NonNull TranslationUnit parse(
+            final @NonNull Index index,
+            final @NonNull Path file,
+            final @NonNull List<@NonNull String> commandLineArgs,
+            final @NonNull List<@NonNull UnsavedFile> unsavedFiles,
+            final int options
+    ) {
+        final CXTranslationUnit translationUnit = new CXTranslationUnit();
+        try (final BytePointer sourceFilename = new BytePointer(file.toString());
+             final PointerPointer<?> commandLineArgsPtr = new PointerPointer<>(commandLineArgs.toArray(new String[0]));
+             final CxUnsavedFiles cxUnsavedFiles = new CxUnsavedFiles(unsavedFiles)) {
+            final long start = Metrics.getDefault().start();
+            final int errorCode = clang_parseTranslationUnit2(
+                    index.resource,
+                    sourceFilename,
+                    commandLineArgsPtr,
+                    commandLineArgs.size(),
+                    cxUnsavedFiles.array(),
+                    cxUnsavedFiles.count(),
+                    options,
+                    translationUnit
+            );
+            Metrics.getDefault().stop(PARSE, start);
+            checkError(errorCode);
+        }
+
+        return new TranslationUnit(translationUnit, file);
+    }
+
+    /**
+     * Re-parses this translation unit in place, with the same command line
+     * arguments, so that all the cursors obtained from it earlier are
+     * invalidated.
+     *
+     * <p>
+     * If the translation unit has been parsed with the
+     * {@code CXTranslationUnit_PrecompiledPreamble} flag, the preamble (the
+     * leading <code>#include</code> directives of the main file) is reused
+     * unless it has changed, making the re-parse much cheaper than the
+     * initial parse.
+     * </p>
+     *
+     * <p>
+     * If the re-parse fails, this translation unit is closed.
+     * </p>
+     *
+     * @param unsavedFiles the files whose in-memory contents override their
+     *                     on-disk contents; the contents are copied, so they
+     *                     may be changed once this method returns.
+     * @throws RuntimeException if the file can't be re-parsed.
+     * @see #parse(Index, Path, List, List, int)
+     */
+    public void reparse(final @NonNull List<@NonNull UnsavedFile> unsavedFiles) {
+        check(!isClosed(), () -> "Translation unit is closed: " + file);
+
+        final int errorCode;
+        try (final CxUnsavedFiles cxUnsavedFiles = new CxUnsavedFiles(unsavedFiles)) {
+            final long start = Metrics.getDefault().start();
+            errorCode = clang_reparseTranslationUnit(
+                    resource,
+                    cxUnsavedFiles.count(),
+                    cxUnsavedFiles.array(),
+                    clang_defaultReparseOptions(resource)
+            );
+            Metrics.getDefault().stop(PARSE, start);
+        }
+
+        if (errorCode != CXError_Success) {
+            /*
+             * The only valid operation on a translation unit
+             * which has failed to re-parse is disposing of it.
+             */
+            close();
+            checkError(errorCode);
+        }
+    }
+
+    /**
+     * @return the file this translation unit has been parsed from.
+     */
+    public @NonNull Path getFile() {
+        return file;
+    }
+
+    public @NonNull CXTranslationUnit getCxTranslationUnit() {
+        return resource;
+    }
+
+    /**
+     * @return the cursor which represents this translation unit.
+     */
+    public @NonNull CXCursor getCursor() {
+        return clang_getTranslationUnitCursor(resource);
+    }
+
+    /**
+     * Saves this translation unit (e.g.: a precompiled header) to
+     * {@code target}.
+     *
+     * <p>
+     * The translation unit should have been parsed with the
+     * {@code CXTranslationUnit_ForSerialization} flag.
+     * </p>
+     *
+     * @throws IOException if the translation unit can't be saved.
+     */
+    public void save(final @NonNull Path target) throws IOException {
+        final int result = clang_saveTranslationUnit(resource, target.toString(), clang_defaultSaveOptions(resource));
+        if (result != CXSaveError_None) {
+            final String error = switch (result) {
+                case CXSaveError_TranslationErrors -> "TranslationErrors";
+                case CXSaveError_InvalidTU -> "InvalidTU";
+                default -> "Unknown";
+            };
+            throw new IOException(format("Unable to save %s to %s: %s", file, target, error));
+        }
+    }
+
+    /**
+     * @return all the files transitively included by this translation unit,
+     *   in the order of inclusion, not including the main file.
+     */
+    public @NonNull Set<@NonNull Path> getInclusions() {
+        final Set<Path> inclusions = new LinkedHashSet<>();
+        try (final CXInclusionVisitor visitor = new CXInclusionVisitor() {
+            @Override
+            public void call(
+                    final @NonNull CXFile includedFile,
+                    final @NonNull CXSourceLocation inclusionStack,
+                    final int includeLength,
+                    final CXClientData clientData
+            ) {
+                if (includeLength > 0) {
+                    inclusions.add(Path.of(clang_getFileName(includedFile).getString()));
+                }
+            }
+        }) {
+            clang_getInclusions(resource, visitor, null);
+        }
+        return inclusions;
+    }
+
+    @Override
+    protected void closeInternal() {
+        clang_disposeTranslationUnit(resource);
+    }
+
+    /**
+     * Check for errors of the compilation process.
+     */
+    public static void checkError(final int errorCode) {
+        if (errorCode != CXError_Success) {
+            switch (errorCode) {
+            case CXError_InvalidArguments -> throw new RuntimeException("InvalidArguments");
+            case CXError_ASTReadError -> throw new RuntimeException("ASTReadError");
+            case CXError_Crashed -> throw new RuntimeException("Crashed");
+            case CXError_Failure -> throw new RuntimeException("Failure");
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.clang;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static java.lang.String.format;
+
+/**
+ * The in-memory contents of a file which has not yet been saved to disk
+ * (e.g.: an editor buffer), overriding its on-disk contents.
+ *
+ * <p>
+ * The contents are not copied: the caller should not modify the array once
+ * it has been passed to the constructor.
+ * </p>
+ *
+ * @see TranslationUnit#parse(Index, Path, java.util.List, java.util.List, int)
+ * @see TranslationUnit#reparse(java.util.List)
+ * @see SourceOverlay
+ */
+public final class UnsavedFile {
+    private final @NonNull Path file;
+
+    private final byte @NonNull[] contents;
+
+    /**
+     * The contents as a {@link SourceText}, created on first use.
+     */
+    private volatile @Nullable SourceText text;
+
+    public UnsavedFile(final @NonNull Path file, final byte @NonNull[] contents) {
+        this.file = file;
+        this.contents = contents;
+    }
+
+    public @NonNull Path getFile() {
+        return file;
+    }
+
+    public byte @NonNull[] getContents() {
+        return contents;
+    }
+
+    /**
+     * @return the contents as a {@link SourceText}, the same one on each call
+     *   (so that the contents are only scanned once, however many times the
+     *   file is looked up).
+     * @see SourceTextCache#get(Path)
+     */
+    @NonNull SourceText getText() {
+        SourceText result = text;
+        if (result == null) {
+            result = new SourceText(file, ByteBuffer.wrap(contents));
+            text = result;
+        }
+        return result;
+    }
+
+    @Override
+    public @NonNull String toString() {
+        return format("{file: \"%s\", length: %d}", file, contents.length);
+    }
+}
@@ -0,0 +1,532 @@
+package com.example.overflowdb;
+
+import com.example.AstBuilder;
+import com.example.AstNodeKind;
+import com.example.TokenKind;
+import com.example.clang.NativeArena;
+import com.example.clang.SourceText;
+import com.example.clang.StringInterner;
+import org.bytedeco.llvm.clang.CXCursor;
+import org.bytedeco.llvm.clang.CXFile;
+import org.bytedeco.llvm.clang.CXFileUniqueID;
+import org.bytedeco.llvm.clang.CXSourceLocation;
+import org.bytedeco.llvm.clang.CXSourceRange;
+import org.bytedeco.llvm.clang.CXString;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+import overflowdb.Graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.example.clang.Utils.check;
+import static com.example.clang.Utils.require;
+import static com.example.overflowdb.AstGraphLoader.NODE_COLOR;
+import static com.example.overflowdb.AstGraphLoader.ROOT_COLOR;
+import static com.example.overflowdb.AstGraphLoader.TOKEN_COLOR;
+import static com.example.overflowdb.AstNodeRef.NONE;
+import static org.bytedeco.llvm.global.clang.CXCursor_DeclRefExpr;
+import static org.bytedeco.llvm.global.clang.CXCursor_MacroDefinition;
+import static org.bytedeco.llvm.global.clang.CXCursor_MemberRefExpr;
+import static org.bytedeco.llvm.global.clang.clang_Cursor_isNull;
+import static org.bytedeco.llvm.global.clang.clang_equalCursors;
+import static org.bytedeco.llvm.global.clang.clang_getCursorExtent;
+import static org.bytedeco.llvm.global.clang.clang_getCursorKind;
+import static org.bytedeco.llvm.global.clang.clang_getCursorReferenced;
+import static org.bytedeco.llvm.global.clang.clang_getCursorUSR;
+import static org.bytedeco.llvm.global.clang.clang_getFileUniqueID;
+import static org.bytedeco.llvm.global.clang.clang_getRangeEnd;
+import static org.bytedeco.llvm.global.clang.clang_getRangeStart;
+import static org.bytedeco.llvm.global.clang.clang_getSpellingLocation;
+import static org.bytedeco.llvm.global.clang.clang_isCursorDefinition;
+import static org.bytedeco.llvm.global.clang.clang_isDeclaration;
+import static org.bytedeco.llvm.global.clang.clang_isReference;
+
+/**
+ * Writes an AST directly into a {@link Graph} as it's being visited, without
+ * building a tree of {@link com.example.AstNode}s first, so that the heap
+ * never holds a full in-memory copy of the AST in addition to the graph
+ * (which, in turn, overflows to disk as the heap fills up).
+ *
+ * <p>
+ * The nodes are buffered and added to the graph (via an
+ * {@link AstGraphLoader}) in batches of {@code batchSize}, along with their
+ * {@link AstChildEdge}s and {@link AstNextSiblingEdge}s, in the order they
+ * have been visited. The graph
+ * is exactly the same as the one built from an {@link com.example.AstNode}
+ * tree by {@link AstGraphLoader#load(com.example.AstNode)}. Call {@link #flush()} once the traversal
+ * is over.
+ * </p>
+ *
+ * <p>
+ * Only the nodes on the path from the root to the most recently added node
+ * (plus the current batch) are retained, so a handle is only valid until a
+ * node is added to one of its ancestors (i.e. until its subtree is over),
+ * which is all a {@link com.example.FlatAstVisitor} needs.
+ * </p>
+ *
+ * <p>
+ * A builder created by a {@link ProjectGraph} skips the declarations which
+ * are already in the graph (see {@link com.example.AstBuilder#SKIP}), and
+ * records the definitions and the use sites it comes across.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class AstGraphBuilder implements AstBuilder {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * The USR <em>libclang</em> returns for the cursors it can't name
+     * (e.g.: access specifiers), i.e. just the language prefix.
+     */
+    private static final String EMPTY_USR = "c:";
+
+    private final @NonNull AstGraphLoader loader;
+
+    private final int batchSize;
+
+    private final @Nullable ProjectGraph project;
+
+    private final @NonNull AstNodeRef rootNode;
+
+    /**
+     * The nodes whose subtrees are still being visited, indexed by handle,
+     * the root being at {@code 0}.
+     */
+    private @Nullable PendingNode open @NonNull[] = new PendingNode[64];
+
+    private int openCount;
+
+    private final @NonNull StringInterner interner = StringInterner.getDefault();
+
+    /*
+     * The output parameters of clang_getSpellingLocation().
+     */
+
+    private final int lineBuffer[] = new int[1];
+
+    private final int columnBuffer[] = new int[1];
+
+    private final int offsetBuffer[] = new int[1];
+
+    /**
+     * The output parameter of {@code clang_getFileUniqueID()}, allocated once
+     * per builder rather than once per declaration (and never owned by the
+     * {@link NativeArena} of a traversal), or {@code null} if there's no
+     * project.
+     */
+    private final @Nullable CXFileUniqueID fileIdBuffer;
+
+    /**
+     * The nodes not yet added to the graph, in the order visited.
+     */
+    private final @NonNull List<@NonNull PendingNode> batch;
+
+    private long nodeCount;
+
+    public AstGraphBuilder(final @NonNull Graph graph, final @NonNull String rootText) {
+        this(new AstGraphLoader(graph), rootText, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param loader the loader to create the nodes and edges with (which
+     *               also keeps the statistics).
+     * @param rootText the label of the root node (e.g.: the file name),
+     *                 which is added to the graph immediately.
+     * @param batchSize the number of nodes buffered before they're added to
+     *                  the graph.
+     */
+    public AstGraphBuilder(
+            final @NonNull AstGraphLoader loader,
+            final @NonNull String rootText,
+            final int batchSize
+    ) {
+        this(loader, rootText, batchSize, null);
+    }
+
+    /**
+     * @param project the project the graph belongs to, if any.
+     * @see ProjectGraph#newBuilder(String)
+     */
+    AstGraphBuilder(
+            final @NonNull AstGraphLoader loader,
+            final @NonNull String rootText,
+            final int batchSize,
+            final @Nullable ProjectGraph project
+    ) {
+        require(batchSize > 0, () -> "batchSize should be positive: " + batchSize);
+
+        this.loader = loader;
+        this.batchSize = batchSize;
+        this.project = project;
+        fileIdBuffer = project == null ? null : NativeArena.detach(new CXFileUniqueID());
+        batch = new ArrayList<>(batchSize);
+
+        rootNode = loader.addNode(rootText, null, ROOT_COLOR, NONE, NONE, NONE, NONE, NONE, 0, null);
+        nodeCount = 1L;
+
+        final PendingNode root = new PendingNode(rootText, null, ROOT_COLOR, null, null);
+        root.ref = rootNode;
+        open[0] = root;
+        openCount = 1;
+    }
+
+    /**
+     * @return the root node, already in the graph.
+     */
+    @Contract(pure = true)
+    public @NonNull AstNodeRef getRootNode() {
+        return rootNode;
+    }
+
+    /**
+     * @return the number of nodes added so far, including those not yet
+     *   flushed.
+     */
+    @Contract(pure = true)
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public int getRoot() {
+        return 0;
+    }
+
+    /**
+     * Adds a node without its {@link AstNodeRef#CURSOR_KIND}, source range,
+     * or {@link AstNodeRef#USR}.
+     *
+     * @see #addNode(int, String, CXCursor)
+     */
+    @Override
+    public int addNode(final int parent, final @NonNull String text) {
+        return open(add(parent, text, null, NODE_COLOR, NONE, NONE, NONE, NONE, NONE, null, false, null));
+    }
+
+    /**
+     * Adds a node along with its {@link AstNodeRef#CURSOR_KIND}, the
+     * beginning and the end of its extent (as a spelling location), and its
+     * {@link AstNodeRef#USR} if it's a declaration.
+     *
+     * @return the handle of the new node, or {@link AstBuilder#SKIP} if the
+     *   node is a declaration already in the {@link ProjectGraph}.
+     */
+    @Override
+    public int addNode(
+            final int parent,
+            final @NonNull String text,
+            final @NonNull CXCursor cursor
+    ) {
+        final int cursorKind = clang_getCursorKind(cursor);
+        final boolean declaration = clang_isDeclaration(cursorKind) != 0 || cursorKind == CXCursor_MacroDefinition;
+        final @Nullable String usr = declaration ? getUsr(cursor) : null;
+
+        int beginOffset = NONE;
+        int endOffset = NONE;
+        int line = NONE;
+        int column = NONE;
+        boolean duplicate = false;
+        final CXSourceRange extent = clang_getCursorExtent(cursor);
+        try (final CXSourceLocation begin = clang_getRangeStart(extent);
+             final CXSourceLocation end = clang_getRangeEnd(extent);
+             final CXFile file = new CXFile()) {
+            clang_getSpellingLocation(begin, file, lineBuffer, columnBuffer, offsetBuffer);
+            if (!file.isNull()) {
+                beginOffset = offsetBuffer[0];
+                line = lineBuffer[0];
+                column = columnBuffer[0];
+                clang_getSpellingLocation(end, (CXFile) null, null, null, offsetBuffer);
+                endOffset = offsetBuffer[0];
+
+                duplicate = usr != null && !addDeclaration(usr, file, beginOffset);
+            }
+        } finally {
+            extent.close();
+        }
+
+        if (duplicate) {
+            checkOpen(parent);
+            final PendingNode parentNode = open[parent];
+            assert parentNode != null;
+            parentNode.skippedChildren = true;
+            return SKIP;
+        }
+
+        final boolean definition = project != null && usr != null && clang_isCursorDefinition(cursor) != 0;
+        final @Nullable String referencedUsr = project != null
+                                               && (clang_isReference(cursorKind) != 0
+                                                   || cursorKind == CXCursor_DeclRefExpr
+                                                   || cursorKind == CXCursor_MemberRefExpr)
+                                               ? getReferencedUsr(cursor)
+                                               : null;
+
+        return open(add(parent, text, null, NODE_COLOR, cursorKind, beginOffset, endOffset, line, column, usr, definition, referencedUsr));
+    }
+
+    /**
+     * @return {@code true} if there's no project, or if the declaration has
+     *   just been added to the project.
+     */
+    private boolean addDeclaration(
+            final @NonNull String usr,
+            final @NonNull CXFile file,
+            final int offset
+    ) {
+        final CXFileUniqueID fileId = fileIdBuffer;
+        if (project == null || fileId == null) {
+            return true;
+        }
+
+        return clang_getFileUniqueID(file, fileId) != 0
+               || project.addDeclaration(usr, fileId.data(0), fileId.data(1), offset);
+    }
+
+    /**
+     * @return the interned USR, or {@code null} if there's none.
+     */
+    private @Nullable String getUsr(final @NonNull CXCursor cursor) {
+        try (final CXString cxUsr = clang_getCursorUSR(cursor)) {
+            final String usr = cxUsr.getString();
+            return usr.isEmpty() || usr.equals(EMPTY_USR) ? null : interner.intern(usr);
+        }
+    }
+
+    /**
+     * @return the USR of the declaration the {@code cursor} refers to, if
+     *   any.
+     */
+    private @Nullable String getReferencedUsr(final @NonNull CXCursor cursor) {
+        try (final CXCursor referenced = clang_getCursorReferenced(cursor)) {
+            return clang_Cursor_isNull(referenced) != 0 || clang_equalCursors(cursor, referenced) != 0
+                   ? null
+                   : getUsr(referenced);
+        }
+    }
+
+    private int open(final @NonNull PendingNode child) {
+        if (openCount == open.length) {
+            open = Arrays.copyOf(open, 2 * openCount);
+        }
+        open[openCount] = child;
+        return openCount++;
+    }
+
+    @Override
+    public void addToken(
+            final int parent,
+            final @NonNull String text,
+            final @NonNull TokenKind kind,
+            final @NonNull SourceText source,
+            final int beginOffsetBytes,
+            final int endOffsetBytes
+    ) {
+        add(
+                parent,
+                text,
+                kind,
+                TOKEN_COLOR,
+                NONE,
+                beginOffsetBytes,
+                endOffsetBytes,
+                source.getLine(beginOffsetBytes),
+                source.getColumn(beginOffsetBytes),
+                null,
+                false,
+                null
+        );
+    }
+
+    @Override
+    public boolean isLeaf(final int node) {
+        checkOpen(node);
+        final PendingNode openNode = open[node];
+        assert openNode != null;
+        return openNode.lastChild == null && !openNode.skippedChildren;
+    }
+
+    /**
+     * Adds all the buffered nodes (and their edges) to the graph.
+     */
+    public void flush() {
+        final long start = System.nanoTime();
+
+        for (final PendingNode node : batch) {
+            final PendingNode parent = node.parent;
+            assert parent != null && parent.ref != null;
+
+            final AstNodeRef ref = loader.addNode(
+                    node.label,
+                    node.kind,
+                    node.color,
+                    node.cursorKind,
+                    node.beginOffset,
+                    node.endOffset,
+                    node.line,
+                    node.column,
+                    node.depth,
+                    node.usr
+            );
+
+            final PendingNode previousSibling = node.previousSibling;
+            assert previousSibling == null || previousSibling.ref != null;
+            loader.addEdges(parent.ref, ref, previousSibling == null ? null : previousSibling.ref);
+
+            node.ref = ref;
+
+            if (project != null) {
+                if (node.definition) {
+                    assert node.usr != null;
+                    project.addDefinition(node.usr, ref);
+                }
+                if (node.referencedUsr != null) {
+                    project.addReference(ref, node.referencedUsr);
+                }
+            }
+
+            /*
+             * Let the flushed nodes be collected.
+             */
+            node.parent = null;
+            node.previousSibling = null;
+        }
+
+        batch.clear();
+
+        loader.addElapsedNanos(System.nanoTime() - start);
+    }
+
+    private @NonNull PendingNode add(
+            final int parent,
+            final @NonNull String label,
+            final @Nullable AstNodeKind kind,
+            final int color,
+            final int cursorKind,
+            final int beginOffset,
+            final int endOffset,
+            final int line,
+            final int column,
+            final @Nullable String usr,
+            final boolean definition,
+            final @Nullable String referencedUsr
+    ) {
+        checkOpen(parent);
+
+        /*
+         * The subtrees of the nodes below the parent are over.
+         */
+        for (int node = parent + 1; node < openCount; node++) {
+            final PendingNode closedNode = open[node];
+            assert closedNode != null;
+            closedNode.lastChild = null;
+            open[node] = null;
+        }
+        openCount = parent + 1;
+
+        final PendingNode parentNode = open[parent];
+        assert parentNode != null;
+        final PendingNode child = new PendingNode(label, kind, color, parentNode, parentNode.lastChild);
+        child.cursorKind = cursorKind;
+        child.beginOffset = beginOffset;
+        child.endOffset = endOffset;
+        child.line = line;
+        child.column = column;
+        child.depth = parent + 1;
+        child.usr = usr;
+        child.definition = definition;
+        child.referencedUsr = referencedUsr;
+        parentNode.lastChild = child;
+        nodeCount++;
+
+        batch.add(child);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+
+        return child;
+    }
+
+    private void checkOpen(final int node) {
+        check(
+                node >= 0 && node < openCount,
+                () -> "The subtree of node " + node + " is already over"
+        );
+    }
+
+    /**
+     * A node which may not have been added to the graph yet.
+     */
+    private static final class PendingNode {
+        private final @NonNull String label;
+
+        private final @Nullable AstNodeKind kind;
+
+        /**
+         * {@code 0xrrggbb}.
+         */
+        private final int color;
+
+        private int cursorKind = NONE;
+
+        private int beginOffset = NONE;
+
+        private int endOffset = NONE;
+
+        private int line = NONE;
+
+        private int column = NONE;
+
+        private int depth;
+
+        private @Nullable String usr;
+
+        private boolean definition;
+
+        /**
+         * The USR of the declaration a use site refers to.
+         */
+        private @Nullable String referencedUsr;
+
+        /**
+         * {@code null} once flushed.
+         */
+        private @Nullable PendingNode parent;
+
+        /**
+         * {@code null} once flushed.
+         */
+        private @Nullable PendingNode previousSibling;
+
+        private @Nullable PendingNode lastChild;
+
+        /**
+         * Whether any child has been skipped as a duplicate (so that the
+         * node is not a leaf, even if it has no children).
+         */
+        private boolean skippedChildren;
+
+        /**
+         * {@code null} until flushed.
+         */
+        private @Nullable AstNodeRef ref;
+
+        private PendingNode(
+                final @NonNull String label,
+                final @Nullable AstNodeKind kind,
+                final int color,
+                final @Nullable PendingNode parent,
+                final @Nullable PendingNode previousSibling
+        ) {
+            this.label = label;
+            this.kind = kind;
+            this.color = color;
+            this.parent = parent;
+            this.previousSibling = previousSibling;
+        }
+    }
+}
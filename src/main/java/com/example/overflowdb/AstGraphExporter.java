@@ -0,0 +1,111 @@
+package com.example.overflowdb;
+
+import com.example.clang.Metrics;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import overflowdb.Graph;
+import overflowdb.Node;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Exports a graph to any number of {@link AstGraphSink}s (e.g.: a
+ * {@link GraphMLSink} and a {@link DotSink}) with a single traversal, which
+ * visits each node once, and hands it over to every sink along with its
+ * outgoing edges.
+ *
+ * <p>
+ * Unlike the <em>OverflowDB</em> exporters, nothing is collected from the
+ * graph upfront: the memory used doesn't depend on the size of the graph.
+ * </p>
+ */
+public final class AstGraphExporter {
+    /**
+     * The labels of the edges exported, in the order they're exported for
+     * each node.
+     */
+    private static final String EDGE_LABELS[] = {
+            AstChildEdge.LABEL_E,
+            AstNextSiblingEdge.LABEL_E,
+            AstReferenceEdge.LABEL_E
+    };
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private AstGraphExporter() {
+        assert false;
+    }
+
+    /**
+     * Writes all the nodes and edges of the {@code graph} to each of the
+     * {@code sinks}, which are left open.
+     *
+     * @return the number of nodes exported.
+     */
+    public static long export(
+            final @NonNull Graph graph,
+            final @NonNull List<? extends @NonNull AstGraphSink> sinks
+    ) throws IOException {
+        final long start = Metrics.getDefault().start();
+        long nodeCount = 0L;
+        for (final Iterator<Node> nodes = graph.nodes(AstNodeRef.LABEL_V); nodes.hasNext(); ) {
+            final AstNodeRef node = (AstNodeRef) nodes.next();
+            for (final AstGraphSink sink : sinks) {
+                sink.node(node);
+            }
+
+            final long id = node.id();
+            for (final String label : EDGE_LABELS) {
+                for (final Iterator<Node> inNodes = node.out(label); inNodes.hasNext(); ) {
+                    final long inNodeId = inNodes.next().id();
+                    for (final AstGraphSink sink : sinks) {
+                        sink.edge(id, label, inNodeId);
+                    }
+                }
+            }
+
+            nodeCount++;
+        }
+        Metrics.getDefault().stop(Metrics.Stage.GRAPH_EXPORT, start);
+        return nodeCount;
+    }
+
+    /**
+     * Opens a buffered <em>UTF-8</em> writer to {@code file}, replacing it if
+     * it exists, for an {@link AstGraphSink} to write to.
+     *
+     * @param gzip whether to compress the output (in which case the file
+     *             name should end with {@code .gz}), favoring speed over the
+     *             compression ratio, as the text is very repetitive anyway.
+     */
+    public static @NonNull Writer newWriter(final @NonNull Path file, final boolean gzip) throws IOException {
+        final OutputStream out = Files.newOutputStream(file);
+        try {
+            return new OutputStreamWriter(
+                    gzip ? new FastGzipOutputStream(out) : new BufferedOutputStream(out, BUFFER_SIZE),
+                    UTF_8
+            );
+        } catch (final IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    private static final class FastGzipOutputStream extends GZIPOutputStream {
+        private FastGzipOutputStream(final @NonNull OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.example.overflowdb;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+import overflowdb.Graph;
+import overflowdb.Node;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+
+import static com.example.overflowdb.AstNodeRef.KIND;
+import static com.example.overflowdb.AstNodeRef.LABEL;
+import static com.example.overflowdb.AstNodeRef.USR;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Secondary indexes over the {@link AstNodeRef#KIND}, {@link AstNodeRef#LABEL}
+ * and {@link AstNodeRef#USR} properties of a graph, mapping each distinct
+ * value to the ids of the nodes which have it, so that finding e.g. all the
+ * nodes of a kind, or the declarations with a USR, is a hash lookup rather
+ * than a scan of {@link Graph#nodes()}.
+ *
+ * <p>
+ * The index is updated incrementally, as nodes are added by an
+ * {@link AstGraphLoader} (or an {@link AstGraphBuilder}) it's attached to,
+ * and persisted in a file of its own next to the graph storage (see
+ * {@link #write(Path)} and {@link #open(Graph, Path)}). The node ids are
+ * stored delta- and variable-length-encoded. Nodes are never removed from the
+ * index, and later property changes are not tracked.
+ * </p>
+ *
+ * <p>
+ * Along with the index, a fingerprint of the indexed nodes is persisted (their
+ * number, the maximum id, and an order-independent hash of the id and the
+ * indexed properties of each node), so that an index which no longer matches
+ * its graph (e.g.: with nodes replaced, or properties changed) is rebuilt
+ * rather than used, even if the node count is the same. Checking the hash
+ * takes reading every node of the graph, though, so if the index has been
+ * written after the graph has been closed (see
+ * {@link #write(Path, Path)}), the size and the modification time of the
+ * graph storage are persisted as well, and as long as neither has changed,
+ * comparing the node count and the maximum id is enough.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class AstGraphIndex {
+    /**
+     * The indexed properties, in the order they're persisted.
+     */
+    public static final @NonNull List<@NonNull String> INDEXED_KEYS = List.of(KIND, LABEL, USR);
+
+    private static final int MAGIC = 0x41535449;
+
+    private static final int VERSION = 3;
+
+    private final @NonNull Graph graph;
+
+    private final @NonNull Map<@NonNull String, @NonNull IdList> kinds;
+
+    private final @NonNull Map<@NonNull String, @NonNull IdList> labels;
+
+    private final @NonNull Map<@NonNull String, @NonNull IdList> usrs;
+
+    /**
+     * The nodes indexed so far.
+     */
+    private final @NonNull Fingerprint fingerprint;
+
+    /**
+     * The size of the graph storage as of {@link #write(Path, Path)}, or
+     * {@link AstNodeRef#NONE} if unknown.
+     */
+    private long storageSize = AstNodeRef.NONE;
+
+    /**
+     * The modification time of the graph storage (in milliseconds) as of
+     * {@link #write(Path, Path)}, or {@link AstNodeRef#NONE} if unknown.
+     */
+    private long storageModified = AstNodeRef.NONE;
+
+    /**
+     * Creates an empty index.
+     */
+    public AstGraphIndex(final @NonNull Graph graph) {
+        this(graph, new HashMap<>(), new HashMap<>(), new HashMap<>(), new Fingerprint());
+    }
+
+    private AstGraphIndex(
+            final @NonNull Graph graph,
+            final @NonNull Map<@NonNull String, @NonNull IdList> kinds,
+            final @NonNull Map<@NonNull String, @NonNull IdList> labels,
+            final @NonNull Map<@NonNull String, @NonNull IdList> usrs,
+            final @NonNull Fingerprint fingerprint
+    ) {
+        this.graph = graph;
+        this.kinds = kinds;
+        this.labels = labels;
+        this.usrs = usrs;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Reads the index of {@code graph} from {@code file} if it's there and
+     * its fingerprint matches that of the nodes of the graph, or else
+     * rebuilds it with a full scan of the graph.
+     *
+     * @throws IOException if reading fails for any reason other than the
+     *   file being missing or stale.
+     * @see #open(Graph, Path, Path)
+     */
+    public static @NonNull AstGraphIndex open(
+            final @NonNull Graph graph,
+            final @NonNull Path file
+    ) throws IOException {
+        return open(graph, file, null);
+    }
+
+    /**
+     * Reads the index of {@code graph} from {@code file} if it's there and
+     * up-to-date, or else rebuilds it with a full scan of the graph.
+     *
+     * <p>
+     * The index is up-to-date without reading any nodes if the node count and
+     * the maximum id of the graph match those of the index, and the
+     * {@code storage} hasn't changed since the index has been written (see
+     * {@link #write(Path, Path)}). Otherwise, the fingerprint of the index is
+     * compared to that of all the nodes of the graph.
+     * </p>
+     *
+     * @param storage the storage the {@code graph} has just been opened from,
+     *                if any.
+     * @throws IOException if reading fails for any reason other than the
+     *   file being missing or stale (a truncated file, or a file of another
+     *   format or version, is stale as well).
+     */
+    public static @NonNull AstGraphIndex open(
+            final @NonNull Graph graph,
+            final @NonNull Path file,
+            final @Nullable Path storage
+    ) throws IOException {
+        try {
+            final @Nullable AstGraphIndex index = readIfSupported(graph, file);
+            if (index != null
+                && index.fingerprint.nodeCount == graph.nodeCount()
+                && index.fingerprint.maxId == maxId(graph)
+                && (index.isStorageUnchanged(storage) || index.fingerprint.equals(Fingerprint.of(graph)))) {
+                return index;
+            }
+        } catch (final NoSuchFileException | EOFException ignored) {
+            // Missing or truncated, rebuild.
+        }
+
+        final AstGraphIndex index = new AstGraphIndex(graph);
+        index.addAll();
+        return index;
+    }
+
+    /**
+     * @throws IOException if the file is missing, or is not an index file of
+     *   the supported version.
+     */
+    public static @NonNull AstGraphIndex read(
+            final @NonNull Graph graph,
+            final @NonNull Path file
+    ) throws IOException {
+        final @Nullable AstGraphIndex index = readIfSupported(graph, file);
+        if (index == null) {
+            throw new IOException("Not an AST graph index of version " + VERSION + ": " + file);
+        }
+        return index;
+    }
+
+    /**
+     * @return {@code null} if the file is not an index file of the supported
+     *   version.
+     */
+    private static @Nullable AstGraphIndex readIfSupported(
+            final @NonNull Graph graph,
+            final @NonNull Path file
+    ) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            final Fingerprint fingerprint = new Fingerprint();
+            fingerprint.nodeCount = in.readLong();
+            fingerprint.maxId = in.readLong();
+            fingerprint.contentHash = in.readLong();
+            final long storageSize = in.readLong();
+            final long storageModified = in.readLong();
+            final Map<String, IdList> kinds = readMap(in);
+            final Map<String, IdList> labels = readMap(in);
+            final Map<String, IdList> usrs = readMap(in);
+            final AstGraphIndex index = new AstGraphIndex(graph, kinds, labels, usrs, fingerprint);
+            index.storageSize = storageSize;
+            index.storageModified = storageModified;
+            return index;
+        }
+    }
+
+    /**
+     * Writes the index to {@code file}, replacing it atomically.
+     *
+     * @see #write(Path, Path)
+     */
+    public void write(final @NonNull Path file) throws IOException {
+        write(file, null);
+    }
+
+    /**
+     * Writes the index to {@code file}, replacing it atomically, along with
+     * the size and the modification time of the graph {@code storage}, so
+     * that {@link #open(Graph, Path, Path)} can tell the index is up-to-date
+     * without reading the nodes of the graph.
+     *
+     * @param storage the storage of the graph, which should already be closed
+     *                (so that the storage is complete), if any.
+     */
+    public void write(final @NonNull Path file, final @Nullable Path storage) throws IOException {
+        final long storageSize;
+        final long storageModified;
+        if (storage != null && Files.isRegularFile(storage)) {
+            storageSize = Files.size(storage);
+            storageModified = Files.getLastModifiedTime(storage).toMillis();
+        } else {
+            storageSize = AstNodeRef.NONE;
+            storageModified = AstNodeRef.NONE;
+        }
+
+        final Path absoluteFile = file.toAbsolutePath();
+        final Path temporaryFile = Files.createTempFile(
+                absoluteFile.getParent(),
+                absoluteFile.getFileName().toString(),
+                ".tmp"
+        );
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint.nodeCount);
+                out.writeLong(fingerprint.maxId);
+                out.writeLong(fingerprint.contentHash);
+                out.writeLong(storageSize);
+                out.writeLong(storageModified);
+                writeMap(out, kinds);
+                writeMap(out, labels);
+                writeMap(out, usrs);
+            }
+            Files.move(temporaryFile, absoluteFile, REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * @return the number of nodes indexed so far.
+     */
+    @Contract(pure = true)
+    public long getNodeCount() {
+        return fingerprint.nodeCount;
+    }
+
+    /**
+     * @param key one of the {@link #INDEXED_KEYS}.
+     * @return the number of nodes whose {@code key} property is
+     *   {@code value}.
+     */
+    public int count(final @NonNull String key, final @NonNull String value) {
+        final IdList ids = index(key).get(value);
+        return ids == null ? 0 : ids.size;
+    }
+
+    /**
+     * Looks up the ids of the nodes in constant time; the ids are iterated
+     * in the order the nodes have been indexed.
+     *
+     * @param key one of the {@link #INDEXED_KEYS}.
+     * @return the ids of the nodes whose {@code key} property is
+     *   {@code value}.
+     */
+    public PrimitiveIterator.@NonNull OfLong nodeIds(
+            final @NonNull String key,
+            final @NonNull String value
+    ) {
+        final IdList ids = index(key).get(value);
+        return ids == null ? IdList.EMPTY.iterator() : ids.iterator();
+    }
+
+    /**
+     * @param key one of the {@link #INDEXED_KEYS}.
+     * @return the nodes whose {@code key} property is {@code value}, looked
+     *   up in the graph lazily.
+     * @see #nodeIds(String, String)
+     */
+    public @NonNull Iterator<@NonNull AstNodeRef> nodes(
+            final @NonNull String key,
+            final @NonNull String value
+    ) {
+        final PrimitiveIterator.OfLong ids = nodeIds(key, value);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return ids.hasNext();
+            }
+
+            @Override
+            public @NonNull AstNodeRef next() {
+                return (AstNodeRef) graph.node(ids.nextLong());
+            }
+        };
+    }
+
+    /**
+     * @return the distinct values of the {@code key} property.
+     */
+    public @NonNull Iterable<@NonNull String> values(final @NonNull String key) {
+        return index(key).keySet();
+    }
+
+    /**
+     * Indexes a single node.
+     */
+    public void add(final @NonNull AstNodeRef node) {
+        final AstNodeDb nodeDb = node.get();
+        add(node.id(), nodeDb.getKind(), nodeDb.getLabel(), nodeDb.getUsr());
+    }
+
+    /**
+     * Indexes a node whose properties are already known, without reading
+     * them back from the graph.
+     *
+     * @see AstGraphLoader
+     */
+    void add(
+            final long id,
+            final @Nullable String kind,
+            final @Nullable String label,
+            final @Nullable String usr
+    ) {
+        addId(kinds, kind, id);
+        addId(labels, label, id);
+        addId(usrs, usr, id);
+        fingerprint.add(id, kind, label, usr);
+    }
+
+    /**
+     * @return whether the {@code storage} has the size and the modification
+     *   time it had when the index was written.
+     */
+    private boolean isStorageUnchanged(final @Nullable Path storage) throws IOException {
+        return storage != null
+               && storageSize != AstNodeRef.NONE
+               && Files.isRegularFile(storage)
+               && Files.size(storage) == storageSize
+               && Files.getLastModifiedTime(storage).toMillis() == storageModified;
+    }
+
+    /**
+     * @return the maximum node id, only looking at the node references (so
+     *   that no node is read from the storage).
+     */
+    private static long maxId(final @NonNull Graph graph) {
+        long maxId = AstNodeRef.NONE;
+        for (final Iterator<Node> nodes = graph.nodes(AstNodeRef.LABEL_V); nodes.hasNext(); ) {
+            maxId = Math.max(maxId, nodes.next().id());
+        }
+        return maxId;
+    }
+
+    /**
+     * Indexes all the nodes of the graph.
+     */
+    private void addAll() {
+        for (final Iterator<Node> nodes = graph.nodes(AstNodeRef.LABEL_V); nodes.hasNext(); ) {
+            add((AstNodeRef) nodes.next());
+        }
+    }
+
+    private @NonNull Map<@NonNull String, @NonNull IdList> index(final @NonNull String key) {
+        return switch (key) {
+            case KIND -> kinds;
+            case LABEL -> labels;
+            case USR -> usrs;
+            default -> throw new IllegalArgumentException("Not an indexed property: " + key);
+        };
+    }
+
+    private static void addId(
+            final @NonNull Map<@NonNull String, @NonNull IdList> index,
+            final @Nullable String value,
+            final long id
+    ) {
+        if (value != null) {
+            index.computeIfAbsent(value, it -> new IdList()).add(id);
+        }
+    }
+
+    private static void writeMap(
+            final @NonNull DataOutputStream out,
+            final @NonNull Map<@NonNull String, @NonNull IdList> index
+    ) throws IOException {
+        out.writeInt(index.size());
+        for (final Map.Entry<String, IdList> entry : index.entrySet()) {
+            final byte value[] = entry.getKey().getBytes(UTF_8);
+            out.writeInt(value.length);
+            out.write(value);
+
+            final IdList ids = entry.getValue();
+            out.writeInt(ids.size);
+            long previousId = 0L;
+            for (int i = 0; i < ids.size; i++) {
+                writeVarLong(out, ids.ids[i] - previousId);
+                previousId = ids.ids[i];
+            }
+        }
+    }
+
+    private static @NonNull Map<@NonNull String, @NonNull IdList> readMap(final @NonNull DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final Map<String, IdList> index = new HashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+        for (int entry = 0; entry < size; entry++) {
+            final byte value[] = new byte[in.readInt()];
+            in.readFully(value);
+
+            final int idCount = in.readInt();
+            final IdList ids = new IdList(idCount);
+            long id = 0L;
+            for (int i = 0; i < idCount; i++) {
+                id += readVarLong(in);
+                ids.add(id);
+            }
+            index.put(new String(value, UTF_8), ids);
+        }
+        return index;
+    }
+
+    /**
+     * Writes {@code value} zigzag-encoded, 7 bits per byte, so that small
+     * deltas (of either sign) take a single byte.
+     */
+    private static void writeVarLong(final @NonNull DataOutputStream out, final long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0L) {
+            out.writeByte((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(final @NonNull DataInputStream in) throws IOException {
+        long zigzag = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1L);
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    /**
+     * Identifies a set of nodes along with their indexed properties,
+     * regardless of the order they've been added in.
+     */
+    private static final class Fingerprint {
+        private long nodeCount;
+
+        private long maxId = AstNodeRef.NONE;
+
+        /**
+         * The sum of the hashes of the nodes.
+         */
+        private long contentHash;
+
+        /**
+         * Scans all the nodes of the {@code graph}, reading their indexed
+         * properties (but without indexing them).
+         */
+        private static @NonNull Fingerprint of(final @NonNull Graph graph) {
+            final Fingerprint fingerprint = new Fingerprint();
+            for (final Iterator<Node> nodes = graph.nodes(AstNodeRef.LABEL_V); nodes.hasNext(); ) {
+                final AstNodeRef node = (AstNodeRef) nodes.next();
+                final AstNodeDb nodeDb = node.get();
+                fingerprint.add(node.id(), nodeDb.getKind(), nodeDb.getLabel(), nodeDb.getUsr());
+            }
+            return fingerprint;
+        }
+
+        private void add(
+                final long id,
+                final @Nullable String kind,
+                final @Nullable String label,
+                final @Nullable String usr
+        ) {
+            nodeCount++;
+            maxId = Math.max(maxId, id);
+
+            long hash = id;
+            hash = 31L * hash + Objects.hashCode(kind);
+            hash = 31L * hash + Objects.hashCode(label);
+            hash = 31L * hash + Objects.hashCode(usr);
+            contentHash += mix(hash);
+        }
+
+        /**
+         * The finalizer of <em>MurmurHash3</em>, so that the sum of the
+         * hashes of similar nodes doesn't cancel out.
+         */
+        private static long mix(final long hash) {
+            long h = hash;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        @Override
+        public boolean equals(final @Nullable Object obj) {
+            return this == obj
+                   || obj instanceof final Fingerprint that
+                      && nodeCount == that.nodeCount
+                      && maxId == that.maxId
+                      && contentHash == that.contentHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(contentHash);
+        }
+    }
+
+    /**
+     * A growable array of node ids.
+     */
+    private static final class IdList {
+        private static final IdList EMPTY = new IdList(0);
+
+        private long ids[];
+
+        private int size;
+
+        private IdList() {
+            this(4);
+        }
+
+        private IdList(final int capacity) {
+            ids = new long[capacity];
+        }
+
+        private void add(final long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(4, 2 * size));
+            }
+            ids[size++] = id;
+        }
+
+        /**
+         * Iterates over the ids added so far.
+         */
+        private PrimitiveIterator.@NonNull OfLong iterator() {
+            final long ids[] = this.ids;
+            final int size = this.size;
+            return new PrimitiveIterator.OfLong() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size;
+                }
+
+                @Override
+                public long nextLong() {
+                    if (next >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return ids[next++];
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.example.overflowdb;
+
+import com.example.AstNode;
+import com.example.AstNodeKind;
+import com.example.CompactAst;
+import com.example.CursorKind;
+import com.example.TokenKind;
+import com.example.clang.Metrics;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+import overflowdb.Graph;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static com.example.CompactAst.NONE;
+import static com.example.overflowdb.AstNodeRef.LABEL_V;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Loads whole ASTs (either an {@link AstNode} tree or a {@link CompactAst})
+ * into a {@link Graph} in a single pass, creating the nodes along with their
+ * {@link AstChildEdge}s and {@link AstNextSiblingEdge}s.
+ *
+ * <p>
+ * Unlike {@link AstNodeRef#addChild(String, AstNodeKind, java.awt.Color)},
+ * the properties are encoded upfront (the kind as a string computed once per
+ * kind, the color as a packed {@code 0xrrggbb} {@code int}) and stored into
+ * each new node directly, rather than passed as key/value pairs and
+ * dispatched one by one.
+ * </p>
+ *
+ * <p>
+ * The depth of each node is stored, and so are the offsets, the line and
+ * the column of the nodes which have a source range. An {@link AstNode}
+ * doesn't keep anything of the cursor, so the {@link AstNodeRef#CURSOR_KIND}
+ * and the {@link AstNodeRef#USR} are only known to an
+ * {@link AstGraphBuilder}, or to a {@link CompactAst} built along with the
+ * cursors (see {@link CompactAst#getCursorKind(int)}), in which case a
+ * loaded graph has the same properties as a graph built straight from the
+ * cursors.
+ * </p>
+ *
+ * <p>
+ * The loader keeps track of how many nodes and edges it has created, and how
+ * long it took (see {@link #getNodesPerSecond()}), and adds each new node to
+ * an {@link AstGraphIndex}, if any.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class AstGraphLoader {
+    static final int ROOT_COLOR = 0xFF0000;
+
+    static final int NODE_COLOR = 0x00FF00;
+
+    static final int TOKEN_COLOR = 0x00FFFF;
+
+    private final @NonNull Graph graph;
+
+    private final @Nullable AstGraphIndex index;
+
+    private final @NonNull Map<@NonNull AstNodeKind, @NonNull String> kindStrings = new IdentityHashMap<>();
+
+    private long nodeCount;
+
+    private long edgeCount;
+
+    private long elapsedNanos;
+
+    public AstGraphLoader(final @NonNull Graph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * @param index the index to add the new nodes to, if any.
+     */
+    public AstGraphLoader(final @NonNull Graph graph, final @Nullable AstGraphIndex index) {
+        this.graph = graph;
+        this.index = index;
+    }
+
+    @Contract(pure = true)
+    public @NonNull Graph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the number of nodes created so far.
+     */
+    @Contract(pure = true)
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of edges created so far.
+     */
+    @Contract(pure = true)
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return the time spent creating nodes and edges so far, in nanoseconds.
+     */
+    @Contract(pure = true)
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the number of nodes created per second so far, or {@code 0.0}
+     *   if none have been created.
+     */
+    @Contract(pure = true)
+    public double getNodesPerSecond() {
+        return elapsedNanos == 0L ? 0.0 : nodeCount * (double) SECONDS.toNanos(1L) / elapsedNanos;
+    }
+
+    /**
+     * Loads the whole tree, in pre-order.
+     *
+     * @return the graph node which corresponds to {@code rootAstNode}.
+     */
+    public @NonNull AstNodeRef load(final @NonNull AstNode rootAstNode) {
+        final long start = System.nanoTime();
+
+        final AstNodeRef graphRoot = addNode(rootAstNode, ROOT_COLOR);
+
+        /*
+         * An explicit stack rather than recursion,
+         * so that deeply nested ASTs don't overflow the thread stack.
+         */
+        final Deque<Level> levels = new ArrayDeque<>();
+        levels.push(new Level(graphRoot, rootAstNode));
+        while (!levels.isEmpty()) {
+            final Level level = levels.element();
+            if (!level.astChildren.hasNext()) {
+                levels.pop();
+                continue;
+            }
+
+            final AstNode astChild = level.astChildren.next();
+            final AstNodeRef graphChild = addNode(astChild, colorOf(astChild.getKind()));
+            addEdges(level.graphParent, graphChild, level.previousSibling);
+            level.previousSibling = graphChild;
+            levels.push(new Level(graphChild, astChild));
+        }
+
+        addElapsedNanos(System.nanoTime() - start);
+        return graphRoot;
+    }
+
+    /**
+     * Loads the whole AST with a single linear scan, relying on each parent
+     * (and each previous sibling) being numbered before the node itself.
+     *
+     * @return the graph node which corresponds to the root of {@code ast}.
+     */
+    public @NonNull AstNodeRef load(final @NonNull CompactAst ast) {
+        final long start = System.nanoTime();
+
+        final int size = ast.size();
+        final AstNodeRef refs[] = new AstNodeRef[size];
+        final int lastChildren[] = new int[size];
+        Arrays.fill(lastChildren, NONE);
+        final int depths[] = new int[size];
+
+        for (int node = 0; node < size; node++) {
+            final int parent = ast.getParent(node);
+            if (parent == NONE) {
+                refs[node] = addNode(ast, node, ROOT_COLOR, 0);
+                continue;
+            }
+
+            depths[node] = depths[parent] + 1;
+            final AstNodeRef ref = addNode(ast, node, colorOf(ast.getKind(node)), depths[node]);
+            refs[node] = ref;
+
+            final int previousSibling = lastChildren[parent];
+            addEdges(refs[parent], ref, previousSibling == NONE ? null : refs[previousSibling]);
+            lastChildren[parent] = node;
+        }
+
+        addElapsedNanos(System.nanoTime() - start);
+        return refs[0];
+    }
+
+    /**
+     * Creates a single node, without any edges.
+     *
+     * @param rgb the color, as {@code 0xrrggbb}.
+     * @param usr the interned USR, if any.
+     * @see AstNodeDb#initialize(String, String, int, int, int, int, int, int, int, String)
+     */
+    @NonNull AstNodeRef addNode(
+            final @NonNull String label,
+            final @Nullable AstNodeKind kind,
+            final int rgb,
+            final int cursorKind,
+            final int beginOffset,
+            final int endOffset,
+            final int line,
+            final int column,
+            final int depth,
+            final @Nullable String usr
+    ) {
+        final String kindString = kind == null ? null : kindString(kind);
+        final AstNodeRef ref = (AstNodeRef) graph.addNode(LABEL_V);
+        ref.get().initialize(
+                label,
+                kindString,
+                rgb,
+                cursorKind,
+                beginOffset,
+                endOffset,
+                line,
+                column,
+                depth,
+                usr
+        );
+        if (index != null) {
+            index.add(ref.id(), kindString, label, usr);
+        }
+        nodeCount++;
+        Metrics.getDefault().increment(Metrics.Counter.GRAPH_NODES);
+        return ref;
+    }
+
+    private @NonNull AstNodeRef addNode(final @NonNull AstNode astNode, final int rgb) {
+        final boolean hasRange = astNode.getFile() != null;
+        return addNode(
+                astNode.getText(),
+                astNode.getKind(),
+                rgb,
+                AstNodeRef.NONE,
+                hasRange ? astNode.getBeginOffsetBytes() : AstNodeRef.NONE,
+                hasRange ? astNode.getEndOffsetBytes() : AstNodeRef.NONE,
+                hasRange ? astNode.getBeginLine() : AstNodeRef.NONE,
+                hasRange ? astNode.getBeginColumn() : AstNodeRef.NONE,
+                astNode.getDepth(),
+                null
+        );
+    }
+
+    private @NonNull AstNodeRef addNode(
+            final @NonNull CompactAst ast,
+            final int node,
+            final int rgb,
+            final int depth
+    ) {
+        final CursorKind cursorKind = ast.getCursorKind(node);
+        return addNode(
+                ast.getText(node),
+                ast.getKind(node),
+                rgb,
+                cursorKind == null ? AstNodeRef.NONE : cursorKind.getValue(),
+                ast.getBeginOffset(node),
+                ast.getEndOffset(node),
+                ast.getLine(node),
+                ast.getColumn(node),
+                depth,
+                ast.getUsr(node)
+        );
+    }
+
+    /**
+     * Links a new node to its parent and to its previous sibling, if any.
+     */
+    void addEdges(
+            final @NonNull AstNodeRef parent,
+            final @NonNull AstNodeRef child,
+            final @Nullable AstNodeRef previousSibling
+    ) {
+        parent.addChild(child);
+        edgeCount++;
+        Metrics.getDefault().increment(Metrics.Counter.GRAPH_EDGES);
+
+        if (previousSibling != null) {
+            previousSibling.addNextSibling(child);
+            edgeCount++;
+            Metrics.getDefault().increment(Metrics.Counter.GRAPH_EDGES);
+        }
+    }
+
+    /**
+     * Accounts for the time spent creating nodes and edges with this loader
+     * (e.g.: by an {@link AstGraphBuilder}).
+     */
+    void addElapsedNanos(final long nanos) {
+        elapsedNanos += nanos;
+        Metrics.getDefault().record(Metrics.Stage.GRAPH_LOAD, nanos);
+    }
+
+    static int colorOf(final @Nullable AstNodeKind kind) {
+        return kind instanceof TokenKind ? TOKEN_COLOR : NODE_COLOR;
+    }
+
+    private @NonNull String kindString(final @NonNull AstNodeKind kind) {
+        final String kindString = kindStrings.get(kind);
+        if (kindString != null) {
+            return kindString;
+        }
+
+        final String newKindString = kind.toString();
+        kindStrings.put(kind, newKindString);
+        return newKindString;
+    }
+
+    /**
+     * A single level of the depth-first traversal in {@link #load(AstNode)}.
+     */
+    private static final class Level {
+        private final @NonNull AstNodeRef graphParent;
+
+        private final @NonNull Iterator<@NonNull AstNode> astChildren;
+
+        private @Nullable AstNodeRef previousSibling;
+
+        private Level(
+                final @NonNull AstNodeRef graphParent,
+                final @NonNull AstNode astParent
+        ) {
+            this.graphParent = graphParent;
+            this.astChildren = astParent.getChildren().iterator();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.overflowdb;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the nodes and the edges of an AST graph from a single traversal
+ * (see {@link AstGraphExporter}), e.g.: to write them out in some file
+ * format as they come, without holding the whole graph.
+ *
+ * <p>
+ * Each node comes before its outgoing edges, but an edge may well come
+ * before the node it points to.
+ * </p>
+ *
+ * @see GraphMLSink
+ * @see DotSink
+ */
+public interface AstGraphSink extends Closeable {
+    /**
+     * @param node the node, whose properties are only read within this call.
+     */
+    void node(final @NonNull AstNodeRef node) throws IOException;
+
+    /**
+     * @param label the edge label, e.g.: {@link AstChildEdge#LABEL_E}.
+     */
+    void edge(final long outNodeId, final @NonNull String label, final long inNodeId) throws IOException;
+
+    /**
+     * Completes the output, and closes it.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -1,51 +1,151 @@
 package com.example.overflowdb;
 
 import com.example.AstNodeKind;
+import com.example.clang.StringInterner;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.Contract;
 import overflowdb.NodeDb;
 import overflowdb.NodeLayoutInformation;
 import overflowdb.NodeRef;
 
 import java.awt.Color;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
 
+import static com.example.overflowdb.AstNodeRef.BEGIN_OFFSET;
 import static com.example.overflowdb.AstNodeRef.BLUE;
 import static com.example.overflowdb.AstNodeRef.COLOR;
+import static com.example.overflowdb.AstNodeRef.COLUMN;
+import static com.example.overflowdb.AstNodeRef.CURSOR_KIND;
+import static com.example.overflowdb.AstNodeRef.DEPTH;
+import static com.example.overflowdb.AstNodeRef.END_OFFSET;
 import static com.example.overflowdb.AstNodeRef.KIND;
 import static com.example.overflowdb.AstNodeRef.GREEN;
 import static com.example.overflowdb.AstNodeRef.LABEL;
 import static com.example.overflowdb.AstNodeRef.LABEL_V;
+import static com.example.overflowdb.AstNodeRef.LINE;
+import static com.example.overflowdb.AstNodeRef.NONE;
 import static com.example.overflowdb.AstNodeRef.RED;
-import static java.lang.String.format;
-import static java.util.regex.Pattern.compile;
+import static com.example.overflowdb.AstNodeRef.USR;
 
 public final class AstNodeDb extends NodeDb {
-    @Language("RegExp")
-    private static final String HEX_CHARS = "[A-Fa-f0-9]";
+    private static final NodeLayoutInformation LAYOUT_INFORMATION = new NodeLayoutInformation(
+            LABEL_V,
+            Set.of(LABEL, KIND, COLOR, RED, GREEN, BLUE, CURSOR_KIND, BEGIN_OFFSET, END_OFFSET, LINE, COLUMN, DEPTH, USR),
+            List.of(AstChildEdge.LAYOUT_INFORMATION, AstNextSiblingEdge.LAYOUT_INFORMATION, AstReferenceEdge.LAYOUT_INFORMATION),
+            List.of(AstChildEdge.LAYOUT_INFORMATION, AstNextSiblingEdge.LAYOUT_INFORMATION, AstReferenceEdge.LAYOUT_INFORMATION));
 
     /**
-     * Either RGB or RGBA.
+     * The value of {@link #rgb} if there's no color (or if the color is a
+     * symbolic name), which is not a valid {@code 0xrrggbb} value.
      */
-    private static final Pattern COLOR_PATTERN = compile(format("^#(?:%s{8}|%s{6})$", HEX_CHARS, HEX_CHARS));
+    static final int NO_COLOR = -1;
+
+    private static final byte HEX_DIGITS[] = {
+            '0', '1', '2', '3', '4', '5', '6', '7',
+            '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    /**
+     * The boxed channel values, since {@link Integer#valueOf(int)} only
+     * caches up to {@code 127}.
+     */
+    private static final Integer CHANNELS[] = new Integer[256];
+
+    static {
+        for (int channel = 0; channel < CHANNELS.length; channel++) {
+            CHANNELS[channel] = channel;
+        }
+    }
 
     private @Nullable String label;
 
     private @Nullable String kind;
 
     /**
-     * Either the symbolic name of a color, or {@code #rrggbb}.
+     * The color as {@code 0xrrggbb}, or {@link #NO_COLOR}.
+     * Formatted as {@code #rrggbb} only when read as a string.
+     */
+    private int rgb = NO_COLOR;
+
+    /**
+     * The symbolic name of a color, if the color has been set to a string
+     * which is not {@code #rrggbb} (or {@code #rrggbbaa}), in which case
+     * {@link #rgb} is {@link #NO_COLOR}.
+     */
+    private @Nullable String colorName;
+
+    /*
+     * The int properties, NONE if not known.
+     */
+
+    private int cursorKind = NONE;
+
+    private int beginOffset = NONE;
+
+    private int endOffset = NONE;
+
+    private int line = NONE;
+
+    private int column = NONE;
+
+    private int depth = NONE;
+
+    /**
+     * Interned.
      */
-    private @Nullable String color;
+    private @Nullable String usr;
 
     AstNodeDb(final NodeRef<AstNodeDb> nodeRef) {
         super(nodeRef);
     }
 
+    /**
+     * Sets all the properties of a node which has just been created, without
+     * going through {@link #updateSpecificProperty(String, Object)}, and then
+     * {@linkplain #markAsDirty() marks the node as dirty}, so that the values
+     * are persisted to the storage.
+     *
+     * <p>
+     * Since {@link NodeDb#setProperty(String, Object)} is bypassed, the
+     * built-in property indexes of <em>OverflowDB</em> (if any) don't see
+     * these values; they should only be created once the graph is loaded.
+     * </p>
+     *
+     * @param rgb the color, as {@code 0xrrggbb}.
+     * @param usr the interned USR, if any.
+     * @see AstGraphLoader
+     */
+    void initialize(
+            final @Nullable String label,
+            final @Nullable String kind,
+            final int rgb,
+            final int cursorKind,
+            final int beginOffset,
+            final int endOffset,
+            final int line,
+            final int column,
+            final int depth,
+            final @Nullable String usr
+    ) {
+        this.label = label;
+        this.kind = kind;
+        this.rgb = rgb & 0xFFFFFF;
+        colorName = null;
+        this.cursorKind = cursorKind;
+        this.beginOffset = beginOffset;
+        this.endOffset = endOffset;
+        this.line = line;
+        this.column = column;
+        this.depth = depth;
+        this.usr = usr;
+        markAsDirty();
+    }
+
     public @Nullable String getLabel() {
         return label;
     }
@@ -54,62 +154,137 @@ public final class AstNodeDb extends NodeDb {
         return kind;
     }
 
+    /**
+     * @return either the symbolic name of the color, or {@code #rrggbb}
+     *   (formatted on each call), or {@code null}.
+     */
     public @Nullable String getColor() {
-        return color;
+        if (colorName != null) {
+            return colorName;
+        }
+        return rgb == NO_COLOR ? null : formatColor(rgb);
     }
 
-    public int getRed() {
-        final @Nullable Integer red = getRedOrNull();
-        return red == null ? 0 : red;
+    /**
+     * @return the color as {@code 0xrrggbb}, or {@link #NO_COLOR} if there's
+     *   no color, or if it's a symbolic name.
+     */
+    @Contract(pure = true)
+    public int getRgb() {
+        return rgb;
     }
 
-    private @Nullable Integer getRedOrNull() {
-        final Color parsedColor = parseColorSafe(color);
-        return parsedColor == null ? null : parsedColor.getRed();
+    @Contract(pure = true)
+    public int getRed() {
+        return rgb == NO_COLOR ? 0 : (rgb >>> 16) & 0xFF;
     }
 
+    @Contract(pure = true)
     public int getGreen() {
-        final @Nullable Integer green = getGreenOrNull();
-        return green == null ? 0 : green;
+        return rgb == NO_COLOR ? 0 : (rgb >>> 8) & 0xFF;
+    }
+
+    @Contract(pure = true)
+    public int getBlue() {
+        return rgb == NO_COLOR ? 0 : rgb & 0xFF;
     }
 
-    private @Nullable Integer getGreenOrNull() {
-        final Color parsedColor = parseColorSafe(color);
-        return parsedColor == null ? null : parsedColor.getGreen();
+    @Contract(pure = true)
+    public int getCursorKind() {
+        return cursorKind;
     }
 
-    public int getBlue() {
-        final @Nullable Integer blue = getBlueOrNull();
-        return blue == null ? 0 : blue;
+    @Contract(pure = true)
+    public int getBeginOffset() {
+        return beginOffset;
+    }
+
+    @Contract(pure = true)
+    public int getEndOffset() {
+        return endOffset;
+    }
+
+    @Contract(pure = true)
+    public int getLine() {
+        return line;
+    }
+
+    @Contract(pure = true)
+    public int getColumn() {
+        return column;
+    }
+
+    @Contract(pure = true)
+    public int getDepth() {
+        return depth;
     }
 
-    private @Nullable Integer getBlueOrNull() {
-        final Color parsedColor = parseColorSafe(color);
-        return parsedColor == null ? null : parsedColor.getBlue();
+    @Contract(pure = true)
+    public @Nullable String getUsr() {
+        return usr;
     }
 
     @Override
     public NodeLayoutInformation layoutInformation() {
-        return new NodeLayoutInformation(
-                LABEL_V,
-                Set.of(LABEL, KIND, COLOR, RED, GREEN, BLUE),
-                List.of(AstChildEdge.LAYOUT_INFORMATION, AstNextSiblingEdge.LAYOUT_INFORMATION),
-                List.of(AstChildEdge.LAYOUT_INFORMATION, AstNextSiblingEdge.LAYOUT_INFORMATION));
+        return LAYOUT_INFORMATION;
     }
 
+    /**
+     * The color channels are boxed without allocating. The other
+     * {@code int} properties are boxed here only; use the typed getters
+     * (e.g.: {@link #getBeginOffset()}) to avoid boxing altogether.
+     */
     @Override
     public @Nullable Object property(final @NonNull String key) {
         return switch (key) {
             case LABEL -> label;
             case KIND -> kind;
-            case COLOR -> color;
-            case RED -> getRedOrNull();
-            case GREEN -> getGreenOrNull();
-            case BLUE -> getBlueOrNull();
+            case COLOR -> getColor();
+            case RED -> rgb == NO_COLOR ? null : CHANNELS[getRed()];
+            case GREEN -> rgb == NO_COLOR ? null : CHANNELS[getGreen()];
+            case BLUE -> rgb == NO_COLOR ? null : CHANNELS[getBlue()];
+            case CURSOR_KIND -> boxed(cursorKind);
+            case BEGIN_OFFSET -> boxed(beginOffset);
+            case END_OFFSET -> boxed(endOffset);
+            case LINE -> boxed(line);
+            case COLUMN -> boxed(column);
+            case DEPTH -> boxed(depth);
+            case USR -> usr;
             default -> null;
         };
     }
 
+    /**
+     * Stores the color in its packed form (an {@link Integer}) rather than
+     * as {@code #rrggbb}, and leaves out the individual channels, which are
+     * derived from it.
+     */
+    @Override
+    public @NonNull Map<@NonNull String, @NonNull Object> propertiesMapForStorage() {
+        final Map<String, Object> properties = new HashMap<>(16);
+        if (label != null) {
+            properties.put(LABEL, label);
+        }
+        if (kind != null) {
+            properties.put(KIND, kind);
+        }
+        if (colorName != null) {
+            properties.put(COLOR, colorName);
+        } else if (rgb != NO_COLOR) {
+            properties.put(COLOR, rgb);
+        }
+        putIfKnown(properties, CURSOR_KIND, cursorKind);
+        putIfKnown(properties, BEGIN_OFFSET, beginOffset);
+        putIfKnown(properties, END_OFFSET, endOffset);
+        putIfKnown(properties, LINE, line);
+        putIfKnown(properties, COLUMN, column);
+        putIfKnown(properties, DEPTH, depth);
+        if (usr != null) {
+            properties.put(USR, usr);
+        }
+        return properties;
+    }
+
     @Override
     protected void updateSpecificProperty(final @NonNull String key, final @Nullable Object value) {
         switch (key) {
@@ -123,29 +298,28 @@ public final class AstNodeDb extends NodeDb {
         }
         case COLOR -> {
             if (value instanceof String newColor) {
-                color = newColor;
+                setColor(newColor);
             } else if (value instanceof Color newColor) {
-                color = formatColor(newColor);
+                setRgb(newColor.getRGB() & 0xFFFFFF);
+            } else if (value instanceof Integer newRgb) {
+                /*
+                 * The packed form, as stored.
+                 */
+                setRgb(newRgb);
+            } else if (value == null) {
+                setRgb(NO_COLOR);
             }
         }
-        case RED -> {
-            final int red = value == null ? 0 : (int) value;
-            final int green = getGreen();
-            final int blue = getBlue();
-            color = formatColor(new Color(red, green, blue));
-        }
-        case GREEN -> {
-            final int red = getRed();
-            final int green = value == null ? 0 : (int) value;
-            final int blue = getBlue();
-            color = formatColor(new Color(red, green, blue));
-        }
-        case BLUE -> {
-            final int red = getRed();
-            final int green = getGreen();
-            final int blue = value == null ? 0 : (int) value;
-            color = formatColor(new Color(red, green, blue));
-        }
+        case RED -> setRgb(withChannel(16, value));
+        case GREEN -> setRgb(withChannel(8, value));
+        case BLUE -> setRgb(withChannel(0, value));
+        case CURSOR_KIND -> cursorKind = unboxed(value);
+        case BEGIN_OFFSET -> beginOffset = unboxed(value);
+        case END_OFFSET -> endOffset = unboxed(value);
+        case LINE -> line = unboxed(value);
+        case COLUMN -> column = unboxed(value);
+        case DEPTH -> depth = unboxed(value);
+        case USR -> usr = value == null ? null : StringInterner.getDefault().intern((String) value);
         }
     }
 
@@ -154,39 +328,125 @@ public final class AstNodeDb extends NodeDb {
         updateSpecificProperty(key, null);
     }
 
-    private static @NonNull Color parseColor(final @NonNull String color) {
-        if (!COLOR_PATTERN.matcher(color).matches()) {
-            throw new IllegalArgumentException("Not a color string: " + color);
+    @Contract(pure = true)
+    private static @Nullable Integer boxed(final int value) {
+        return value == NONE ? null : value;
+    }
+
+    @Contract(pure = true)
+    private static int unboxed(final @Nullable Object value) {
+        return value == null ? NONE : (int) value;
+    }
+
+    private static void putIfKnown(
+            final @NonNull Map<@NonNull String, @NonNull Object> properties,
+            final @NonNull String key,
+            final int value
+    ) {
+        if (value != NONE) {
+            properties.put(key, value);
         }
+    }
 
-        final int red = Integer.parseInt(color.substring(1, 3), 16);
-        final int green = Integer.parseInt(color.substring(3, 5), 16);
-        final int blue = Integer.parseInt(color.substring(5, 7), 16);
+    private void setColor(final @NonNull String color) {
+        final int parsedRgb = parseColor(color);
+        if (parsedRgb == NO_COLOR) {
+            rgb = NO_COLOR;
+            colorName = color;
+        } else {
+            rgb = parsedRgb;
+            colorName = null;
+        }
+    }
 
-        final int alpha = color.length() > 7
-                          ? Integer.parseInt(color.substring(7, 9), 16)
-                          : 255;
+    /**
+     * @param rgb either {@code 0x[aa]rrggbb} (the <em>alpha</em> being
+     *            ignored), or {@link #NO_COLOR}.
+     */
+    private void setRgb(final int rgb) {
+        this.rgb = rgb == NO_COLOR ? NO_COLOR : rgb & 0xFFFFFF;
+        colorName = null;
+    }
 
-        return new Color(red, green, blue, alpha);
+    /**
+     * @param shift the position of the channel within {@code 0xrrggbb}.
+     * @param value the new value of the channel, {@code null} meaning
+     *              {@code 0}.
+     * @return the current color (black if none) with the channel replaced.
+     */
+    private int withChannel(final int shift, final @Nullable Object value) {
+        final int channel = value == null ? 0 : (int) value;
+        final int currentRgb = rgb == NO_COLOR ? 0 : rgb;
+        return (currentRgb & ~(0xFF << shift)) | ((channel & 0xFF) << shift);
     }
 
-    @Contract("null -> null")
-    private static @Nullable Color parseColorSafe(final @Nullable String color) {
-        if (color == null) {
-            return null;
+    /**
+     * Parses either RGB or RGBA, ignoring the <em>alpha</em>.
+     *
+     * @param color either {@code #rrggbb} or {@code #rrggbbaa}.
+     * @return the color as {@code 0xrrggbb}, or {@link #NO_COLOR} if
+     *   {@code color} is neither.
+     */
+    @Contract(pure = true)
+    private static int parseColor(final @NonNull String color) {
+        final int length = color.length();
+        if (length != 7 && length != 9 || color.charAt(0) != '#') {
+            return NO_COLOR;
         }
 
-        try {
-            return parseColor(color);
-        } catch (final IllegalArgumentException ignored) {
-            return null;
+        int rgb = 0;
+        for (int i = 1; i < length; i++) {
+            final int digit = hexDigit(color.charAt(i));
+            if (digit < 0) {
+                return NO_COLOR;
+            }
+            if (i < 7) {
+                rgb = (rgb << 4) | digit;
+            }
         }
+        return rgb;
     }
 
     /**
-     * Ignores the <em>alpha</em>.
+     * Unlike {@link Character#digit(char, int)}, only accepts ASCII.
+     *
+     * @return the value of the hex digit, or {@code -1}.
      */
-    private static @NonNull String formatColor(final @NonNull Color color) {
-        return format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+    @Contract(pure = true)
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the color as {@code #rrggbb}, without any intermediate string.
+     *
+     * @param rgb the color, as {@code 0xrrggbb}.
+     */
+    static void appendColor(final @NonNull StringBuilder text, final int rgb) {
+        text.append('#');
+        for (int shift = 20; shift >= 0; shift -= 4) {
+            text.append((char) HEX_DIGITS[(rgb >>> shift) & 0xF]);
+        }
+    }
+
+    /**
+     * @param rgb the color, as {@code 0xrrggbb}.
+     */
+    private static @NonNull String formatColor(final int rgb) {
+        final byte chars[] = new byte[7];
+        chars[0] = '#';
+        for (int i = 6; i > 0; i--) {
+            chars[i] = HEX_DIGITS[(rgb >>> (4 * (6 - i))) & 0xF];
+        }
+        return new String(chars, StandardCharsets.ISO_8859_1);
     }
 }
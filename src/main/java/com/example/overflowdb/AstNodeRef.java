@@ -27,6 +27,49 @@ public final class AstNodeRef extends NodeRef<AstNodeDb> {
 
     public static final String BLUE = "b";
 
+    /**
+     * The {@code CXCursorKind} of cursor nodes, an {@code int}.
+     */
+    public static final String CURSOR_KIND = "cursorKind";
+
+    /**
+     * The offset (in bytes) of the beginning of the node in its file,
+     * an {@code int}.
+     */
+    public static final String BEGIN_OFFSET = "beginOffset";
+
+    /**
+     * The offset (in bytes) of the end of the node in its file, an
+     * {@code int}.
+     */
+    public static final String END_OFFSET = "endOffset";
+
+    /**
+     * The line (1-based) of the beginning of the node, an {@code int}.
+     */
+    public static final String LINE = "line";
+
+    /**
+     * The column (1-based, in bytes) of the beginning of the node, an
+     * {@code int}.
+     */
+    public static final String COLUMN = "column";
+
+    /**
+     * The depth of the node, the root being at {@code 0}, an {@code int}.
+     */
+    public static final String DEPTH = "depth";
+
+    /**
+     * The Unified Symbol Resolution of declarations, a {@link String}.
+     */
+    public static final String USR = "usr";
+
+    /**
+     * The value of the {@code int} properties which are not known.
+     */
+    public static final int NONE = -1;
+
     public AstNodeRef(final Graph graph, final long id) {
         super(graph, id);
     }
@@ -48,6 +91,13 @@ public final class AstNodeRef extends NodeRef<AstNodeDb> {
         return get().getColor();
     }
 
+    /**
+     * @see AstNodeDb#getRgb()
+     */
+    public int getRgb() {
+        return get().getRgb();
+    }
+
     public int getRed() {
         return get().getRed();
     }
@@ -60,10 +110,60 @@ public final class AstNodeRef extends NodeRef<AstNodeDb> {
         return get().getBlue();
     }
 
+    /**
+     * @return the {@code CXCursorKind}, or {@link #NONE}.
+     */
+    public int getCursorKind() {
+        return get().getCursorKind();
+    }
+
+    /**
+     * @return the offset of the beginning, or {@link #NONE}.
+     */
+    public int getBeginOffset() {
+        return get().getBeginOffset();
+    }
+
+    /**
+     * @return the offset of the end, or {@link #NONE}.
+     */
+    public int getEndOffset() {
+        return get().getEndOffset();
+    }
+
+    /**
+     * @return the line of the beginning, or {@link #NONE}.
+     */
+    public int getLine() {
+        return get().getLine();
+    }
+
+    /**
+     * @return the column of the beginning, or {@link #NONE}.
+     */
+    public int getColumn() {
+        return get().getColumn();
+    }
+
+    /**
+     * @return the depth, or {@link #NONE}.
+     */
+    public int getDepth() {
+        return get().getDepth();
+    }
+
+    public @Nullable String getUsr() {
+        return get().getUsr();
+    }
+
     public void addNextSibling(final @NonNull AstNodeRef nextSibling) {
         addEdgeImpl(AstNextSiblingEdge.LABEL_E, nextSibling);
     }
 
+    public void addReference(final @NonNull AstNodeRef declaration) {
+        addEdgeImpl(AstReferenceEdge.LABEL_E, declaration);
+    }
+
     public void addChild(final @NonNull AstNodeRef child) {
         addEdgeImpl(AstChildEdge.LABEL_E, child);
     }
@@ -0,0 +1,91 @@
+package com.example.overflowdb;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static com.example.overflowdb.AstNodeRef.LABEL_V;
+
+/**
+ * Writes the graph in the <em>DOT</em> format, in the same layout as the
+ * <em>OverflowDB</em> {@code DotExporter}: each node is labelled by its
+ * {@link AstNodeRef#LABEL} (or {@link AstNodeRef#LABEL_V} if it has none)
+ * and outlined in its {@link AstNodeRef#COLOR}, and each edge is labelled by
+ * the edge label.
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class DotSink extends TextGraphSink {
+    /**
+     * @param out the writer to write to (via an
+     *            {@link com.example.AsyncWriter}), which is closed along
+     *            with the sink.
+     */
+    public DotSink(final @NonNull Writer out) {
+        super(out);
+
+        buffer.append("digraph {\n");
+    }
+
+    @Override
+    public void edge(final long outNodeId, final @NonNull String label, final long inNodeId) throws IOException {
+        buffer.append("  ").append(outNodeId).append(" -> ").append(inNodeId).append(" [label=").append(label).append("]\n");
+        endRecord();
+    }
+
+    /**
+     * The node label is followed by the {@link AstNodeRef#LABEL} property,
+     * if any, which overrides it.
+     */
+    @Override
+    void beginNode(final long id) {
+        buffer.append("  ").append(id).append(" [label=").append(LABEL_V);
+    }
+
+    @Override
+    void endNode() {
+        buffer.append("]\n");
+    }
+
+    @Override
+    void beginProperty(final @NonNull String key, final boolean quoted) {
+        buffer.append(' ').append(key).append('=');
+        if (quoted) {
+            buffer.append('"');
+        }
+    }
+
+    @Override
+    void endProperty(final boolean quoted) {
+        if (quoted) {
+            buffer.append('"');
+        }
+    }
+
+    /**
+     * Escapes the quotes and the backslashes, as well as the line breaks
+     * (as {@code \n} and {@code \r}, which are line breaks in labels too).
+     */
+    @Override
+    void appendEscaped(final @NonNull String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"' -> buffer.append("\\\"");
+            case '\\' -> buffer.append("\\\\");
+            case '\n' -> buffer.append("\\n");
+            case '\r' -> buffer.append("\\r");
+            default -> buffer.append(c);
+            }
+        }
+    }
+
+    @Override
+    void appendFooter() {
+        buffer.append("}\n");
+    }
+}
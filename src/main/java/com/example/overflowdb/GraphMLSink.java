@@ -0,0 +1,120 @@
+package com.example.overflowdb;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static com.example.overflowdb.AstNodeRef.BEGIN_OFFSET;
+import static com.example.overflowdb.AstNodeRef.COLOR;
+import static com.example.overflowdb.AstNodeRef.COLUMN;
+import static com.example.overflowdb.AstNodeRef.CURSOR_KIND;
+import static com.example.overflowdb.AstNodeRef.DEPTH;
+import static com.example.overflowdb.AstNodeRef.END_OFFSET;
+import static com.example.overflowdb.AstNodeRef.KIND;
+import static com.example.overflowdb.AstNodeRef.LABEL;
+import static com.example.overflowdb.AstNodeRef.LABEL_V;
+import static com.example.overflowdb.AstNodeRef.LINE;
+import static com.example.overflowdb.AstNodeRef.USR;
+
+/**
+ * Writes the graph as <em>GraphML</em>, with the same keys as the
+ * <em>OverflowDB</em> {@code GraphMLExporter} (the node label as
+ * {@code labelV}, the edge label as {@code labelE}, and each node property
+ * as {@code node__astNode__<key>}), but declared upfront from the schema
+ * rather than collected from the whole graph first.
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+public final class GraphMLSink extends TextGraphSink {
+    private static final String NODE_KEY_PREFIX = "node__" + LABEL_V + "__";
+
+    private static final String STRING_KEYS[] = {LABEL, KIND, COLOR, USR};
+
+    private static final String INT_KEYS[] = {CURSOR_KIND, BEGIN_OFFSET, END_OFFSET, LINE, COLUMN, DEPTH};
+
+    /**
+     * @param out the writer to write to (as <em>UTF-8</em>, via an
+     *            {@link com.example.AsyncWriter}), which is closed along
+     *            with the sink.
+     */
+    public GraphMLSink(final @NonNull Writer out) {
+        super(out);
+
+        buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+              .append("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"")
+              .append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+              .append(" xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd\">\n")
+              .append("    <key id=\"labelV\" for=\"node\" attr.name=\"labelV\" attr.type=\"string\"></key>\n")
+              .append("    <key id=\"labelE\" for=\"edge\" attr.name=\"labelE\" attr.type=\"string\"></key>\n");
+        for (final String key : STRING_KEYS) {
+            appendKey(key, "string");
+        }
+        for (final String key : INT_KEYS) {
+            appendKey(key, "int");
+        }
+        buffer.append("    <graph id=\"G\" edgedefault=\"directed\">\n");
+    }
+
+    @Override
+    public void edge(final long outNodeId, final @NonNull String label, final long inNodeId) throws IOException {
+        buffer.append("        <edge source=\"").append(outNodeId)
+              .append("\" target=\"").append(inNodeId)
+              .append("\"><data key=\"labelE\">").append(label).append("</data></edge>\n");
+        endRecord();
+    }
+
+    @Override
+    void beginNode(final long id) {
+        buffer.append("        <node id=\"").append(id).append("\"><data key=\"labelV\">").append(LABEL_V).append("</data>");
+    }
+
+    @Override
+    void endNode() {
+        buffer.append("</node>\n");
+    }
+
+    @Override
+    void beginProperty(final @NonNull String key, final boolean quoted) {
+        buffer.append("<data key=\"").append(NODE_KEY_PREFIX).append(key).append("\">");
+    }
+
+    @Override
+    void endProperty(final boolean quoted) {
+        buffer.append("</data>");
+    }
+
+    /**
+     * Escapes the markup characters, and replaces the control characters
+     * not allowed in <em>XML 1.0</em> with {@code U+FFFD}.
+     */
+    @Override
+    void appendEscaped(final @NonNull String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '&' -> buffer.append("&amp;");
+            case '<' -> buffer.append("&lt;");
+            case '>' -> buffer.append("&gt;");
+            case '"' -> buffer.append("&quot;");
+            case '\t', '\n', '\r' -> buffer.append(c);
+            default -> buffer.append(c < ' ' || c == '\uFFFE' || c == '\uFFFF' ? '\uFFFD' : c);
+            }
+        }
+    }
+
+    @Override
+    void appendFooter() {
+        buffer.append("    </graph>\n")
+              .append("</graphml>\n");
+    }
+
+    private void appendKey(final @NonNull String key, final @NonNull String type) {
+        buffer.append("    <key id=\"").append(NODE_KEY_PREFIX).append(key)
+              .append("\" for=\"node\" attr.name=\"").append(key)
+              .append("\" attr.type=\"").append(type).append("\"></key>\n");
+    }
+}
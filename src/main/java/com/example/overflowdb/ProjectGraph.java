@@ -0,0 +1,256 @@
+package com.example.overflowdb;
+
+import com.example.clang.Metrics;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.jetbrains.annotations.Contract;
+import overflowdb.Graph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static com.example.overflowdb.AstNodeRef.USR;
+import static java.util.Objects.hash;
+
+/**
+ * A single graph for a whole project (e.g.: all the translation units of a
+ * compilation database), rather than a graph per translation unit.
+ *
+ * <p>
+ * Each translation unit is added under a root node of its own (see
+ * {@link #newBuilder(String)}), but a declaration which an earlier
+ * translation unit has already added (as it's the case for everything
+ * declared in a shared header) is skipped along with its whole subtree,
+ * rather than stored once again. Declarations are identified by their
+ * {@link AstNodeRef#USR} along with the file and the offset they're spelled
+ * at, so that e.g. the prototype of a function in a header and its
+ * definition in a source file are still different nodes. A declaration is
+ * assumed to have the same subtree in all translation units, which doesn't
+ * hold for a header preprocessed differently by each of them.
+ * </p>
+ *
+ * <p>
+ * Use sites (such as a {@code DeclRefExpr} or a {@code TypeRef}) are linked
+ * to the declaration they refer to with an {@link AstReferenceEdge},
+ * preferably to its definition, wherever in the project it is. Since the
+ * definition may well be added after the use site, references are only
+ * resolved by {@link #resolveReferences()}, once all the translation units
+ * have been added.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe: translation units should be added one at a
+ * time.
+ * </p>
+ */
+public final class ProjectGraph {
+    private final @NonNull Graph graph;
+
+    private final @NonNull AstGraphIndex index;
+
+    private final @NonNull AstGraphLoader loader;
+
+    private final @NonNull Set<@NonNull Declaration> declarations = new HashSet<>();
+
+    /**
+     * The first definition of each USR.
+     */
+    private final @NonNull Map<@NonNull String, @NonNull AstNodeRef> definitions = new HashMap<>();
+
+    /*
+     * The use sites not resolved yet, along with the USRs they refer to,
+     * element by element.
+     */
+
+    private @Nullable AstNodeRef referrers @NonNull[] = new AstNodeRef[64];
+
+    private @Nullable String referencedUsrs @NonNull[] = new String[64];
+
+    private int pendingReferenceCount;
+
+    private long skippedDeclarationCount;
+
+    private long referenceEdgeCount;
+
+    private long unresolvedReferenceCount;
+
+    public ProjectGraph(final @NonNull Graph graph) {
+        this.graph = graph;
+        index = new AstGraphIndex(graph);
+        loader = new AstGraphLoader(graph, index);
+    }
+
+    @Contract(pure = true)
+    public @NonNull Graph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the index of all the nodes added so far.
+     */
+    @Contract(pure = true)
+    public @NonNull AstGraphIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the loader shared by all the builders (which also keeps the
+     *   statistics).
+     */
+    @Contract(pure = true)
+    public @NonNull AstGraphLoader getLoader() {
+        return loader;
+    }
+
+    /**
+     * @return the number of declarations skipped (along with their
+     *   subtrees) as duplicates so far.
+     */
+    @Contract(pure = true)
+    public long getSkippedDeclarationCount() {
+        return skippedDeclarationCount;
+    }
+
+    /**
+     * @return the number of {@link AstReferenceEdge}s added so far.
+     */
+    @Contract(pure = true)
+    public long getReferenceEdgeCount() {
+        return referenceEdgeCount;
+    }
+
+    /**
+     * @return the number of use sites which refer to a declaration which is
+     *   not in the graph (e.g.: one from a system header).
+     */
+    @Contract(pure = true)
+    public long getUnresolvedReferenceCount() {
+        return unresolvedReferenceCount;
+    }
+
+    /**
+     * Creates a builder for a single translation unit, which should be
+     * visited with a {@link com.example.FlatAstVisitor} and flushed before
+     * the next translation unit is added.
+     *
+     * @param rootText the label of the root node of the translation unit
+     *                 (e.g.: the file name).
+     */
+    public @NonNull AstGraphBuilder newBuilder(final @NonNull String rootText) {
+        return new AstGraphBuilder(loader, rootText, AstGraphBuilder.DEFAULT_BATCH_SIZE, this);
+    }
+
+    /**
+     * Links each use site added so far to the declaration it refers to:
+     * its definition, if any, or else the first declaration added.
+     *
+     * @return the number of new {@link AstReferenceEdge}s.
+     */
+    public long resolveReferences() {
+        final long start = System.nanoTime();
+
+        long edgeCount = 0L;
+        for (int reference = 0; reference < pendingReferenceCount; reference++) {
+            final AstNodeRef referrer = referrers[reference];
+            final String usr = referencedUsrs[reference];
+            assert referrer != null && usr != null;
+            referrers[reference] = null;
+            referencedUsrs[reference] = null;
+
+            AstNodeRef declaration = definitions.get(usr);
+            if (declaration == null) {
+                final Iterator<AstNodeRef> declarations = index.nodes(USR, usr);
+                declaration = declarations.hasNext() ? declarations.next() : null;
+            }
+
+            if (declaration == null) {
+                unresolvedReferenceCount++;
+            } else {
+                referrer.addReference(declaration);
+                edgeCount++;
+            }
+        }
+        pendingReferenceCount = 0;
+        referenceEdgeCount += edgeCount;
+        Metrics.getDefault().add(Metrics.Counter.GRAPH_EDGES, edgeCount);
+
+        loader.addElapsedNanos(System.nanoTime() - start);
+        return edgeCount;
+    }
+
+    /**
+     * @param fileDevice the first word of the {@code CXFileUniqueID}.
+     * @param fileInode the second word of the {@code CXFileUniqueID}.
+     * @return {@code false} if the declaration has already been added.
+     */
+    boolean addDeclaration(
+            final @NonNull String usr,
+            final long fileDevice,
+            final long fileInode,
+            final int offset
+    ) {
+        final boolean added = declarations.add(new Declaration(usr, fileDevice, fileInode, offset));
+        if (!added) {
+            skippedDeclarationCount++;
+        }
+        return added;
+    }
+
+    void addDefinition(final @NonNull String usr, final @NonNull AstNodeRef definition) {
+        definitions.putIfAbsent(usr, definition);
+    }
+
+    void addReference(final @NonNull AstNodeRef referrer, final @NonNull String usr) {
+        if (pendingReferenceCount == referrers.length) {
+            referrers = Arrays.copyOf(referrers, 2 * pendingReferenceCount);
+            referencedUsrs = Arrays.copyOf(referencedUsrs, 2 * pendingReferenceCount);
+        }
+        referrers[pendingReferenceCount] = referrer;
+        referencedUsrs[pendingReferenceCount] = usr;
+        pendingReferenceCount++;
+    }
+
+    /**
+     * Where a declaration is spelled.
+     */
+    private static final class Declaration {
+        private final @NonNull String usr;
+
+        private final long fileDevice;
+
+        private final long fileInode;
+
+        private final int offset;
+
+        private Declaration(
+                final @NonNull String usr,
+                final long fileDevice,
+                final long fileInode,
+                final int offset
+        ) {
+            this.usr = usr;
+            this.fileDevice = fileDevice;
+            this.fileInode = fileInode;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(final @Nullable Object obj) {
+            return this == obj
+                   || obj instanceof final Declaration that
+                      && offset == that.offset
+                      && fileInode == that.fileInode
+                      && fileDevice == that.fileDevice
+                      && usr.equals(that.usr);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(usr, fileDevice, fileInode, offset);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.overflowdb;
+
+import com.example.AsyncWriter;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import static com.example.overflowdb.AstNodeDb.NO_COLOR;
+import static com.example.overflowdb.AstNodeRef.BEGIN_OFFSET;
+import static com.example.overflowdb.AstNodeRef.COLOR;
+import static com.example.overflowdb.AstNodeRef.COLUMN;
+import static com.example.overflowdb.AstNodeRef.CURSOR_KIND;
+import static com.example.overflowdb.AstNodeRef.DEPTH;
+import static com.example.overflowdb.AstNodeRef.END_OFFSET;
+import static com.example.overflowdb.AstNodeRef.KIND;
+import static com.example.overflowdb.AstNodeRef.LABEL;
+import static com.example.overflowdb.AstNodeRef.LINE;
+import static com.example.overflowdb.AstNodeRef.NONE;
+import static com.example.overflowdb.AstNodeRef.USR;
+
+/**
+ * The base class for the sinks which format the graph as text.
+ *
+ * <p>
+ * Nodes and edges are formatted into a buffer of the sink, which is handed
+ * over to an {@link AsyncWriter} in large chunks, so that the encoding, the
+ * compression (if any) and the I/O are done on a background thread of each
+ * sink, while the traversal formats the next records.
+ * </p>
+ *
+ * <p>
+ * The node properties are the same as those stored (see
+ * {@link AstNodeDb#propertiesMapForStorage()}): the ones which are not set
+ * are left out, and the color is formatted as {@code #rrggbb}.
+ * </p>
+ */
+abstract class TextGraphSink implements AstGraphSink {
+    private static final int CHUNK_SIZE = 16384;
+
+    private final @NonNull Writer out;
+
+    /**
+     * The text not handed over to {@link #out} yet.
+     */
+    final @NonNull StringBuilder buffer = new StringBuilder(2 * CHUNK_SIZE);
+
+    private boolean closed;
+
+    /**
+     * @param out the writer to write to (via an {@link AsyncWriter}), which
+     *            is closed along with the sink.
+     */
+    TextGraphSink(final @NonNull Writer out) {
+        this.out = new AsyncWriter(out);
+    }
+
+    @Override
+    public final void node(final @NonNull AstNodeRef node) throws IOException {
+        final AstNodeDb nodeDb = node.get();
+        beginNode(node.id());
+        appendProperty(LABEL, nodeDb.getLabel());
+        appendProperty(KIND, nodeDb.getKind());
+        final int rgb = nodeDb.getRgb();
+        if (rgb == NO_COLOR) {
+            appendProperty(COLOR, nodeDb.getColor());
+        } else {
+            beginProperty(COLOR, true);
+            AstNodeDb.appendColor(buffer, rgb);
+            endProperty(true);
+        }
+        appendProperty(CURSOR_KIND, nodeDb.getCursorKind());
+        appendProperty(BEGIN_OFFSET, nodeDb.getBeginOffset());
+        appendProperty(END_OFFSET, nodeDb.getEndOffset());
+        appendProperty(LINE, nodeDb.getLine());
+        appendProperty(COLUMN, nodeDb.getColumn());
+        appendProperty(DEPTH, nodeDb.getDepth());
+        appendProperty(USR, nodeDb.getUsr());
+        endNode();
+        endRecord();
+    }
+
+    abstract void beginNode(final long id);
+
+    abstract void endNode();
+
+    /**
+     * @param quoted whether the value is a string (rather than a number).
+     */
+    abstract void beginProperty(final @NonNull String key, final boolean quoted);
+
+    abstract void endProperty(final boolean quoted);
+
+    /**
+     * Appends a string value, escaped as required by the format.
+     */
+    abstract void appendEscaped(final @NonNull String value);
+
+    private void appendProperty(final @NonNull String key, final @Nullable String value) {
+        if (value != null) {
+            beginProperty(key, true);
+            appendEscaped(value);
+            endProperty(true);
+        }
+    }
+
+    private void appendProperty(final @NonNull String key, final int value) {
+        if (value != NONE) {
+            beginProperty(key, false);
+            buffer.append(value);
+            endProperty(false);
+        }
+    }
+
+    /**
+     * Hands the buffer over once it's large enough; called after each node
+     * and edge.
+     */
+    final void endRecord() throws IOException {
+        if (buffer.length() >= CHUNK_SIZE) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Appends whatever follows the last node or edge.
+     */
+    abstract void appendFooter();
+
+    @Override
+    public final void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            appendFooter();
+            writeBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        out.write(buffer.toString());
+        buffer.setLength(0);
+    }
+}